@@ -1,51 +1,216 @@
 package progressiveAligner;
 
 import ArgsParser.*;
+import progressiveAligner.MainComponents.AlignmentContext;
+import progressiveAligner.MainComponents.AlignmentPlanner;
+import progressiveAligner.MainComponents.Checkpoint;
+import progressiveAligner.MainComponents.IncrementalAlignment;
+import progressiveAligner.MainComponents.NeighbourJoining;
+import progressiveAligner.MainComponents.Newick;
+import progressiveAligner.MainComponents.PairwiseScoreCache;
+import progressiveAligner.MainComponents.PartTree;
+import progressiveAligner.MainComponents.PipelinedAlignment;
 import progressiveAligner.MainComponents.ProgressiveAlignment;
 import progressiveAligner.MainComponents.Profile;
+import progressiveAligner.MainComponents.ProfileStorage;
+import progressiveAligner.MainComponents.ScoringScheme;
+import progressiveAligner.RunModes.AlignmentServer;
+import progressiveAligner.RunModes.BatchAligner;
+import progressiveAligner.RunModes.ScalingBenchmark;
+import progressiveAligner.RunModes.ShardedAligner;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.FastaIO;
+import progressiveAligner.ToolClasses.Metrics;
+import progressiveAligner.ToolClasses.SequenceFamilyGenerator;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.LinkedList;
 
-import static progressiveAligner.MainComponents.ProgressiveAlignment.consensusMSA;
-
 public class Main {
 
-    public static boolean verbose = false;
-    public static int matchScore;
-    public static int mismatchScore;
-    public static int gapPenalty;
-
-    public static boolean verbose() {
-        return verbose;
-    }
-
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         ArgsParser parser = new ArgsParser();
-        Parameter<String> pathToFasta = parser.addMandatoryStringParameter("fastaPath", "fp", "specify the path to the fasta that holds at least 2 sequences");
+        Parameter<String> pathToFasta = parser.addOptionalStringParameter("fastaPath", "fp", "specify the path to the fasta that holds at least 2 sequences (mandatory for Consensus, NeighbourJoining and PartTree)");
         Parameter<Integer> matchScore = parser.addDefaultIntegerParameter("matchScore", "ms", "positive value of the matchScore", 4);
         Parameter<Integer> misMatchScore = parser.addDefaultIntegerParameter("misMatchScore", "mms", "positive value of the misMatchScore", 2);
         Parameter<Integer> gapPenalty = parser.addDefaultIntegerParameter("gapPenalty", "gp", "positive value of the gapPenalty", 1);
+        Parameter<Boolean> verbose = parser.addDefaultBooleanParameter("verbose", "v", "print progress information of the alignment", false);
+        Parameter<String> metricsPath = parser.addOptionalStringParameter("metricsPath", "mp", "if provided, run metrics (DP cells, alignments, time and allocations per phase) are written as JSON to this path");
 
         Command useConensus = parser.addCommand("Consensus", "c", "specify to use everytime newly computed distances between Profiles using consensus sequences to decide which Profiles to align next");
         Command useNJ = parser.addCommand("NeighbourJoining", "nj", "specify to use Neighbour Joining to build a guiding Tree for Profile-Profile alignment order");
-        parser.toggle(useNJ, useConensus);
+        Command usePartTree = parser.addCommand("PartTree", "pt", "specify to build the guiding Tree by recursive k-mer partitioning instead of Neighbour Joining (for very many sequences)");
+        Command useBenchmark = parser.addCommand("Benchmark", "b", "specify to run both pipelines on generated families over a grid of sequence counts and lengths and write the timings as CSV");
+        Command useServer = parser.addCommand("Server", "srv", "specify to run as long-running alignment server that accepts jobs over HTTP on the loopback interface");
+        Command useBatch = parser.addCommand("Batch", "ba", "specify to align all FASTA files of a directory or manifest concurrently, each into its own output file");
+        Command useAdd = parser.addCommand("Add", "add", "specify to add the sequences of --fastaPath to the existing alignment of --alignment without realigning it");
+        parser.toggle(useNJ, usePartTree, useConensus, useBenchmark, useServer, useBatch, useAdd);
+
+        Parameter<Integer[]> benchSequenceCounts = parser.addDefaultIntegerArrayParameter("benchSequenceCounts", "bn", "numbers of sequences of the benchmark grid", new Integer[]{8, 16, 32});
+        Parameter<Integer[]> benchSequenceLengths = parser.addDefaultIntegerArrayParameter("benchSequenceLengths", "bl", "root sequence lengths of the benchmark grid", new Integer[]{100, 200, 400});
+        Parameter<Integer> benchRepetitions = parser.addDefaultIntegerParameter("benchRepetitions", "br", "number of measured runs per grid point", 1);
+        Parameter<String> benchOutput = parser.addDefaultStringParameter("benchOutput", "bo", "path of the CSV file the benchmark results are written to", "benchmark.csv");
+        Parameter<Integer> seed = parser.addDefaultIntegerParameter("seed", "s", "seed for the generation of the benchmark families and the representatives of PartTree", 42);
+        Parameter<Double> substitutionRate = parser.addDefaultDoubleParameter("substitutionRate", "sr", "substitutions per site and unit branch length of the generated families", 0.1);
+        Parameter<Double> indelRate = parser.addDefaultDoubleParameter("indelRate", "ir", "indel events per site and unit branch length of the generated families", 0.02);
+
+        Parameter<Integer> port = parser.addDefaultIntegerParameter("port", "p", "port of the alignment server", 8080);
+        Parameter<Integer> workers = parser.addDefaultIntegerParameter("workers", "w", "number of jobs (or shard worker processes) aligned in parallel", Runtime.getRuntime().availableProcessors());
+        Parameter<Integer> queueCapacity = parser.addDefaultIntegerParameter("queueCapacity", "qc", "number of jobs that may wait for a worker before new jobs are rejected", 64);
+        Parameter<String> fastaRoot = parser.addOptionalStringParameter("fastaRoot", "fr", "directory the fastaPath of a server job has to lie in, without it jobs have to send their sequences in the request body");
+
+        Parameter<String> batchInput = parser.addOptionalStringParameter("batchInput", "bi", "directory with FASTA files or manifest file with one FASTA path per line (mandatory for Batch)");
+        Parameter<String> outputDir = parser.addDefaultStringParameter("outputDir", "od", "directory the batch results and summary are written to", "alignments");
+        Parameter<String> batchMethod = parser.addDefaultStringParameter("batchMethod", "bm", "method used for every batch job: nj (NeighbourJoining), pt (PartTree) or c (Consensus)", "nj");
+
+        Parameter<String> checkpointPath = parser.addOptionalStringParameter("checkpoint", "cp", "file the progress of a NeighbourJoining run is periodically checkpointed to");
+        Parameter<Integer> checkpointInterval = parser.addDefaultIntegerParameter("checkpointInterval", "ci", "minimal number of seconds between two checkpoints", 300);
+        Parameter<Boolean> resume = parser.addDefaultBooleanParameter("resume", "r", "continue from the last checkpoint of --checkpoint instead of starting from scratch", false);
+
+        Parameter<String> guideTree = parser.addOptionalStringParameter("guideTree", "gt", "Newick file with a precomputed guiding tree (labels = FASTA headers) used instead of Neighbour Joining");
+        Parameter<String> treeOut = parser.addOptionalStringParameter("treeOut", "to", "path the guiding tree of a NeighbourJoining or PartTree run is written to in Newick format");
+
+        Parameter<Integer> partTreeRepresentatives = parser.addDefaultIntegerParameter("partTreeRepresentatives", "ptr", "number of representatives per partitioning step of PartTree", PartTree.DEFAULT_REPRESENTATIVES);
+
+        Parameter<Integer> shards = parser.addDefaultIntegerParameter("shards", "sh", "number of guiding tree subtrees aligned by worker processes before they are merged in this one (0 = no workers)", 0);
+        Parameter<String> shardDirectory = parser.addOptionalStringParameter("shardDirectory", "shd", "directory the shards and their results are exchanged in (default: a temporary directory deleted afterwards)");
+
+        Parameter<Boolean> pipeline = parser.addDefaultBooleanParameter("pipeline", "pl", "overlap parsing, distance computation, tree building and alignment of a NeighbourJoining run (alignments on --workers threads)", false);
+
+        Parameter<String> existingAlignment = parser.addOptionalStringParameter("alignment", "al", "aligned FASTA the new sequences are added to (mandatory for Add)");
+
+        Parameter<Integer> anchorSeedLength = parser.addDefaultIntegerParameter("anchorSeedLength", "as", "k-mer length of the seeds anchoring alignments of long sequences (0 = always full dynamic programming)", 0);
+
+        Parameter<Integer> wavefrontCells = parser.addDefaultIntegerParameter("wavefrontCells", "wc", "smallest pairwise matrix (in million cells) that is filled on all cores", 16);
+        Parameter<Integer> anchorCells = parser.addDefaultIntegerParameter("anchorCells", "ac", "smallest pairwise matrix (in million cells) that is aligned anchored if --anchorSeedLength is set", 4);
+        Parameter<Double> anchorSimilarity = parser.addDefaultDoubleParameter("anchorSimilarity", "asi", "smallest share of common 6-mers (0 to 1) of pairs that are aligned anchored", 0.02);
+        Parameter<Boolean> calibrate = parser.addDefaultBooleanParameter("calibrate", "cal", "measure --wavefrontCells and --anchorCells on this machine with a short benchmark at startup", false);
+
+        Parameter<String> distanceCachePath = parser.addOptionalStringParameter("distanceCache", "dc", "file of a persistent cache of pairwise alignment scores reused by later NeighbourJoining runs");
+        Parameter<Integer> distanceCacheSize = parser.addDefaultIntegerParameter("distanceCacheSize", "dcs", "size of the distance cache file in MB (least recently used scores are evicted)", 256);
+
+        Parameter<Integer> profileSpill = parser.addDefaultIntegerParameter("profileSpill", "ps", "merged profiles larger than this many MB are spilled to memory-mapped files instead of the heap (0 = never)", 0);
+        Parameter<String> spillDirectory = parser.addDefaultStringParameter("spillDirectory", "sd", "directory the spilled profiles are written to", System.getProperty("java.io.tmpdir"));
 
         parser.parse(args);
 
+        ScoringScheme scoring = new ScoringScheme(matchScore.getArgument(), misMatchScore.getArgument(), gapPenalty.getArgument());
+        AlignmentContext context = new AlignmentContext(scoring, verbose.getArgument())
+                .withAnchorSeedLength(anchorSeedLength.getArgument())
+                .withProfileStorage(ProfileStorage.spillingAbove(profileSpill.getArgument(), Path.of(spillDirectory.getArgument())));
+        AlignmentPlanner planner = new AlignmentPlanner((long) wavefrontCells.getArgument() * 1_000_000,
+                                                        (long) anchorCells.getArgument() * 1_000_000,
+                                                        anchorSimilarity.getArgument());
+        if (calibrate.getArgument()) {
+            AlignmentPlanner calibrated = AlignmentPlanner.calibrate(scoring);
+            planner = planner.withWavefrontMinCells(calibrated.wavefrontMinCells()).withAnchoredMinCells(calibrated.anchoredMinCells());
+            if (verbose.getArgument()) System.out.println("calibrated planner: " + planner + "\n");
+        }
+        context = context.withPlanner(planner);
+        if (metricsPath.hasArgument()) Metrics.enable();
+        if (distanceCachePath.hasArgument()) {
+            PairwiseScoreCache distanceCache = PairwiseScoreCache.open(Path.of(distanceCachePath.getArgument()), distanceCacheSize.getArgument());
+            Runtime.getRuntime().addShutdownHook(new Thread(distanceCache::close));
+            context = context.withDistanceCache(distanceCache);
+        }
+
+        if (useBenchmark.isProvided()) {
+            SequenceFamilyGenerator generator = new SequenceFamilyGenerator(seed.getArgument(), substitutionRate.getArgument(), indelRate.getArgument());
+            ScalingBenchmark benchmark = new ScalingBenchmark(toIntArray(benchSequenceCounts.getArgument()),
+                                                              toIntArray(benchSequenceLengths.getArgument()),
+                                                              benchRepetitions.getArgument(), generator, context);
+            benchmark.run(benchOutput.getArgument());
+            return;
+        }
+
+        if (useServer.isProvided()) {
+            new AlignmentServer(port.getArgument(), workers.getArgument(), queueCapacity.getArgument(), context,
+                                fastaRoot.hasArgument() ? Path.of(fastaRoot.getArgument()) : null).start();
+            return;
+        }
+
+        if (useBatch.isProvided()) {
+            if (!batchInput.hasArgument()) throw new IllegalArgumentException("--batchInput is mandatory for Batch!");
+            BatchAligner batchAligner = new BatchAligner(context, MultipleSequenceAligner.Method.fromCommandName(batchMethod.getArgument()), workers.getArgument());
+            batchAligner.run(batchInput.getArgument(), outputDir.getArgument());
+            return;
+        }
+
+        if (!pathToFasta.hasArgument()) throw new IllegalArgumentException("--fastaPath is mandatory for Consensus, NeighbourJoining, PartTree and Add!");
+
+        if (useAdd.isProvided()) {
+            if (!existingAlignment.hasArgument()) throw new IllegalArgumentException("--alignment is mandatory for Add!");
+            LinkedList<Fasta> alignment = IncrementalAlignment.readAlignment(existingAlignment.getArgument());
+            LinkedList<Fasta> result = IncrementalAlignment.addSequences(alignment, FastaIO.readInFasta(pathToFasta.getArgument()), context);
+            // aligned FASTA, so the output can be the --alignment of the next Add
+            try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.OUTPUT)) {
+                FastaIO.writeFasta(result, System.out);
+            }
+            if (metricsPath.hasArgument()) Metrics.writeJson(metricsPath.getArgument());
+            return;
+        }
+
+        // checked before any work is done, a NeighbourJoining run would otherwise fail only after the tree is built
+        if (shards.getArgument() > 0 && checkpointPath.hasArgument()) {
+            throw new IllegalArgumentException("--checkpoint can not be combined with --shards!");
+        }
+
+        if (pipeline.getArgument()) {
+            if (!useNJ.isProvided() || guideTree.hasArgument() || checkpointPath.hasArgument() || shards.getArgument() > 0) {
+                throw new IllegalArgumentException("--pipeline only works for NeighbourJoining without --guideTree, --checkpoint and --shards!");
+            }
+            PipelinedAlignment pipelinedAlignment = new PipelinedAlignment(context, workers.getArgument());
+            Profile result = pipelinedAlignment.align(pathToFasta.getArgument());
+            if (treeOut.hasArgument()) Newick.write(pipelinedAlignment.getGuidingTreeRoot(), treeOut.getArgument());
+            try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.OUTPUT)) {
+                result.printProfile();
+            }
+            if (metricsPath.hasArgument()) Metrics.writeJson(metricsPath.getArgument());
+            return;
+        }
+
         LinkedList<Profile> initialProfiles = ProgressiveAlignment.parseProfileListFromFasta(pathToFasta.getArgument());
-        Main.matchScore = matchScore.getArgument();
-        Main.mismatchScore = misMatchScore.getArgument();
-        Main.gapPenalty = (gapPenalty.getArgument() > 0) ? gapPenalty.getArgument() : -1 * gapPenalty.getArgument();
 
         Profile result = null;
         if (useConensus.isProvided()){
-            result = consensusMSA(initialProfiles);
+            result = ProgressiveAlignment.consensusMSA(initialProfiles, context);
         } else {
-            result = ProgressiveAlignment.neighbourJoiningGuidedMSA(initialProfiles);
+            String treeSource = guideTree.hasArgument() ? "Newick"
+                    : usePartTree.isProvided() ? "PartTree " + partTreeRepresentatives.getArgument() + " " + seed.getArgument()
+                    : "NeighbourJoining";
+            Checkpoint checkpoint = checkpointPath.hasArgument()
+                    ? Checkpoint.open(Path.of(checkpointPath.getArgument()), checkpointInterval.getArgument(), resume.getArgument(), initialProfiles, context, treeSource)
+                    : Checkpoint.disabled();
+            NeighbourJoining.Node guidingTreeRoot;
+            if (guideTree.hasArgument()) {
+                guidingTreeRoot = Newick.read(guideTree.getArgument(), initialProfiles);
+            } else if (usePartTree.isProvided()) {
+                guidingTreeRoot = PartTree.build(initialProfiles, partTreeRepresentatives.getArgument(), seed.getArgument(), context);
+            } else {
+                guidingTreeRoot = new NeighbourJoining(initialProfiles, context, checkpoint).runAlgorithm();
+            }
+            if (treeOut.hasArgument()) Newick.write(guidingTreeRoot, treeOut.getArgument());
+            if (shards.getArgument() > 0) {
+                Path shardPath = shardDirectory.hasArgument() ? Path.of(shardDirectory.getArgument()) : null;
+                result = new ShardedAligner(context, shards.getArgument(), workers.getArgument(), shardPath).align(guidingTreeRoot);
+            } else {
+                result = ProgressiveAlignment.alignAlongGuideTree(guidingTreeRoot, context, checkpoint);
+            }
         }
 
         // msaOutput.printProfile();
-        result.printProfile();
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.OUTPUT)) {
+            result.printProfile();
+        }
+
+        if (metricsPath.hasArgument()) Metrics.writeJson(metricsPath.getArgument());
+    }
+
+    private static int[] toIntArray(Integer[] values) {
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = values[i];
+        return result;
     }
 }
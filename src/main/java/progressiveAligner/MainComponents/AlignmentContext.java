@@ -0,0 +1,91 @@
+package progressiveAligner.MainComponents;
+
+/**
+ * Immutable settings of one alignment job. A context is handed through {@link SequenceAlignment},
+ * {@link NeighbourJoining} and {@link ProgressiveAlignment} instead of global state, so any number of jobs with
+ * different parameters can run concurrently in the same JVM.
+ *
+ * @param scoring the scoring parameters of the pairwise alignments
+ * @param verbose if true, progress information is printed to the console
+ * @param distanceCache persistent cache of the initial pairwise scores (may be shared by concurrent jobs)
+ * @param anchorSeedLength seed length of the {@link AnchoredAlignment} used for long sequences, 0 to always align
+ *                         with the full dynamic programming matrix
+ * @param profileStorage decides which merged profiles are spilled from the heap to disk
+ * @param planner chooses the engine of each pairwise alignment
+ */
+public record AlignmentContext(ScoringScheme scoring, boolean verbose, PairwiseScoreCache distanceCache,
+                               int anchorSeedLength, ProfileStorage profileStorage, AlignmentPlanner planner) {
+
+    /**
+     * default scoring, not verbose
+     */
+    public static final AlignmentContext DEFAULT = new AlignmentContext(ScoringScheme.DEFAULT, false);
+
+    public AlignmentContext {
+        if (scoring == null) throw new IllegalArgumentException("scoring must not be null!");
+        if (distanceCache == null) throw new IllegalArgumentException("distanceCache must not be null, use PairwiseScoreCache.disabled()!");
+        if (anchorSeedLength < 0 || anchorSeedLength > AnchoredAlignment.MAX_SEED_LENGTH) {
+            throw new IllegalArgumentException("anchorSeedLength has to be between 0 and " + AnchoredAlignment.MAX_SEED_LENGTH + "!");
+        }
+        if (profileStorage == null) throw new IllegalArgumentException("profileStorage must not be null, use ProfileStorage.HEAP!");
+        if (planner == null) throw new IllegalArgumentException("planner must not be null, use AlignmentPlanner.DEFAULT!");
+    }
+
+    /**
+     * @param scoring the scoring parameters of the pairwise alignments
+     * @param verbose if true, progress information is printed to the console
+     */
+    public AlignmentContext(ScoringScheme scoring, boolean verbose) {
+        this(scoring, verbose, PairwiseScoreCache.disabled(), 0, ProfileStorage.HEAP, AlignmentPlanner.DEFAULT);
+    }
+
+    /**
+     * @param scoring the scoring parameters of the pairwise alignments
+     * @return a context with the given scoring that is not verbose
+     */
+    public static AlignmentContext of(ScoringScheme scoring) {
+        return new AlignmentContext(scoring, false);
+    }
+
+    /**
+     * @return a copy of this context with the given scoring
+     */
+    public AlignmentContext withScoring(ScoringScheme scoring) {
+        return new AlignmentContext(scoring, verbose, distanceCache, anchorSeedLength, profileStorage, planner);
+    }
+
+    /**
+     * @return a copy of this context with the given verbosity
+     */
+    public AlignmentContext withVerbose(boolean verbose) {
+        return new AlignmentContext(scoring, verbose, distanceCache, anchorSeedLength, profileStorage, planner);
+    }
+
+    /**
+     * @return a copy of this context that looks up and stores the initial pairwise scores in the given cache
+     */
+    public AlignmentContext withDistanceCache(PairwiseScoreCache distanceCache) {
+        return new AlignmentContext(scoring, verbose, distanceCache, anchorSeedLength, profileStorage, planner);
+    }
+
+    /**
+     * @return a copy of this context that aligns long sequences anchored with seeds of the given length (0 = never)
+     */
+    public AlignmentContext withAnchorSeedLength(int anchorSeedLength) {
+        return new AlignmentContext(scoring, verbose, distanceCache, anchorSeedLength, profileStorage, planner);
+    }
+
+    /**
+     * @return a copy of this context that stores merged profiles according to the given policy
+     */
+    public AlignmentContext withProfileStorage(ProfileStorage profileStorage) {
+        return new AlignmentContext(scoring, verbose, distanceCache, anchorSeedLength, profileStorage, planner);
+    }
+
+    /**
+     * @return a copy of this context whose pairwise alignments are planned by the given planner
+     */
+    public AlignmentContext withPlanner(AlignmentPlanner planner) {
+        return new AlignmentContext(scoring, verbose, distanceCache, anchorSeedLength, profileStorage, planner);
+    }
+}
@@ -0,0 +1,286 @@
+package progressiveAligner.MainComponents;
+
+import progressiveAligner.ToolClasses.KmerSpectrum;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Chooses the engine of each pairwise alignment from the lengths of the sequences, their estimated similarity, the
+ * free heap and the number of cores, so callers do not have to pick between the aligners by hand.
+ * <p>
+ * Alignments with traceback use the packed full matrix ({@link PackedTraceback}), filled in parallel
+ * ({@link WavefrontFill}) from wavefrontMinCells on if more than one core is available. From anchoredMinCells on,
+ * pairs whose share of common k-mers ({@value #SIMILARITY_K}-mers) reaches anchoredMinSimilarity are aligned anchored
+ * ({@link AnchoredAlignment}) if the context enables it. Divergent pairs have too few true anchors for this and are
+ * aligned exactly. A matrix that would take more than a quarter of the maximal heap is always aligned anchored if
+ * the context enables it; without anchoring such an alignment fails with a clear error instead of silently replacing
+ * the exact alignment by a heuristic. The budget does not depend on the momentary free heap, so the same input is
+ * always aligned the same way. Score only alignments use the linear space fill unless they are anchored. Regions
+ * between the anchors of an anchored alignment are planned with {@link #planRegion(int, int)}, regions without
+ * anchors that exceed the memory budget are aligned in a band ({@link BandedAlignment}).
+ * <p>
+ * The thresholds can be set by hand or measured on this machine with {@link #calibrate(ScoringScheme)}.
+ *
+ * @param wavefrontMinCells smallest matrix (cells) filled by the wavefront
+ * @param anchoredMinCells smallest matrix (cells) that is aligned anchored
+ * @param anchoredMinSimilarity smallest k-mer similarity (0 to 1) of pairs that are aligned anchored
+ */
+public record AlignmentPlanner(long wavefrontMinCells, long anchoredMinCells, double anchoredMinSimilarity) {
+
+    /**
+     * the engines the planner chooses from
+     */
+    public enum Engine {
+        /** full matrix with packed directions, one core */
+        PACKED,
+        /** full matrix with packed directions, filled tile by tile on all cores */
+        WAVEFRONT,
+        /** anchored on unique k-mer matches, full dynamic programming only between the anchors */
+        ANCHORED,
+        /** score only, two rolling rows */
+        LINEAR,
+        /** band around the diagonal, for regions of anchored alignments whose full matrix exceeds the memory budget */
+        BANDED
+    }
+
+    /**
+     * the decision for one pair
+     * @param engine the chosen engine
+     * @param seedLength seed length of the anchored alignment (0 for other engines)
+     * @param reason short explanation of the decision for the log
+     */
+    public record Plan(Engine engine, int seedLength, String reason) {
+
+        @Override
+        public String toString() {
+            return engine + (engine == Engine.ANCHORED ? " (seed " + seedLength + ")" : "") + ": " + reason;
+        }
+    }
+
+    /**
+     * the thresholds used without calibration
+     */
+    public static final AlignmentPlanner DEFAULT = new AlignmentPlanner(WavefrontFill.MIN_CELLS, AnchoredAlignment.MAX_REGION_CELLS, 0.02);
+
+    /**
+     * k of the k-mer similarity estimate, long k-mers are rarely shared by chance even in long sequences
+     */
+    public static final int SIMILARITY_K = KmerSpectrum.MAX_K;
+
+    /**
+     * seed length of the anchored alignments measured by {@link #calibrate(ScoringScheme)}
+     */
+    public static final int CALIBRATION_SEED_LENGTH = 8;
+
+    // a matrix may take at most 1 / MEMORY_SHARE of the maximal heap, the rest is left for the profiles
+    private static final int MEMORY_SHARE = 4;
+
+    public AlignmentPlanner {
+        if (wavefrontMinCells < 0 || anchoredMinCells < 0) throw new IllegalArgumentException("the planner thresholds must not be negative!");
+        if (anchoredMinSimilarity < 0 || anchoredMinSimilarity > 1) throw new IllegalArgumentException("anchoredMinSimilarity has to be between 0 and 1!");
+    }
+
+    /**
+     * @param wavefrontMinCells smallest matrix (cells) filled by the wavefront
+     * @return a copy of this planner with the given threshold
+     */
+    public AlignmentPlanner withWavefrontMinCells(long wavefrontMinCells) {
+        return new AlignmentPlanner(wavefrontMinCells, anchoredMinCells, anchoredMinSimilarity);
+    }
+
+    /**
+     * @param anchoredMinCells smallest matrix (cells) that is aligned anchored
+     * @return a copy of this planner with the given threshold
+     */
+    public AlignmentPlanner withAnchoredMinCells(long anchoredMinCells) {
+        return new AlignmentPlanner(wavefrontMinCells, anchoredMinCells, anchoredMinSimilarity);
+    }
+
+    /**
+     * @param anchoredMinSimilarity smallest k-mer similarity (0 to 1) of pairs that are aligned anchored
+     * @return a copy of this planner with the given threshold
+     */
+    public AlignmentPlanner withAnchoredMinSimilarity(double anchoredMinSimilarity) {
+        return new AlignmentPlanner(wavefrontMinCells, anchoredMinCells, anchoredMinSimilarity);
+    }
+
+    /**
+     * chooses the engine of an alignment with traceback
+     * @param sequence1 the first sequence
+     * @param sequence2 the second sequence
+     * @param context the context enabling anchored alignments (anchorSeedLength)
+     * @return the plan
+     * @throws IllegalArgumentException if the matrix exceeds the memory budget and the context disables anchoring
+     */
+    public Plan planAlignment(String sequence1, String sequence2, AlignmentContext context) throws IllegalArgumentException {
+        int rows = sequence1.length();
+        int columns = sequence2.length();
+        long cells = (long) rows * columns;
+
+        long matrixBytes = matrixBytes(rows, columns);
+        long budgetBytes = memoryBudgetBytes();
+        if (matrixBytes > budgetBytes) {
+            if (context.anchorSeedLength() <= 0) {
+                throw new IllegalArgumentException("the alignment matrix of " + rows + " x " + columns + " needs "
+                        + (matrixBytes >> 20) + " MB, more than the budget of " + (budgetBytes >> 20)
+                        + " MB (a quarter of the maximal heap): increase -Xmx or allow anchored alignments with --anchorSeedLength");
+            }
+            return new Plan(Engine.ANCHORED, context.anchorSeedLength(), rows + " x " + columns + ", matrix of "
+                    + (matrixBytes >> 20) + " MB exceeds the budget of " + (budgetBytes >> 20) + " MB");
+        }
+
+        if (context.anchorSeedLength() > 0 && cells >= anchoredMinCells) {
+            double similarity = similarity(sequence1, sequence2);
+            if (similarity >= anchoredMinSimilarity) {
+                return new Plan(Engine.ANCHORED, context.anchorSeedLength(), rows + " x " + columns + ", k-mer similarity "
+                        + String.format("%.2f", similarity) + " >= " + anchoredMinSimilarity);
+            }
+            if (isWavefrontWorthwhile(rows, columns)) {
+                return new Plan(Engine.WAVEFRONT, 0, rows + " x " + columns + ", too divergent to anchor (k-mer similarity "
+                        + String.format("%.2f", similarity) + "), " + cores() + " cores");
+            }
+            return new Plan(Engine.PACKED, 0, rows + " x " + columns + ", too divergent to anchor (k-mer similarity "
+                    + String.format("%.2f", similarity) + ")");
+        }
+
+        if (isWavefrontWorthwhile(rows, columns)) {
+            return new Plan(Engine.WAVEFRONT, 0, rows + " x " + columns + ", " + cores() + " cores");
+        }
+        return new Plan(Engine.PACKED, 0, rows + " x " + columns);
+    }
+
+    /**
+     * chooses the engine of a score only alignment
+     * @param sequence1 the first sequence
+     * @param sequence2 the second sequence
+     * @param context the context enabling anchored alignments (anchorSeedLength)
+     * @return the plan, {@link Engine#ANCHORED} or {@link Engine#LINEAR}
+     */
+    public Plan planScore(String sequence1, String sequence2, AlignmentContext context) {
+        if (context.anchorSeedLength() > 0 && (long) sequence1.length() * sequence2.length() >= anchoredMinCells
+                && similarity(sequence1, sequence2) >= anchoredMinSimilarity) {
+            return new Plan(Engine.ANCHORED, context.anchorSeedLength(), "large and similar");
+        }
+        return new Plan(Engine.LINEAR, 0, "score only");
+    }
+
+    /**
+     * chooses the engine of a region between the anchors of an {@link AnchoredAlignment} that is aligned directly
+     * @param rows length of the region in the first sequence
+     * @param columns length of the region in the second sequence
+     * @return {@link Engine#BANDED} if the full matrix exceeds the memory budget, otherwise {@link Engine#WAVEFRONT}
+     * or {@link Engine#PACKED} as for {@link #planAlignment(String, String, AlignmentContext)}
+     */
+    public Engine planRegion(int rows, int columns) {
+        if (matrixBytes(rows, columns) > memoryBudgetBytes()) return Engine.BANDED;
+        return isWavefrontWorthwhile(rows, columns) ? Engine.WAVEFRONT : Engine.PACKED;
+    }
+
+    /**
+     * @return memory a single alignment matrix may take, a fixed share of the maximal heap
+     */
+    static long memoryBudgetBytes() {
+        return Runtime.getRuntime().maxMemory() / MEMORY_SHARE;
+    }
+
+    /**
+     * @return size of the packed direction matrix of {@link PackedTraceback}
+     */
+    private static long matrixBytes(int rows, int columns) {
+        return (long) rows * ((columns + PackedTraceback.CELLS_PER_WORD - 1) / PackedTraceback.CELLS_PER_WORD) * Long.BYTES;
+    }
+
+    private boolean isWavefrontWorthwhile(int rows, int columns) {
+        return (long) rows * columns >= wavefrontMinCells && rows >= 2 * WavefrontFill.TILE_SIZE
+                && columns >= 2 * WavefrontFill.TILE_SIZE && cores() > 1;
+    }
+
+    /**
+     * measures on this machine from which matrix size on the wavefront and the anchored alignment pay off: the
+     * smallest tested square matrix for which the wavefront is at least 20% faster than the sequential fill, and the
+     * smallest for which the anchored alignment of a similar pair is at least twice as fast as the full one while its
+     * score differs by at most 1%. Takes a few seconds.
+     * @param scoring the scoring parameters of the alignments
+     * @return a planner with the measured thresholds (never, if no tested size pays off)
+     */
+    public static AlignmentPlanner calibrate(ScoringScheme scoring) {
+        Random random = new Random(42);
+        String longest = randomSequence(random, 8192);
+        String longestRelative = mutate(random, longest, 0.1);
+
+        // warm up the JIT on small alignments
+        for (int r = 0; r < 20; r++) {
+            PackedTraceback.align(longest.substring(0, 300), longestRelative.substring(0, 300), scoring, false);
+        }
+
+        long wavefrontMinCells = Long.MAX_VALUE;
+        if (cores() > 1) {
+            for (int length : new int[]{1024, 2048, 3072, 4096, 6144}) {
+                String sequence1 = longest.substring(0, length);
+                String sequence2 = longestRelative.substring(0, length);
+                long sequential = bestOf(() -> PackedTraceback.align(sequence1, sequence2, scoring, false));
+                long parallel = bestOf(() -> PackedTraceback.align(sequence1, sequence2, scoring, true));
+                if (parallel * 1.2 <= sequential) {
+                    wavefrontMinCells = (long) length * length;
+                    break;
+                }
+            }
+        }
+
+        long anchoredMinCells = Long.MAX_VALUE;
+        for (int length : new int[]{2048, 4096, 8192}) {
+            String sequence1 = longest.substring(0, length);
+            String sequence2 = longestRelative.substring(0, length);
+            int fullScore = PackedTraceback.align(sequence1, sequence2, scoring, false).alignmentScore();
+            int anchoredScore = AnchoredAlignment.align(sequence1, sequence2, CALIBRATION_SEED_LENGTH, scoring).alignmentScore();
+            long full = bestOf(() -> PackedTraceback.align(sequence1, sequence2, scoring, false));
+            long anchored = bestOf(() -> AnchoredAlignment.align(sequence1, sequence2, CALIBRATION_SEED_LENGTH, scoring));
+            if (2 * anchored <= full && Math.abs(fullScore - anchoredScore) <= Math.abs(fullScore) / 100) {
+                anchoredMinCells = (long) length * length;
+                break;
+            }
+        }
+
+        return new AlignmentPlanner(wavefrontMinCells, anchoredMinCells, DEFAULT.anchoredMinSimilarity());
+    }
+
+    /**
+     * @return shortest run time in nanoseconds of three runs
+     */
+    private static long bestOf(Runnable run) {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < 3; r++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static String randomSequence(Random random, int length) {
+        char[] sequence = new char[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = ColumnStatistics.RESIDUES.charAt(random.nextInt(20));
+        }
+        return new String(sequence);
+    }
+
+    private static String mutate(Random random, String sequence, double substitutionRate) {
+        char[] mutated = sequence.toCharArray();
+        for (int i = 0; i < mutated.length; i++) {
+            if (random.nextDouble() < substitutionRate) mutated[i] = ColumnStatistics.RESIDUES.charAt(random.nextInt(20));
+        }
+        return new String(mutated);
+    }
+
+    private static double similarity(String sequence1, String sequence2) {
+        int k = Math.min(SIMILARITY_K, Math.min(sequence1.length(), sequence2.length()));
+        if (k < 1) return 0;
+        return new KmerSpectrum(sequence1, k).similarity(new KmerSpectrum(sequence2, k));
+    }
+
+    private static int cores() {
+        return Math.min(Runtime.getRuntime().availableProcessors(), ForkJoinPool.getCommonPoolParallelism() + 1);
+    }
+}
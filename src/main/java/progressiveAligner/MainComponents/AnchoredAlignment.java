@@ -0,0 +1,316 @@
+package progressiveAligner.MainComponents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Seed-and-chain global alignment for long sequences, where a full quadratic dynamic programming alignment is not
+ * feasible.
+ * <p>
+ * Seeds are k-mers that occur exactly once in each sequence. Seeds on the same diagonal that overlap or touch are
+ * merged into anchors (maximal unique matches), anchors too short to be significant in the region are dropped and
+ * the best co-linear chain (matches minus the gaps needed between the anchors) is kept and aligned without gaps. Only the regions between
+ * consecutive anchors are aligned by dynamic programming ({@link PackedTraceback}), regions that are still too large
+ * are anchored again with shorter seeds. Regions without anchors are aligned with the engine the
+ * {@link AlignmentPlanner} chooses for them, in a band ({@link BandedAlignment}) if their full matrix exceeds the
+ * memory budget. The result is stitched together with the same gap column lists a full
+ * alignment returns, so it can be used for {@link Profile#combineProfiles} directly. The alignment is a heuristic:
+ * it is optimal between the anchors, but the anchors themselves are not guaranteed to be part of an optimal
+ * alignment.
+ */
+public class AnchoredAlignment {
+
+    /**
+     * longest seed length (5 bits per character in a long)
+     */
+    public static final int MAX_SEED_LENGTH = 12;
+
+    /**
+     * shortest seed length used when regions between anchors are anchored again
+     */
+    public static final int MIN_SEED_LENGTH = 4;
+
+    /**
+     * regions between anchors with more cells are anchored again with shorter seeds instead of aligned directly
+     */
+    public static final long MAX_REGION_CELLS = 4_000_000L;
+
+    // number of preceding anchors considered as predecessor while chaining
+    private static final int CHAIN_PREDECESSORS = 64;
+
+    private record Anchor(int start1, int start2, int length) {
+    }
+
+    /**
+     * computes an anchored global alignment of two (possibly gapped) sequences, regions without anchors are planned by
+     * {@link AlignmentPlanner#DEFAULT}
+     * @param sequence1 the first sequence to align
+     * @param sequence2 the second sequence to align
+     * @param seedLength length of the k-mer seeds (at most {@value #MAX_SEED_LENGTH})
+     * @param scoring the scoring parameters of the alignment
+     * @return the aligned sequences, their score and the columns in which gaps were inserted into each sequence
+     * @throws IllegalArgumentException if the seed length is not between 1 and {@value #MAX_SEED_LENGTH}
+     */
+    public static SequenceAlignment.AlignedSequences align(String sequence1, String sequence2, int seedLength,
+                                                           ScoringScheme scoring) throws IllegalArgumentException {
+        return align(sequence1, sequence2, seedLength, scoring, AlignmentPlanner.DEFAULT);
+    }
+
+    /**
+     * computes an anchored global alignment of two (possibly gapped) sequences
+     * @param sequence1 the first sequence to align
+     * @param sequence2 the second sequence to align
+     * @param seedLength length of the k-mer seeds (at most {@value #MAX_SEED_LENGTH})
+     * @param scoring the scoring parameters of the alignment
+     * @param planner chooses the engine of the regions without anchors
+     * @return the aligned sequences, their score and the columns in which gaps were inserted into each sequence
+     * @throws IllegalArgumentException if the seed length is not between 1 and {@value #MAX_SEED_LENGTH} or a region
+     *                                  without anchors does not fit into the memory budget even as band
+     */
+    public static SequenceAlignment.AlignedSequences align(String sequence1, String sequence2, int seedLength,
+                                                           ScoringScheme scoring, AlignmentPlanner planner) throws IllegalArgumentException {
+        if (seedLength < 1 || seedLength > MAX_SEED_LENGTH) {
+            throw new IllegalArgumentException("the seed length has to be between 1 and " + MAX_SEED_LENGTH + "!");
+        }
+        AlignmentBuilder builder = new AlignmentBuilder(sequence1.length() + sequence2.length());
+        alignRegion(sequence1, 0, sequence1.length(), sequence2, 0, sequence2.length(), seedLength, scoring, planner, builder);
+        return builder.build();
+    }
+
+    /**
+     * aligns sequence1[from1, to1) with sequence2[from2, to2) and appends the result to the builder
+     */
+    private static void alignRegion(String sequence1, int from1, int to1, String sequence2, int from2, int to2,
+                                    int seedLength, ScoringScheme scoring, AlignmentPlanner planner, AlignmentBuilder builder) {
+        long cells = (long) (to1 - from1) * (to2 - from2);
+        List<Anchor> chain = List.of();
+        if (cells > MAX_REGION_CELLS && seedLength >= MIN_SEED_LENGTH) {
+            // short anchors in long regions are mostly random matches that would misguide the chain
+            int minimumAnchorLength = Math.max(seedLength, significantAnchorLength(sequence1, from1, to1, sequence2, from2, to2));
+            List<Anchor> anchors = findAnchors(sequence1, from1, to1, sequence2, from2, to2, seedLength);
+            anchors.removeIf(anchor -> anchor.length() < minimumAnchorLength);
+            chain = chainAnchors(anchors, from2 - from1, to2 - to1, scoring);
+        }
+
+        if (chain.isEmpty()) {
+            if (cells > MAX_REGION_CELLS && seedLength > MIN_SEED_LENGTH) {
+                alignRegion(sequence1, from1, to1, sequence2, from2, to2, Math.max(MIN_SEED_LENGTH, seedLength - 2), scoring, planner, builder);
+            } else {
+                builder.append(alignDirectly(sequence1.substring(from1, to1), sequence2.substring(from2, to2), scoring, planner));
+            }
+            return;
+        }
+
+        int position1 = from1;
+        int position2 = from2;
+        for (Anchor anchor : chain) {
+            alignRegion(sequence1, position1, anchor.start1(), sequence2, position2, anchor.start2(), seedLength, scoring, planner, builder);
+            builder.appendMatch(sequence1, anchor.start1(), sequence2, anchor.start2(), anchor.length(), scoring);
+            position1 = anchor.start1() + anchor.length();
+            position2 = anchor.start2() + anchor.length();
+        }
+        alignRegion(sequence1, position1, to1, sequence2, position2, to2, seedLength, scoring, planner, builder);
+    }
+
+    /**
+     * aligns a region without anchors with the engine the planner chooses for its size
+     */
+    private static SequenceAlignment.AlignedSequences alignDirectly(String sequence1, String sequence2, ScoringScheme scoring,
+                                                                    AlignmentPlanner planner) {
+        return switch (planner.planRegion(sequence1.length(), sequence2.length())) {
+            case BANDED -> BandedAlignment.align(sequence1, sequence2, scoring, AlignmentPlanner.memoryBudgetBytes());
+            case WAVEFRONT -> PackedTraceback.align(sequence1, sequence2, scoring, true);
+            default -> PackedTraceback.align(sequence1, sequence2, scoring, false);
+        };
+    }
+
+    /**
+     * finds the k-mers occurring exactly once in both regions and merges seeds on the same diagonal into anchors
+     * @return anchors ordered by their start in sequence 1
+     */
+    private static List<Anchor> findAnchors(String sequence1, int from1, int to1, String sequence2, int from2, int to2,
+                                            int seedLength) {
+        // k-mer code -> position, or -1 if the k-mer occurs more than once
+        Map<Long, Integer> uniqueInSequence1 = uniqueKmers(sequence1, from1, to1, seedLength);
+        Map<Long, Integer> uniqueInSequence2 = uniqueKmers(sequence2, from2, to2, seedLength);
+
+        List<Anchor> anchors = new ArrayList<>();
+        long mask = (1L << (5 * seedLength)) - 1;
+        long code = 0;
+        Anchor current = null;
+        for (int p = from1; p < to1; p++) {
+            code = ((code << 5) | characterCode(sequence1.charAt(p))) & mask;
+            int start1 = p - seedLength + 1;
+            if (start1 < from1) continue;
+
+            Integer position1 = uniqueInSequence1.get(code);
+            Integer position2 = uniqueInSequence2.get(code);
+            if (position1 == null || position2 == null || position1 < 0 || position2 < 0) continue;
+            // character codes are not unique for non letters, so seeds are verified
+            if (!sequence1.regionMatches(start1, sequence2, position2, seedLength)) continue;
+
+            if (current != null && current.start2() - current.start1() == position2 - start1
+                    && start1 <= current.start1() + current.length()) {
+                // overlapping or touching seed on the same diagonal extends the current anchor
+                current = new Anchor(current.start1(), current.start2(), start1 + seedLength - current.start1());
+                anchors.set(anchors.size() - 1, current);
+            } else {
+                current = new Anchor(start1, position2, seedLength);
+                anchors.add(current);
+            }
+        }
+        return anchors;
+    }
+
+    private static Map<Long, Integer> uniqueKmers(String sequence, int from, int to, int seedLength) {
+        Map<Long, Integer> positions = new HashMap<>();
+        long mask = (1L << (5 * seedLength)) - 1;
+        long code = 0;
+        for (int p = from; p < to; p++) {
+            code = ((code << 5) | characterCode(sequence.charAt(p))) & mask;
+            int start = p - seedLength + 1;
+            if (start < from) continue;
+            positions.merge(code, start, (existing, added) -> -1);
+        }
+        return positions;
+    }
+
+    private static long characterCode(char character) {
+        char upper = Character.toUpperCase(character);
+        return upper >= 'A' && upper <= 'Z' ? upper - 'A' : 31;
+    }
+
+    /**
+     * selects the co-linear chain of anchors with the best score, where an anchor adds its matches and a shift of the
+     * diagonal between two consecutive anchors (or the region corners) costs at least as many gaps. The chain is empty
+     * if no chain scores better than the region without anchors. As in minimap2, only the
+     * {@value #CHAIN_PREDECESSORS} preceding anchors are considered as predecessor of an anchor. Overlaps between
+     * consecutive anchors of the chain are trimmed.
+     * @param anchors anchors ordered by their start in sequence 1
+     * @param startDiagonal diagonal (start2 - start1) of the region start
+     * @param endDiagonal diagonal of the region end
+     * @param scoring the scoring parameters of the alignment
+     * @return the chain, ordered and without overlaps
+     */
+    private static List<Anchor> chainAnchors(List<Anchor> anchors, int startDiagonal, int endDiagonal, ScoringScheme scoring) {
+        int n = anchors.size();
+        if (n == 0) return List.of();
+
+        long[] chainScores = new long[n];
+        int[] predecessors = new int[n];
+        // without anchors only the shift between the diagonals of both region corners is needed
+        long bestScore = -(long) Math.abs(endDiagonal - startDiagonal) * scoring.gapPenalty();
+        int best = -1;
+        for (int a = 0; a < n; a++) {
+            Anchor anchor = anchors.get(a);
+            long ownScore = (long) anchor.length() * scoring.matchScore();
+            chainScores[a] = ownScore - (long) Math.abs(anchor.start2() - anchor.start1() - startDiagonal) * scoring.gapPenalty();
+            predecessors[a] = -1;
+            for (int b = a - 1; b >= Math.max(0, a - CHAIN_PREDECESSORS); b--) {
+                Anchor previous = anchors.get(b);
+                if (previous.start1() >= anchor.start1() || previous.start2() >= anchor.start2()) continue;
+                int diagonalShift = Math.abs((anchor.start2() - anchor.start1()) - (previous.start2() - previous.start1()));
+                long score = chainScores[b] + ownScore - (long) diagonalShift * scoring.gapPenalty();
+                if (score > chainScores[a]) {
+                    chainScores[a] = score;
+                    predecessors[a] = b;
+                }
+            }
+            long scoreToEnd = chainScores[a] - (long) Math.abs(endDiagonal - (anchor.start2() - anchor.start1())) * scoring.gapPenalty();
+            if (scoreToEnd > bestScore) {
+                bestScore = scoreToEnd;
+                best = a;
+            }
+        }
+
+        ArrayList<Anchor> chain = new ArrayList<>();
+        for (int a = best; a >= 0; a = predecessors[a]) chain.add(anchors.get(a));
+        Collections.reverse(chain);
+
+        List<Anchor> trimmed = new ArrayList<>(chain.size());
+        int end1 = 0;
+        int end2 = 0;
+        for (Anchor anchor : chain) {
+            int overlap = Math.max(0, Math.max(end1 - anchor.start1(), end2 - anchor.start2()));
+            if (overlap >= anchor.length()) continue;
+            Anchor kept = new Anchor(anchor.start1() + overlap, anchor.start2() + overlap, anchor.length() - overlap);
+            trimmed.add(kept);
+            end1 = kept.start1() + kept.length();
+            end2 = kept.start2() + kept.length();
+        }
+        return trimmed;
+    }
+
+    /**
+     * shortest anchor that is unlikely to be a random match: the expected number of random exact matches of length m
+     * between the regions is about cells * q^m, where q is the probability that two characters are identical
+     * (from the character frequencies of both regions)
+     */
+    private static int significantAnchorLength(String sequence1, int from1, int to1, String sequence2, int from2, int to2) {
+        int[] counts = new int[32];
+        for (int p = from1; p < to1; p++) counts[(int) characterCode(sequence1.charAt(p))]++;
+        for (int p = from2; p < to2; p++) counts[(int) characterCode(sequence2.charAt(p))]++;
+        double total = (to1 - from1) + (to2 - from2);
+        double identityProbability = 0;
+        for (int count : counts) identityProbability += (count / total) * (count / total);
+
+        double cells = (double) (to1 - from1) * (to2 - from2);
+        if (identityProbability >= 1) return Integer.MAX_VALUE;
+        return (int) Math.ceil(Math.log(cells) / -Math.log(identityProbability)) + 1;
+    }
+
+    /**
+     * concatenates the partial alignments and shifts their gap columns by the columns already appended
+     */
+    private static final class AlignmentBuilder {
+
+        private final StringBuilder aligned1;
+        private final StringBuilder aligned2;
+        private int[] gaps1 = new int[16];
+        private int[] gaps2 = new int[16];
+        private int numberOfGaps1 = 0;
+        private int numberOfGaps2 = 0;
+        private int score = 0;
+
+        private AlignmentBuilder(int capacity) {
+            aligned1 = new StringBuilder(capacity);
+            aligned2 = new StringBuilder(capacity);
+        }
+
+        private void append(SequenceAlignment.AlignedSequences part) {
+            int offset = aligned1.length();
+            gaps1 = appendGaps(gaps1, numberOfGaps1, part.gapsAlignedSequence1(), offset);
+            numberOfGaps1 += part.gapsAlignedSequence1().length;
+            gaps2 = appendGaps(gaps2, numberOfGaps2, part.gapsAlignedSequence2(), offset);
+            numberOfGaps2 += part.gapsAlignedSequence2().length;
+            aligned1.append(part.alignedSequence1());
+            aligned2.append(part.alignedSequence2());
+            score += part.alignmentScore();
+        }
+
+        private void appendMatch(String sequence1, int start1, String sequence2, int start2, int length, ScoringScheme scoring) {
+            aligned1.append(sequence1, start1, start1 + length);
+            aligned2.append(sequence2, start2, start2 + length);
+            score += length * scoring.matchScore();
+        }
+
+        /**
+         * @return the gap buffer (grown if necessary) with the shifted gaps of the part appended after count entries
+         */
+        private static int[] appendGaps(int[] gaps, int count, int[] partGaps, int offset) {
+            if (count + partGaps.length > gaps.length) gaps = Arrays.copyOf(gaps, Math.max(2 * gaps.length, count + partGaps.length));
+            for (int k = 0; k < partGaps.length; k++) gaps[count + k] = offset + partGaps[k];
+            return gaps;
+        }
+
+        private SequenceAlignment.AlignedSequences build() {
+            return new SequenceAlignment.AlignedSequences(aligned1.toString(), aligned2.toString(), score,
+                                                          Arrays.copyOf(gaps1, numberOfGaps1),
+                                                          Arrays.copyOf(gaps2, numberOfGaps2));
+        }
+    }
+}
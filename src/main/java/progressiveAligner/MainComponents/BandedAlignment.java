@@ -0,0 +1,181 @@
+package progressiveAligner.MainComponents;
+
+import progressiveAligner.ToolClasses.JfrEvents;
+import progressiveAligner.ToolClasses.Metrics;
+
+/**
+ * Needleman-Wunsch alignment restricted to a band around the straight line from the first to the last cell of the
+ * matrix, for pairs whose full matrix does not fit into the memory budget (e.g. long regions without anchors in an
+ * {@link AnchoredAlignment}).
+ * <p>
+ * Row i covers the columns within bandWidth of i * columns / rows, the band is as wide as the memory budget allows.
+ * Cells outside of the band are never reached, so the alignment is optimal among the alignments inside the band only.
+ * Time and memory are O(rows * bandWidth + columns) instead of O(rows * columns). The directions are packed 2 bit per
+ * cell as in {@link PackedTraceback}, with the same order of the moves on ties (diagonal, left, up), so a band that
+ * covers the whole matrix gives the same alignment as {@link PackedTraceback}.
+ */
+public class BandedAlignment {
+
+    private static final int CELLS_PER_WORD = PackedTraceback.CELLS_PER_WORD;
+
+    /**
+     * computes a global alignment of two (possibly gapped) sequences within the widest band that fits into maxBytes
+     * @param sequence1 the first sequence to align
+     * @param sequence2 the second sequence to align
+     * @param scoring the scoring parameters of the alignment
+     * @param maxBytes memory the direction matrix of the band may take
+     * @return the aligned sequences, their score and the columns in which gaps were inserted into each sequence
+     * @throws IllegalArgumentException if even the narrowest band that connects the first and the last cell exceeds
+     *                                  maxBytes
+     */
+    public static SequenceAlignment.AlignedSequences align(String sequence1, String sequence2, ScoringScheme scoring,
+                                                           long maxBytes) throws IllegalArgumentException {
+        final int rows = sequence1.length();
+        final int columns = sequence2.length();
+        if (rows == 0 || columns == 0) return PackedTraceback.align(sequence1, sequence2, scoring, false);
+
+        // neighbouring rows overlap (so every cell of the band can be reached) if the band is wider than the slope
+        int slope = (columns + rows - 1) / rows;
+        long minimalBandWidth = slope / 2 + 1;
+        // the directions are a single long array
+        long maxCells = Math.min(maxBytes / Long.BYTES, Integer.MAX_VALUE - 8) * CELLS_PER_WORD;
+        long bandWidth = Math.min(columns, (maxCells / rows - slope - 1) / 2);
+        if (bandWidth < minimalBandWidth) {
+            throw new IllegalArgumentException("even the narrowest band of the alignment of " + rows + " x " + columns
+                    + " exceeds the memory budget of " + (maxBytes >> 20) + " MB: increase -Xmx");
+        }
+        return alignInBand(sequence1, sequence2, scoring, (int) bandWidth);
+    }
+
+    /**
+     * computes a global alignment of two non empty sequences within the band of the given width
+     */
+    static SequenceAlignment.AlignedSequences alignInBand(String sequence1, String sequence2, ScoringScheme scoring, int bandWidth) {
+        final int rows = sequence1.length();
+        final int columns = sequence2.length();
+        final int matchScore = scoring.matchScore();
+        final int mismatchScore = scoring.mismatchScore();
+        final int gapPenalty = scoring.gapPenalty();
+
+        long dpStart = Metrics.startDP();
+        JfrEvents.PairwiseAlignmentEvent event = JfrEvents.beginPairwiseAlignment(rows, columns);
+
+        // band of row i: columns first[i] to last[i], the directions of row i >= 1 start at cell rowStart[i]
+        int[] first = new int[rows + 1];
+        int[] last = new int[rows + 1];
+        long[] rowStart = new long[rows + 2];
+        for (int i = 0; i <= rows; i++) {
+            long center = (long) i * columns;
+            first[i] = (int) Math.max(0, center / rows - bandWidth);
+            last[i] = (int) Math.min(columns, (center + rows - 1) / rows + bandWidth);
+            // column 0 is not stored, there the only possible move is a gap
+            rowStart[i + 1] = rowStart[i] + (i == 0 ? 0 : last[i] - Math.max(1, first[i]) + 1);
+        }
+        long[] directions = new long[Math.toIntExact((rowStart[rows + 1] + CELLS_PER_WORD - 1) / CELLS_PER_WORD)];
+        long filledCells = rowStart[rows + 1];
+
+        int[] previousRow = new int[columns + 1];
+        int[] currentRow = new int[columns + 1];
+        for (int j = 0; j <= last[0]; j++) previousRow[j] = j * -gapPenalty;
+
+        for (int i = 1; i <= rows; i++) {
+            char a = sequence1.charAt(i - 1);
+            int previousFirst = first[i - 1];
+            int previousLast = last[i - 1];
+            if (first[i] == 0) currentRow[0] = i * -gapPenalty;
+            long cell = rowStart[i];
+            for (int j = Math.max(1, first[i]); j <= last[i]; j++, cell++) {
+                int best = Integer.MIN_VALUE;
+                long direction = PackedTraceback.DIAGONAL;
+                if (j - 1 >= previousFirst && j - 1 <= previousLast) {
+                    char b = sequence2.charAt(j - 1);
+                    best = previousRow[j - 1] + (a == b ? matchScore : (a == '-' || b == '-' ? -gapPenalty : mismatchScore));
+                }
+                if (j - 1 >= first[i]) {
+                    int left = currentRow[j - 1] - gapPenalty;
+                    if (left > best) {
+                        best = left;
+                        direction = PackedTraceback.LEFT;
+                    }
+                }
+                if (j >= previousFirst && j <= previousLast) {
+                    int up = previousRow[j] - gapPenalty;
+                    if (up > best) {
+                        best = up;
+                        direction = PackedTraceback.UP;
+                    }
+                }
+                currentRow[j] = best;
+                directions[(int) (cell >>> 5)] |= direction << ((cell & 31) << 1);
+            }
+
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        int score = previousRow[columns];
+
+        Metrics.recordDP(dpStart, filledCells);
+        if (event != null) event.commit();
+
+        return traceback(sequence1, sequence2, directions, first, rowStart, score);
+    }
+
+    /**
+     * follows the recorded directions from the last cell back to the origin, as {@link PackedTraceback} does
+     */
+    private static SequenceAlignment.AlignedSequences traceback(String sequence1, String sequence2, long[] directions,
+                                                                int[] first, long[] rowStart, int score) {
+        int i = sequence1.length();
+        int j = sequence2.length();
+        char[] aligned1 = new char[i + j];
+        char[] aligned2 = new char[i + j];
+        int[] gaps1 = new int[j];
+        int[] gaps2 = new int[i];
+        int numberOfGaps1 = 0;
+        int numberOfGaps2 = 0;
+        int end = i + j;
+        int position = end;
+
+        while (i > 0 || j > 0) {
+            int direction;
+            if (i == 0) direction = PackedTraceback.LEFT;
+            else if (j == 0) direction = PackedTraceback.UP;
+            else {
+                long cell = rowStart[i] + (j - Math.max(1, first[i]));
+                direction = (int) (directions[(int) (cell >>> 5)] >>> ((cell & 31) << 1)) & 3;
+            }
+
+            position--;
+            if (direction == PackedTraceback.DIAGONAL) {
+                aligned1[position] = sequence1.charAt(--i);
+                aligned2[position] = sequence2.charAt(--j);
+            } else if (direction == PackedTraceback.LEFT) {
+                aligned1[position] = '-';
+                aligned2[position] = sequence2.charAt(--j);
+                gaps1[numberOfGaps1++] = position;
+            } else {
+                aligned1[position] = sequence1.charAt(--i);
+                aligned2[position] = '-';
+                gaps2[numberOfGaps2++] = position;
+            }
+        }
+
+        return new SequenceAlignment.AlignedSequences(new String(aligned1, position, end - position),
+                                                      new String(aligned2, position, end - position),
+                                                      score,
+                                                      toColumnIndices(gaps1, numberOfGaps1, position),
+                                                      toColumnIndices(gaps2, numberOfGaps2, position));
+    }
+
+    /**
+     * @return the gap positions (descending, in the back to front filled buffers) as ascending column indices
+     */
+    private static int[] toColumnIndices(int[] positions, int count, int offset) {
+        int[] columnIndices = new int[count];
+        for (int k = 0; k < count; k++) {
+            columnIndices[k] = positions[count - 1 - k] - offset;
+        }
+        return columnIndices;
+    }
+}
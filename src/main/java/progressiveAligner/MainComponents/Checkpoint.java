@@ -0,0 +1,380 @@
+package progressiveAligner.MainComponents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Periodic checkpoint of a Neighbour Joining guided MSA, so a killed run can be resumed without recomputing
+ * finished work.
+ * <p>
+ * A checkpoint file (gzip compressed binary) holds
+ * <ul>
+ *   <li>a fingerprint of the input sequences, of all settings that change the distances (scoring, anchoring and
+ *       planner thresholds) and of the source of the guiding tree, a checkpoint is only used for the same job,</li>
+ *   <li>the finished rows of the initial distance matrix (until the guiding tree is finished),</li>
+ *   <li>the guiding tree as list of joins (child ids in the order the internal nodes were created) and the branch
+ *       lengths of all nodes,</li>
+ *   <li>the profiles of all completed subtrees whose parent is not completed yet, with their first sequence and
+ *       its name.</li>
+ * </ul>
+ * Completed subtrees are stored by node id, so the progressive phase checks that it runs on the recorded tree (an
+ * imported or PartTree tree is recorded when the progressive phase starts) before any subtree is restored.
+ * Distance rows and subtree profiles are written at most once per interval, the finished tree is written right away.
+ * Files are replaced atomically, so a run killed while writing leaves the previous checkpoint intact.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x50414C43; // "PALC"
+    private static final int VERSION = 2;
+
+    private final Path path;
+    private final long intervalNanos;
+    private long lastSaveNanos = System.nanoTime();
+
+    private long fingerprint;
+    private int numberOfLeaves;
+    private int[][] distanceMatrix;
+    private int completedDistanceRows = 0;
+    private List<int[]> joins = null;
+    private double[] branchLengths = null; // by node id, only together with the joins
+    private final Map<Integer, Profile> completedSubtrees = new HashMap<>();
+
+    private Checkpoint(Path path, long intervalSeconds) {
+        this.path = path;
+        this.intervalNanos = intervalSeconds * 1_000_000_000L;
+    }
+
+    /**
+     * @return a checkpoint that never writes anything and has nothing to restore
+     */
+    public static Checkpoint disabled() {
+        return new Checkpoint(null, 0);
+    }
+
+    /**
+     * creates a checkpoint for a job whose guiding tree is built by Neighbour Joining, see
+     * {@link #open(Path, long, boolean, LinkedList, AlignmentContext, String)}
+     */
+    public static Checkpoint open(Path path, long intervalSeconds, boolean resume, LinkedList<Profile> initialProfiles,
+                                  AlignmentContext context) throws IllegalArgumentException {
+        return open(path, intervalSeconds, resume, initialProfiles, context, "NeighbourJoining");
+    }
+
+    /**
+     * creates a checkpoint for the given job. If resume is requested and the file exists and belongs to the same job,
+     * its content is restored, otherwise the job starts from scratch.
+     * @param path file the checkpoint is written to
+     * @param intervalSeconds minimal time between two periodic saves
+     * @param resume true to restore the content of an existing checkpoint file
+     * @param initialProfiles the input profiles of the job (one sequence each)
+     * @param context the context of the job
+     * @param treeSource how the guiding tree is built including its settings (e.g. "NeighbourJoining", "Newick",
+     *                   "PartTree 50 42"), a checkpoint is only resumed with the same source
+     * @return the checkpoint
+     * @throws IllegalArgumentException if the existing checkpoint belongs to a different input, settings or tree source
+     */
+    public static Checkpoint open(Path path, long intervalSeconds, boolean resume, LinkedList<Profile> initialProfiles,
+                                  AlignmentContext context, String treeSource) throws IllegalArgumentException {
+        Checkpoint checkpoint = new Checkpoint(path, intervalSeconds);
+        checkpoint.fingerprint = fingerprint(initialProfiles, context, treeSource);
+        checkpoint.numberOfLeaves = initialProfiles.size();
+
+        if (resume && Files.exists(path)) {
+            checkpoint.load();
+            if (context.verbose()) {
+                System.out.println("resumed checkpoint: " + checkpoint.completedDistanceRows + " distance rows, tree "
+                                           + (checkpoint.joins != null ? "finished" : "missing") + ", "
+                                           + checkpoint.completedSubtrees.size() + " completed subtrees\n");
+            }
+        }
+        return checkpoint;
+    }
+
+    private boolean isEnabled() {
+        return path != null;
+    }
+
+    /**
+     * @return number of rows of the initial distance matrix that can be restored
+     */
+    int getCompletedDistanceRows() {
+        return completedDistanceRows;
+    }
+
+    /**
+     * copies the restored rows into the given matrix (upper triangle and its mirror)
+     */
+    void restoreDistanceRows(int[][] matrix) {
+        for (int i = 0; i < completedDistanceRows; i++) {
+            for (int j = i + 1; j < matrix.length; j++) {
+                matrix[i][j] = distanceMatrix[i][j];
+                matrix[j][i] = distanceMatrix[i][j];
+            }
+        }
+    }
+
+    /**
+     * records that the first rows of the initial distance matrix are final and saves if the interval elapsed
+     * @param matrix the distance matrix under construction
+     * @param completedRows number of rows whose upper triangle part is computed
+     */
+    void distanceRowsCompleted(int[][] matrix, int completedRows) {
+        if (!isEnabled()) return;
+        this.distanceMatrix = matrix;
+        this.completedDistanceRows = completedRows;
+        saveIfDue();
+    }
+
+    /**
+     * @return true if the guiding tree can be restored
+     */
+    boolean hasTree() {
+        return joins != null;
+    }
+
+    /**
+     * rebuilds the guiding tree with its branch lengths
+     * @param leaves the leaf nodes, index equals node id
+     * @return the root of the restored tree
+     */
+    NeighbourJoining.Node restoreTree(NeighbourJoining.Node[] leaves) {
+        NeighbourJoining.Node[] nodes = new NeighbourJoining.Node[leaves.length + joins.size()];
+        System.arraycopy(leaves, 0, nodes, 0, leaves.length);
+        for (int k = 0; k < joins.size(); k++) {
+            int id = leaves.length + k;
+            nodes[id] = new NeighbourJoining.Node(nodes[joins.get(k)[0]], nodes[joins.get(k)[1]], id);
+        }
+        for (int id = 0; id < nodes.length; id++) {
+            nodes[id].setBranchLength(branchLengths[id]);
+        }
+        return nodes[nodes.length - 1];
+    }
+
+    /**
+     * records the finished guiding tree and saves immediately
+     * @param root the root of the guiding tree, internal node ids have to be numberOfLeaves, numberOfLeaves + 1, ...
+     */
+    void treeFinished(NeighbourJoining.Node root) {
+        if (!isEnabled()) return;
+        branchLengths = new double[2 * numberOfLeaves - 1];
+        joins = new ArrayList<>(List.of(collectJoins(root, branchLengths)));
+        distanceMatrix = null;
+        save();
+    }
+
+    /**
+     * called before the progressive phase runs on the tree: records a tree that was not built by Neighbour Joining
+     * (imported or PartTree), or checks that the tree is the one the completed subtrees were recorded for
+     * @param root the root of the guiding tree
+     * @throws IllegalArgumentException if the checkpoint was written for a tree with a different topology
+     */
+    void guidingTreeUsed(NeighbourJoining.Node root) throws IllegalArgumentException {
+        if (!isEnabled()) return;
+        if (joins == null) {
+            treeFinished(root);
+            return;
+        }
+        int[][] treeJoins = collectJoins(root, new double[2 * numberOfLeaves - 1]);
+        for (int k = 0; k < treeJoins.length; k++) {
+            if (!Arrays.equals(treeJoins[k], joins.get(k))) {
+                throw new IllegalArgumentException(path + " was written for a different guiding tree!");
+            }
+        }
+    }
+
+    /**
+     * collects the children of every inner node (without recursion, trees may be very deep)
+     * @param root the root of the guiding tree, internal node ids have to be numberOfLeaves, numberOfLeaves + 1, ...
+     * @param branchLengths receives the branch length of every node by id
+     * @return the child ids of every inner node, index = id - numberOfLeaves
+     * @throws IllegalArgumentException if the tree does not have the leaves of this job or its ids are not as expected
+     */
+    private int[][] collectJoins(NeighbourJoining.Node root, double[] branchLengths) throws IllegalArgumentException {
+        int[][] joinArray = new int[numberOfLeaves - 1][];
+        Deque<NeighbourJoining.Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NeighbourJoining.Node node = stack.pop();
+            int id = node.getId();
+            boolean validId = node.isLeaf() ? id >= 0 && id < numberOfLeaves : id >= numberOfLeaves && id < 2 * numberOfLeaves - 1;
+            if (!validId) throw new IllegalArgumentException("the guiding tree does not match the " + numberOfLeaves + " sequences of the checkpoint!");
+            branchLengths[id] = node.getBranchLength();
+            if (node.isLeaf()) continue;
+            joinArray[id - numberOfLeaves] = new int[]{node.getChildNode1().getId(), node.getChildNode2().getId()};
+            stack.push(node.getChildNode1());
+            stack.push(node.getChildNode2());
+        }
+        return joinArray;
+    }
+
+    /**
+     * @param node an internal node of the guiding tree
+     * @return the restored profile of the subtree below the node or null if it was not completed
+     */
+    Profile getCompletedSubtree(NeighbourJoining.Node node) {
+        return completedSubtrees.get(node.getId());
+    }
+
+    /**
+     * records the profile of a completed subtree (replacing the profiles of its children) and saves if the
+     * interval elapsed
+     */
+    void subtreeCompleted(NeighbourJoining.Node node, Profile profile) {
+        if (!isEnabled()) return;
+        completedSubtrees.remove(node.getChildNode1().getId());
+        completedSubtrees.remove(node.getChildNode2().getId());
+        completedSubtrees.put(node.getId(), profile);
+        saveIfDue();
+    }
+
+    private void saveIfDue() {
+        if (System.nanoTime() - lastSaveNanos >= intervalNanos) save();
+    }
+
+    /**
+     * writes the checkpoint to a temporary file and atomically moves it over the old one
+     */
+    private void save() {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporaryPath))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(numberOfLeaves);
+
+            int rows = joins == null ? completedDistanceRows : 0;
+            out.writeInt(rows);
+            for (int i = 0; i < rows; i++) {
+                for (int j = i + 1; j < numberOfLeaves; j++) out.writeInt(distanceMatrix[i][j]);
+            }
+
+            out.writeBoolean(joins != null);
+            if (joins != null) {
+                for (int[] join : joins) {
+                    out.writeInt(join[0]);
+                    out.writeInt(join[1]);
+                }
+                for (double branchLength : branchLengths) out.writeDouble(branchLength);
+            }
+
+            out.writeInt(completedSubtrees.size());
+            for (Map.Entry<Integer, Profile> subtree : completedSubtrees.entrySet()) {
+                out.writeInt(subtree.getKey());
+                writeString(out, subtree.getValue().getInitialSequence());
+                writeString(out, subtree.getValue().getInitialName());
+                List<String> sequences = subtree.getValue().getSequenceList();
+                out.writeInt(sequences.size());
+                for (String sequence : sequences) writeString(out, sequence);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        lastSaveNanos = System.nanoTime();
+    }
+
+    /**
+     * reads the checkpoint file
+     * @throws IllegalArgumentException if the file is no checkpoint or belongs to a different job
+     */
+    private void load() throws IllegalArgumentException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IllegalArgumentException(path + " is no checkpoint of this version!");
+            if (in.readLong() != fingerprint || in.readInt() != numberOfLeaves) {
+                throw new IllegalArgumentException(path + " belongs to a different input, different alignment settings or a different guiding tree source!");
+            }
+
+            completedDistanceRows = in.readInt();
+            distanceMatrix = new int[numberOfLeaves][numberOfLeaves];
+            for (int i = 0; i < completedDistanceRows; i++) {
+                for (int j = i + 1; j < numberOfLeaves; j++) distanceMatrix[i][j] = in.readInt();
+            }
+
+            if (in.readBoolean()) {
+                joins = new ArrayList<>();
+                for (int k = 0; k < numberOfLeaves - 1; k++) joins.add(new int[]{in.readInt(), in.readInt()});
+                branchLengths = new double[2 * numberOfLeaves - 1];
+                for (int id = 0; id < branchLengths.length; id++) branchLengths[id] = in.readDouble();
+            }
+
+            int subtrees = in.readInt();
+            for (int s = 0; s < subtrees; s++) {
+                int id = in.readInt();
+                String initialSequence = readString(in);
+                String initialName = readString(in);
+                int sequences = in.readInt();
+                HeapProfileStore store = new HeapProfileStore(sequences);
+                for (int k = 0; k < sequences; k++) store.append(readString(in));
+                completedSubtrees.put(id, new Profile(store, initialSequence, initialName));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * writes a string that may be null (length -1)
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        return length < 0 ? null : new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return hash over all input sequences, the settings that change the initial distances (the scoring, the anchor
+     * seed length and the anchoring thresholds of the planner, the wavefront fill is exact and left out) and the
+     * source of the guiding tree
+     */
+    private static long fingerprint(LinkedList<Profile> initialProfiles, AlignmentContext context, String treeSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Profile profile : initialProfiles) {
+                digest.update(profile.getInitialSequence().getBytes(StandardCharsets.US_ASCII));
+                digest.update((byte) '\n');
+            }
+            ScoringScheme scoring = context.scoring();
+            digest.update((scoring.matchScore() + "," + scoring.mismatchScore() + "," + scoring.gapPenalty()).getBytes(StandardCharsets.US_ASCII));
+            digest.update(("," + context.anchorSeedLength() + "," + context.planner().anchoredMinCells() + ","
+                    + context.planner().anchoredMinSimilarity()).getBytes(StandardCharsets.US_ASCII));
+            digest.update(("," + treeSource).getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package progressiveAligner.MainComponents;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Residue counts of all columns of a profile, computed in one pass over the rows instead of one pass per column.
+ * <p>
+ * The counts are stored column by column ({@value #ALPHABET_SIZE} counters per column, in the order of
+ * {@link #RESIDUES}). The columns are split into ranges of {@value #COLUMNS_PER_RANGE}; for each range all rows are
+ * read as encoded bytes into a buffer and counted in a tight loop, so the counters of a range stay in the cache.
+ * Ranges are independent and counted in parallel for large profiles.
+ */
+public class ColumnStatistics {
+
+    /**
+     * the supported residues (the FASTA one letter codes and the gap), index = code of the residue
+     */
+    public static final String RESIDUES = "ACDEFGHIKLMNPQRSTVWYBZXJUO-";
+
+    static final int ALPHABET_SIZE = RESIDUES.length();
+
+    // columns counted by one task
+    private static final int COLUMNS_PER_RANGE = 4096;
+
+    // smaller profiles (rows x columns) are counted sequentially
+    private static final long MIN_PARALLEL_CELLS = 1L << 20;
+
+    // code of each byte, -1 for unsupported characters
+    private static final byte[] CODES = new byte[256];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int code = 0; code < ALPHABET_SIZE; code++) {
+            CODES[RESIDUES.charAt(code)] = (byte) code;
+        }
+    }
+
+    private final int rows;
+    private final int columns;
+    private final int[] counts;
+
+    private ColumnStatistics(int rows, int columns, int[] counts) {
+        this.rows = rows;
+        this.columns = columns;
+        this.counts = counts;
+    }
+
+    /**
+     * counts the residues of all columns
+     * @param store the rows of an aligned profile (all with the same length)
+     * @return the statistics of all columns
+     * @throws IllegalArgumentException if a row holds a character that is not supported by FASTA
+     */
+    public static ColumnStatistics of(ProfileStore store) throws IllegalArgumentException {
+        int rows = store.size();
+        int columns = rows == 0 ? 0 : store.rowLength(0);
+        int[] counts = new int[columns * ALPHABET_SIZE];
+        int ranges = (columns + COLUMNS_PER_RANGE - 1) / COLUMNS_PER_RANGE;
+
+        IntStream rangeIndices = IntStream.range(0, ranges);
+        if ((long) rows * columns >= MIN_PARALLEL_CELLS) rangeIndices = rangeIndices.parallel();
+        rangeIndices.forEach(range -> {
+            int from = range * COLUMNS_PER_RANGE;
+            int to = Math.min(columns, from + COLUMNS_PER_RANGE);
+            countRange(store, from, to, counts);
+        });
+
+        return new ColumnStatistics(rows, columns, counts);
+    }
+
+    /**
+     * counts the columns from (inclusive) to (exclusive) of all rows, ranges write disjoint parts of counts
+     */
+    private static void countRange(ProfileStore store, int from, int to, int[] counts) {
+        byte[] buffer = new byte[to - from];
+        int offset = from * ALPHABET_SIZE;
+        for (int row = 0; row < store.size(); row++) {
+            store.readRow(row, from, to, buffer);
+            for (int k = 0; k < buffer.length; k++) {
+                int code = CODES[buffer[k] & 0xFF];
+                if (code < 0) throw new IllegalArgumentException("<<<<<<! the given aminoAcid is not supported by FASTA !>>>>>>");
+                counts[offset + k * ALPHABET_SIZE + code]++;
+            }
+        }
+    }
+
+    /**
+     * @return number of columns
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * @param column index of the column
+     * @param residue the residue (or '-')
+     * @return how often the residue occurs in the column
+     */
+    public int count(int column, char residue) {
+        int code = RESIDUES.indexOf(residue);
+        return code < 0 ? 0 : counts[column * ALPHABET_SIZE + code];
+    }
+
+    /**
+     * @param column index of the column
+     * @return the most frequent residue of the column, on ties the one listed first in {@link #RESIDUES}
+     */
+    public char mostFrequentResidue(int column) {
+        return RESIDUES.charAt(codeOfMaximum(column));
+    }
+
+    /**
+     * @param column index of the column
+     * @return fraction of the rows holding the most frequent residue of the column
+     */
+    public double identity(int column) {
+        return (double) counts[column * ALPHABET_SIZE + codeOfMaximum(column)] / rows;
+    }
+
+    /**
+     * @return the most frequent residue of each column
+     */
+    public String consensus() {
+        char[] consensus = new char[columns];
+        for (int column = 0; column < columns; column++) {
+            consensus[column] = mostFrequentResidue(column);
+        }
+        return new String(consensus);
+    }
+
+    /**
+     * @return "*" for columns with 100% identity, "." for columns in which the most frequent residue occurs at least
+     * 80% of the time, " " for all others
+     */
+    public String conservationLine() {
+        char[] line = new char[columns];
+        for (int column = 0; column < columns; column++) {
+            double identity = identity(column);
+            line[column] = identity == 1.0 ? '*' : identity >= 0.8 ? '.' : ' ';
+        }
+        return new String(line);
+    }
+
+    private int codeOfMaximum(int column) {
+        int offset = column * ALPHABET_SIZE;
+        int maximum = 0;
+        for (int code = 1; code < ALPHABET_SIZE; code++) {
+            if (counts[offset + code] > counts[offset + maximum]) maximum = code;
+        }
+        return maximum;
+    }
+}
@@ -0,0 +1,87 @@
+package progressiveAligner.MainComponents;
+
+/**
+ * Per-thread buffers of the dynamic programming kernels, reused from one pairwise alignment to the next so the
+ * millions of alignments of a large job do not allocate (and collect) their score rows, direction matrices and
+ * traceback buffers again and again.
+ * <p>
+ * The buffers only grow, a request larger than {@value #MAX_RETAINED_LENGTH} entries gets a fresh array that is not
+ * kept, so a single huge alignment does not pin its memory in every thread. The contents are undefined and only
+ * valid until the next request of the same buffer on the same thread, results have to be copied out before the
+ * kernel returns. A kernel must not wait for fork-join tasks while it holds a buffer, the waiting thread may run other
+ * alignments meanwhile (see {@link WavefrontFill}, which allocates its own matrix for this reason).
+ */
+final class DPWorkspace {
+
+    /**
+     * largest buffer (in entries) that is kept for the next alignment
+     */
+    static final int MAX_RETAINED_LENGTH = 1 << 22;
+
+    // score rows, two for the rolling fill and two for the boundaries of a single tile fill
+    static final int ROWS = 4;
+
+    private static final ThreadLocal<DPWorkspace> WORKSPACES = ThreadLocal.withInitial(DPWorkspace::new);
+
+    private final int[][] rows = new int[ROWS][0];
+    private long[] directions = new long[0];
+    private final char[][] alignedBuffers = {new char[0], new char[0]};
+    private final int[][] gapBuffers = {new int[0], new int[0]};
+
+    private DPWorkspace() {
+    }
+
+    /**
+     * @return the workspace of the calling thread
+     */
+    static DPWorkspace current() {
+        return WORKSPACES.get();
+    }
+
+    /**
+     * @param index number of the row buffer, 0 to {@link #ROWS} - 1
+     * @param length minimal length
+     * @return a score row with at least the given length
+     */
+    int[] row(int index, int length) {
+        if (rows[index].length >= length) return rows[index];
+        int[] row = new int[length];
+        if (length <= MAX_RETAINED_LENGTH) rows[index] = row;
+        return row;
+    }
+
+    /**
+     * @param length minimal number of words
+     * @return a direction matrix with at least the given number of words
+     */
+    long[] directions(int length) {
+        if (directions.length >= length) return directions;
+        long[] words = new long[length];
+        if (length <= MAX_RETAINED_LENGTH) directions = words;
+        return words;
+    }
+
+    /**
+     * @param index 0 for the first, 1 for the second aligned sequence
+     * @param length minimal length
+     * @return a buffer for the traceback of one aligned sequence
+     */
+    char[] alignedBuffer(int index, int length) {
+        if (alignedBuffers[index].length >= length) return alignedBuffers[index];
+        char[] buffer = new char[length];
+        if (length <= MAX_RETAINED_LENGTH) alignedBuffers[index] = buffer;
+        return buffer;
+    }
+
+    /**
+     * @param index 0 for the gaps of the first, 1 for the gaps of the second sequence
+     * @param length minimal length
+     * @return a buffer for the gap positions collected during the traceback
+     */
+    int[] gapBuffer(int index, int length) {
+        if (gapBuffers[index].length >= length) return gapBuffers[index];
+        int[] buffer = new int[length];
+        if (length <= MAX_RETAINED_LENGTH) gapBuffers[index] = buffer;
+        return buffer;
+    }
+}
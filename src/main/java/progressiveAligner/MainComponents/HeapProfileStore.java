@@ -0,0 +1,79 @@
+package progressiveAligner.MainComponents;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Keeps the rows of a profile as strings on the heap. Rows may differ in length (e.g. unaligned input sequences).
+ */
+public class HeapProfileStore implements ProfileStore {
+
+    private final ArrayList<String> rows;
+
+    /**
+     * Returns an empty store.
+     */
+    public HeapProfileStore() {
+        rows = new ArrayList<>();
+    }
+
+    /**
+     * @param expectedRows number of rows the store is sized for
+     */
+    public HeapProfileStore(int expectedRows) {
+        rows = new ArrayList<>(expectedRows);
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    @Override
+    public int rowLength(int row) {
+        return rows.get(row).length();
+    }
+
+    @Override
+    public char charAt(int row, int column) {
+        return rows.get(row).charAt(column);
+    }
+
+    @Override
+    public String row(int row) {
+        return rows.get(row);
+    }
+
+    @Override
+    public void readRow(int row, byte[] target) {
+        String sequence = rows.get(row);
+        for (int k = 0; k < sequence.length(); k++) {
+            target[k] = (byte) sequence.charAt(k);
+        }
+    }
+
+    @Override
+    public void readRow(int row, int from, int to, byte[] target) {
+        String sequence = rows.get(row);
+        for (int k = from; k < to; k++) {
+            target[k - from] = (byte) sequence.charAt(k);
+        }
+    }
+
+    @Override
+    public void append(String row) {
+        rows.add(row);
+    }
+
+    @Override
+    public void append(byte[] row, int length) {
+        rows.add(new String(row, 0, length, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * nothing to free, the rows stay readable since leaf profiles are shared with the guiding tree
+     */
+    @Override
+    public void close() {
+    }
+}
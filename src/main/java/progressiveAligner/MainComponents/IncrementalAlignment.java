@@ -0,0 +1,217 @@
+package progressiveAligner.MainComponents;
+
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.FastaIO;
+import progressiveAligner.ToolClasses.KmerSpectrum;
+import progressiveAligner.ToolClasses.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Adds new sequences to an existing multiple sequence alignment without realigning it.
+ * <p>
+ * The existing alignment is kept fixed. Every new sequence is placed next to the row with the most shared k-mers,
+ * aligned against the ungapped residues of that row and projected onto the columns of the alignment: residues
+ * aligned to a residue of the row go into its column, residues inserted relative to the row first fill the columns
+ * in which the row has gaps and only the rest needs new columns. The new sequences are independent of each other and
+ * are aligned in parallel, afterwards all new columns are inserted in one pass. The expensive part (the pairwise
+ * alignments) therefore scales with the number of new sequences, not with the size of the existing alignment.
+ */
+public class IncrementalAlignment {
+
+    /**
+     * a new sequence projected onto the columns of the existing alignment
+     * @param columns residue (or '-') of the new sequence in each existing column
+     * @param insertions residues that need new columns in front of column p (index p, p = width for the end)
+     *                   or null if there are none
+     */
+    private record Placement(char[] columns, String[] insertions) {
+    }
+
+    /**
+     * reads an aligned FASTA (all sequences with equal length)
+     * @param filePath path to the aligned FASTA
+     * @return the rows of the alignment with their headers, in the order of the file
+     * @throws IllegalArgumentException if the file is empty or the rows differ in length
+     */
+    public static LinkedList<Fasta> readAlignment(String filePath) throws IllegalArgumentException {
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.PARSING)) {
+            LinkedList<Fasta> rows = FastaIO.readInFasta(filePath);
+            if (rows.isEmpty()) throw new IllegalArgumentException("the alignment " + filePath + " holds no sequences!");
+
+            int width = rows.getFirst().sequence().length();
+            for (Fasta row : rows) {
+                if (row.sequence().length() != width) {
+                    throw new IllegalArgumentException("all rows of an alignment need the same length, " + row.header() + " differs!");
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * adds the sequences to the alignment, the result is again an aligned FASTA that more sequences can be added to
+     * @param alignment the rows of the existing alignment (all with equal length), they are not modified
+     * @param newSequences the unaligned sequences to add
+     * @param context the context holding the scoring parameters
+     * @return the rows of the alignment (same order and headers) followed by the new sequences (same order and headers)
+     */
+    public static LinkedList<Fasta> addSequences(List<Fasta> alignment, List<Fasta> newSequences, AlignmentContext context) {
+        List<String> rows = addRows(alignment.stream().map(Fasta::sequence).toList(),
+                                    newSequences.stream().map(Fasta::sequence).toList(), context);
+        LinkedList<Fasta> extended = new LinkedList<>();
+        for (int r = 0; r < rows.size(); r++) {
+            Fasta source = r < alignment.size() ? alignment.get(r) : newSequences.get(r - alignment.size());
+            extended.add(new Fasta(source.header(), rows.get(r)));
+        }
+        return extended;
+    }
+
+    /**
+     * adds the sequences to the alignment
+     * @param alignment the existing alignment, it is not modified
+     * @param newSequences profiles holding one unaligned sequence each
+     * @param context the context holding the scoring parameters
+     * @return a new profile with the rows of the alignment (same order) followed by the new sequences
+     */
+    public static Profile addSequences(Profile alignment, List<Profile> newSequences, AlignmentContext context) {
+        Profile extended = new Profile();
+        for (String row : addRows(alignment.getSequenceList(), newSequences.stream().map(Profile::getInitialSequence).toList(), context)) {
+            extended.addSequenceToProfile(row);
+        }
+        return extended;
+    }
+
+    /**
+     * @return the expanded rows of the alignment followed by the new sequences projected onto the alignment
+     */
+    private static List<String> addRows(List<String> rows, List<String> newSequences, AlignmentContext context) {
+        int width = rows.getFirst().length();
+
+        // k-mer spectra of the existing rows are computed once and shared by all new sequences
+        KmerSpectrum[] rowSpectra;
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.DISTANCE_MATRIX)) {
+            rowSpectra = rows.stream().map(KmerSpectrum::new).toArray(KmerSpectrum[]::new);
+        }
+
+        Placement[] placements;
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.PROGRESSIVE_MERGE)) {
+            placements = IntStream.range(0, newSequences.size()).parallel()
+                    .mapToObj(n -> place(newSequences.get(n), rows, rowSpectra, width, context))
+                    .toArray(Placement[]::new);
+        }
+
+        // every slot gets as many new columns as the longest insertion of any new sequence there
+        int[] newColumns = new int[width + 1];
+        for (Placement placement : placements) {
+            if (placement.insertions() == null) continue;
+            for (int p = 0; p <= width; p++) {
+                if (placement.insertions()[p] != null) newColumns[p] = Math.max(newColumns[p], placement.insertions()[p].length());
+            }
+        }
+        int expandedWidth = width + Arrays.stream(newColumns).sum();
+
+        List<String> extended = new ArrayList<>(rows.size() + placements.length);
+        for (String row : rows) {
+            extended.add(expandRow(row, newColumns, expandedWidth));
+        }
+        for (Placement placement : placements) {
+            extended.add(renderPlacement(placement, newColumns, expandedWidth));
+        }
+
+        if (context.verbose()) {
+            System.out.println("added " + placements.length + " sequences, " + (expandedWidth - width) + " new columns\n");
+        }
+        return extended;
+    }
+
+    /**
+     * aligns one new sequence against its most similar row and projects it onto the alignment columns
+     */
+    private static Placement place(String sequence, List<String> rows, KmerSpectrum[] rowSpectra, int width,
+                                   AlignmentContext context) {
+        KmerSpectrum spectrum = new KmerSpectrum(sequence);
+        int nearestRow = 0;
+        double bestSimilarity = -1;
+        for (int r = 0; r < rowSpectra.length; r++) {
+            double similarity = spectrum.similarity(rowSpectra[r]);
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                nearestRow = r;
+            }
+        }
+
+        String row = rows.get(nearestRow);
+        StringBuilder ungappedRow = new StringBuilder();
+        int[] columnOfResidue = new int[width];
+        for (int column = 0; column < width; column++) {
+            if (row.charAt(column) != '-') {
+                columnOfResidue[ungappedRow.length()] = column;
+                ungappedRow.append(row.charAt(column));
+            }
+        }
+
+        SequenceAlignment.AlignedSequences pair = SequenceAlignment.alignSequences(ungappedRow.toString(), sequence, context);
+        String alignedRow = pair.alignedSequence1();
+        String alignedSequence = pair.alignedSequence2();
+
+        char[] columns = new char[width];
+        Arrays.fill(columns, '-');
+        String[] insertions = null;
+        StringBuilder pending = new StringBuilder();
+        int previousColumn = -1;
+        int residuesOfRow = 0;
+
+        for (int a = 0; a <= alignedRow.length(); a++) {
+            boolean end = a == alignedRow.length();
+            if (!end && alignedRow.charAt(a) == '-') {
+                // residue inserted relative to the row
+                pending.append(alignedSequence.charAt(a));
+                continue;
+            }
+
+            int column = end ? width : columnOfResidue[residuesOfRow++];
+            if (!pending.isEmpty()) {
+                // fill the gap columns of the row between its previous and this residue, the rest needs new columns
+                int freeColumns = column - previousColumn - 1;
+                int filled = Math.min(freeColumns, pending.length());
+                for (int f = 0; f < filled; f++) columns[previousColumn + 1 + f] = pending.charAt(f);
+                if (filled < pending.length()) {
+                    if (insertions == null) insertions = new String[width + 1];
+                    insertions[column] = pending.substring(filled);
+                }
+                pending.setLength(0);
+            }
+            if (!end) columns[column] = alignedSequence.charAt(a);
+            previousColumn = column;
+        }
+
+        return new Placement(columns, insertions);
+    }
+
+    private static String expandRow(String row, int[] newColumns, int expandedWidth) {
+        StringBuilder expanded = new StringBuilder(expandedWidth);
+        for (int p = 0; p <= row.length(); p++) {
+            expanded.repeat('-', newColumns[p]);
+            if (p < row.length()) expanded.append(row.charAt(p));
+        }
+        return expanded.toString();
+    }
+
+    private static String renderPlacement(Placement placement, int[] newColumns, int expandedWidth) {
+        StringBuilder rendered = new StringBuilder(expandedWidth);
+        char[] columns = placement.columns();
+        for (int p = 0; p <= columns.length; p++) {
+            String insertion = placement.insertions() == null ? null : placement.insertions()[p];
+            int insertionLength = insertion == null ? 0 : insertion.length();
+            if (insertion != null) rendered.append(insertion);
+            rendered.repeat('-', newColumns[p] - insertionLength);
+            if (p < columns.length) rendered.append(columns[p]);
+        }
+        return rendered.toString();
+    }
+}
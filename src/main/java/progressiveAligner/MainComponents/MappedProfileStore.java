@@ -0,0 +1,149 @@
+package progressiveAligner.MainComponents;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Keeps the rows of an aligned profile (all rows with the same width) in a memory-mapped spill file, so only the
+ * pages currently in use occupy memory and the operating system can write the others back to disk.
+ * <p>
+ * Row r is stored as width bytes at offset r * width. The file is mapped in chunks of whole rows (a single
+ * MappedByteBuffer is limited to 2 GiB), new chunks are mapped when rows are appended. The file is created in the
+ * spill directory and unlinked right away where the operating system allows this (it then disappears even if the
+ * JVM is killed), otherwise it is deleted when the store is closed. Stores that are never closed are closed once they
+ * become unreachable.
+ */
+public final class MappedProfileStore implements ProfileStore {
+
+    private static final long CHUNK_BYTES = 1L << 30;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int width;
+    private final int rowsPerChunk;
+    private final FileChannel channel;
+    private final Cleaner.Cleanable cleanable;
+    private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+    private int size = 0;
+    private boolean closed = false;
+
+    /**
+     * closes the channel of a store, must not reference the store itself
+     */
+    private record ChannelCloser(FileChannel channel) implements Runnable {
+        @Override
+        public void run() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * creates an empty store
+     * @param width length of every row
+     * @param expectedRows number of rows the first chunk is sized for (more can be appended)
+     * @param directory directory the spill file is created in
+     */
+    public MappedProfileStore(int width, int expectedRows, Path directory) {
+        if (width < 1) throw new IllegalArgumentException("the rows of a mapped profile need at least one column!");
+        this.width = width;
+        this.rowsPerChunk = (int) Math.max(1, Math.min(Math.max(1, expectedRows), CHUNK_BYTES / width));
+        try {
+            Files.createDirectories(directory);
+            Path path = Files.createTempFile(directory, "profile", ".rows");
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                // the file stays until the channel is closed
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.cleanable = CLEANER.register(this, new ChannelCloser(channel));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int rowLength(int row) {
+        checkRow(row);
+        return width;
+    }
+
+    @Override
+    public char charAt(int row, int column) {
+        checkRow(row);
+        if (column < 0 || column >= width) throw new IndexOutOfBoundsException(column);
+        return (char) (chunks.get(row / rowsPerChunk).get((row % rowsPerChunk) * width + column) & 0xFF);
+    }
+
+    @Override
+    public String row(int row) {
+        byte[] bytes = new byte[width];
+        readRow(row, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void readRow(int row, byte[] target) {
+        checkRow(row);
+        chunks.get(row / rowsPerChunk).get((row % rowsPerChunk) * width, target, 0, width);
+    }
+
+    @Override
+    public void readRow(int row, int from, int to, byte[] target) {
+        checkRow(row);
+        if (from < 0 || to > width || from > to) throw new IndexOutOfBoundsException("columns " + from + " to " + to);
+        chunks.get(row / rowsPerChunk).get((row % rowsPerChunk) * width + from, target, 0, to - from);
+    }
+
+    @Override
+    public void append(String row) {
+        append(row.getBytes(StandardCharsets.ISO_8859_1), row.length());
+    }
+
+    @Override
+    public void append(byte[] row, int length) {
+        if (closed) throw new IllegalStateException("the profile store is closed!");
+        if (length != width) throw new IllegalArgumentException("all rows of a mapped profile need the width " + width + ", got " + length + "!");
+        if (size == (long) chunks.size() * rowsPerChunk) mapNextChunk();
+        chunks.get(size / rowsPerChunk).put((size % rowsPerChunk) * width, row, 0, width);
+        size++;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        // the mappings are released once the buffers are collected
+        chunks.clear();
+        cleanable.clean();
+    }
+
+    private void mapNextChunk() {
+        try {
+            long position = (long) chunks.size() * rowsPerChunk * width;
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) rowsPerChunk * width));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (closed) throw new IllegalStateException("the profile store is closed!");
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException(row);
+    }
+}
@@ -1,7 +1,12 @@
 package progressiveAligner.MainComponents;
 
+import progressiveAligner.ToolClasses.JfrEvents;
+import progressiveAligner.ToolClasses.Metrics;
+
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.OptionalInt;
+import java.util.function.Consumer;
 
 /**
  * Adapted Neighbour Joining algorithm after:
@@ -13,11 +18,15 @@ import java.util.LinkedList;
 
 public class NeighbourJoining {
 
+    private final AlignmentContext context;
+    private final Checkpoint checkpoint;
     private int[][] distanceMatrix;
     private int[][] neighbourMatrix;
     private Node[] nodesOnMatrix;
     private Node root = null;
     private boolean algorithmFinished = false;
+    private int nextNodeId;
+    private Consumer<Node> joinListener = node -> { };
 
     /**
      * Constructs a new instance of the NeighbourJoining class and initializes
@@ -34,11 +43,53 @@ public class NeighbourJoining {
      * @param initialProfiles a {@link LinkedList} of {@link Profile} objects that serve as the starting
      *                        points for constructing the phylogenetic tree. Each profile corresponds
      *                        to a leaf node in the tree.
+     * @param context the context holding the scoring parameters used for the initial distances
      */
-    public NeighbourJoining(LinkedList<Profile> initialProfiles) {
+    public NeighbourJoining(LinkedList<Profile> initialProfiles, AlignmentContext context) {
+        this(initialProfiles, context, Checkpoint.disabled());
+    }
+
+    /**
+     * Constructs a new instance like {@link #NeighbourJoining(LinkedList, AlignmentContext)} that restores finished
+     * distance rows (or the whole tree) from the given checkpoint and periodically records its own progress there.
+     *
+     * @param initialProfiles the profiles that become the leaves of the tree
+     * @param context the context holding the scoring parameters used for the initial distances
+     * @param checkpoint the checkpoint of this job
+     */
+    public NeighbourJoining(LinkedList<Profile> initialProfiles, AlignmentContext context, Checkpoint checkpoint) {
+        this.context = context;
+        this.checkpoint = checkpoint;
         initialize(initialProfiles);
     }
 
+    /**
+     * Constructs a new instance on already computed initial distances (e.g. computed while the sequences were
+     * still being parsed, see {@link PipelinedAlignment}).
+     *
+     * @param initialProfiles the profiles that become the leaves of the tree
+     * @param distanceMatrix the symmetric matrix of the alignment scores of all pairs of initial profiles (in the
+     *                       order of the list), it is taken over and modified
+     * @param context the context holding the scoring parameters
+     */
+    public NeighbourJoining(LinkedList<Profile> initialProfiles, int[][] distanceMatrix, AlignmentContext context) {
+        if (distanceMatrix.length != initialProfiles.size()) throw new IllegalArgumentException("the distance matrix needs one row per profile!");
+        this.context = context;
+        this.checkpoint = Checkpoint.disabled();
+        createLeaves(initialProfiles);
+        this.distanceMatrix = distanceMatrix;
+    }
+
+    /**
+     * registers a listener that is called with every inner node right after it was created (the root last). The
+     * subtree below such a node does not change anymore, so it can already be aligned while the tree is still being
+     * built. Not called for trees restored from a checkpoint.
+     * @param joinListener the listener, called on the thread running {@link #runAlgorithm()}
+     */
+    public void setJoinListener(Consumer<Node> joinListener) {
+        this.joinListener = joinListener;
+    }
+
     /**
      * Executes the Neighbour Joining (NJ) algorithm to construct a phylogenetic tree.
      *
@@ -60,20 +111,46 @@ public class NeighbourJoining {
         // prevent second run if runAlgorithm is called twice or more.
         if (algorithmFinished) return this.root;
 
-        while (distanceMatrix.length != 2) {
-            // printCurrentDistanceMatrix(); //DEBUG
-            // compute Neighbour Matrix
-            computeNeighbourMatrix();
-            // find smallest neighbour-distance between two nodes & merge them to a new Node
-            Node combinedNode = findAndCombineNearestNodes();
-            // update distanceMatrix
-            updateDistanceMatrix(combinedNode);
+        if (checkpoint.hasTree()) {
+            this.root = checkpoint.restoreTree(nodesOnMatrix);
+            algorithmFinished = true;
+            return this.root;
         }
 
-        // printCurrentDistanceMatrix(); //DEBUG
+        Node root;
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.TREE_BUILD)) {
+            int iteration = 0;
+            while (distanceMatrix.length != 2) {
+                JfrEvents.NeighbourJoinEvent event = new JfrEvents.NeighbourJoinEvent();
+                event.begin();
+                // printCurrentDistanceMatrix(); //DEBUG
+                // compute Neighbour Matrix
+                computeNeighbourMatrix();
+                // find smallest neighbour-distance between two nodes & merge them to a new Node
+                Node combinedNode = findAndCombineNearestNodes();
+                joinListener.accept(combinedNode);
+                // update distanceMatrix
+                int matrixSize = distanceMatrix.length;
+                updateDistanceMatrix(combinedNode);
+
+                if (event.shouldCommit()) {
+                    event.iteration = iteration;
+                    event.matrixSize = matrixSize;
+                    event.commit();
+                }
+                iteration++;
+            }
 
-        // merge the last two remaining Nodes
-        Node root = new Node(nodesOnMatrix[0], nodesOnMatrix[1]);
+            // printCurrentDistanceMatrix(); //DEBUG
+
+            // merge the last two remaining Nodes
+            root = new Node(nodesOnMatrix[0], nodesOnMatrix[1], nextNodeId++);
+            double halfDistance = getDistanceBetween(nodesOnMatrix[0], nodesOnMatrix[1]) / 2.0;
+            nodesOnMatrix[0].setBranchLength(halfDistance);
+            nodesOnMatrix[1].setBranchLength(halfDistance);
+        }
+        joinListener.accept(root);
+        checkpoint.treeFinished(root);
 
         // System.out.println(root.name); //DEBUG
 
@@ -89,7 +166,7 @@ public class NeighbourJoining {
         System.out.println("Nodes on Matrix: ");
         int index = 0;
         for (Node node : nodesOnMatrix) {
-            System.out.println("#" + index++ + " " + node.name);
+            System.out.println("#" + index++ + " " + node.getName());
         }
 
         System.out.println("Matrix:");
@@ -115,18 +192,52 @@ public class NeighbourJoining {
      *                        to be used in the algorithm. Each profile corresponds to a leaf node.
      */
     private void initialize(LinkedList<Profile> initialProfiles) {
-        // put each sequence into a leaf node
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.DISTANCE_MATRIX)) {
+            computeInitialDistances(initialProfiles);
+        }
+    }
+
+    /**
+     * puts each sequence into a leaf node, leaf ids are the positions in the list
+     */
+    private void createLeaves(LinkedList<Profile> initialProfiles) {
         nodesOnMatrix = new Node[initialProfiles.size()];
-        for (int i = 0; i < nodesOnMatrix.length; i++) {
-            Node node = new Node(initialProfiles.get(i));
-            nodesOnMatrix[i] = node;
+        int i = 0;
+        for (Profile profile : initialProfiles) {
+            nodesOnMatrix[i] = new Node(profile, i);
+            i++;
         }
+        nextNodeId = nodesOnMatrix.length;
+    }
+
+    /**
+     * creates the leaf nodes and fills the initial distance matrix, see {@link #initialize(LinkedList)}
+     */
+    private void computeInitialDistances(LinkedList<Profile> initialProfiles) {
+        createLeaves(initialProfiles);
+
+        // a restored tree does not need any distances
+        if (checkpoint.hasTree()) return;
 
         // instantiate matrix
         distanceMatrix = new int[nodesOnMatrix.length][nodesOnMatrix.length];
 
+        // rows finished before the last checkpoint are restored instead of recomputed
+        int restoredRows = checkpoint.getCompletedDistanceRows();
+        checkpoint.restoreDistanceRows(distanceMatrix);
+
+        // content keys for the persistent score cache, computed once per sequence
+        PairwiseScoreCache distanceCache = context.distanceCache();
+        PairwiseScoreCache.SequenceKey[] cacheKeys = new PairwiseScoreCache.SequenceKey[nodesOnMatrix.length];
+        if (distanceCache.isEnabled()) {
+            for (int i = 0; i < nodesOnMatrix.length; i++) {
+                cacheKeys[i] = PairwiseScoreCache.key(nodesOnMatrix[i].getProfile().getInitialSequence(), context);
+            }
+        }
+        long cacheHits = 0;
+
         // for each Leaf, compute the distance to each other leaf
-        for (int i = 0; i < nodesOnMatrix.length; i++) {
+        for (int i = restoredRows; i < nodesOnMatrix.length; i++) {
             for (int j = 0; j < nodesOnMatrix.length; j++) {
                 if (j < i) {
                     // the d matrix is symmetric, so here we just place the already computed score into
@@ -143,10 +254,24 @@ public class NeighbourJoining {
                     Node node2 = nodesOnMatrix[j];
                     String sequence1 = node1.getProfile().getInitialSequence();
                     String sequence2 = node2.getProfile().getInitialSequence();
-                    int score = SequenceAlignment.computeAlignmentScore(sequence1, sequence2);
+                    OptionalInt cachedScore = distanceCache.get(cacheKeys[i], cacheKeys[j]);
+                    int score;
+                    if (cachedScore.isPresent()) {
+                        score = cachedScore.getAsInt();
+                        cacheHits++;
+                    } else {
+                        score = SequenceAlignment.computeAlignmentScore(sequence1, sequence2, context);
+                        distanceCache.put(cacheKeys[i], cacheKeys[j], score);
+                    }
                     distanceMatrix[i][j] = score;
                 }
             }
+            checkpoint.distanceRowsCompleted(distanceMatrix, i + 1);
+        }
+
+        if (context.verbose() && distanceCache.isEnabled()) {
+            long pairs = (long) (nodesOnMatrix.length - restoredRows) * (nodesOnMatrix.length + restoredRows - 1) / 2;
+            System.out.println("distance cache: " + cacheHits + " of " + pairs + " pairwise scores cached\n");
         }
     }
 
@@ -261,7 +386,10 @@ public class NeighbourJoining {
      * {@link Node} with the selected nodes as its children.
      *
      * <p>The resulting node represents the combined structure of the two input nodes and will
-     * be used in the next iteration of the algorithm.
+     * be used in the next iteration of the algorithm. The branch lengths of the two children are set to
+     * <pre>
+     * b(i) = D(i, j) / 2 + (r(i) - r(j)) / 2,   b(j) = D(i, j) - b(i)
+     * </pre>
      *
      * @return a new {@link Node} that has the two nearest nodes as its children.
      */
@@ -270,7 +398,7 @@ public class NeighbourJoining {
         Node node2OfSmallestPair = null;
         int smallestDistance = Integer.MAX_VALUE;
         for (int i = 0; i < nodesOnMatrix.length; i++) {
-            for (int j = i; j < nodesOnMatrix.length; j++) {
+            for (int j = i + 1; j < nodesOnMatrix.length; j++) {
                 if (neighbourMatrix[i][j] < smallestDistance) {
                     smallestDistance = neighbourMatrix[i][j];
                     node1OfSmallestPair = nodesOnMatrix[i];
@@ -278,7 +406,13 @@ public class NeighbourJoining {
                 }
             }
         }
-        return new Node(node1OfSmallestPair, node2OfSmallestPair);
+        double halfDistance = getDistanceBetween(node1OfSmallestPair, node2OfSmallestPair) / 2.0;
+        double halfMeanDifference = (computeDistanceMeanToEveryOtherNode(node1OfSmallestPair)
+                - computeDistanceMeanToEveryOtherNode(node2OfSmallestPair)) / 2.0;
+        node1OfSmallestPair.setBranchLength(halfDistance + halfMeanDifference);
+        node2OfSmallestPair.setBranchLength(halfDistance - halfMeanDifference);
+
+        return new Node(node1OfSmallestPair, node2OfSmallestPair, nextNodeId++);
     }
 
     /**
@@ -424,7 +558,9 @@ public class NeighbourJoining {
      *   <li>Parent node: The node that this node is connected to in the tree.</li>
      *   <li>Child nodes: The two nodes that were merged to form this node (if not a leaf).</li>
      *   <li>Profile: The profile or sequence data associated with this node.</li>
+     *   <li>Id: Leaves are numbered like the initial profiles, internal nodes continue in creation order.</li>
      *   <li>Name: A unique identifier or label for the node.</li>
+     *   <li>Branch length: Length of the branch to the parent node (0 if unknown or for the root).</li>
      *   <li>Leaf flag: A boolean indicating whether the node is a leaf.</li>
      * </ul>
      *
@@ -436,19 +572,22 @@ public class NeighbourJoining {
         private Node childNode2;
         private Profile profile; // this is the profile this nodes holds
         private final boolean isLeaf;
-        private final String name;
+        private String name; // built on first use, eager names cost O(n log n) sequence copies for large trees
+        private final int id;
+        private double branchLength = 0;
 
-        public Node(Profile profile) {
+        public Node(Profile profile, int id) {
             this.profile = profile;
             this.isLeaf = true;
+            this.id = id;
             this.name = profile.getInitialSequence();
         }
 
-        public Node(Node childNode1, Node childNode2) {
+        public Node(Node childNode1, Node childNode2, int id) {
             this.isLeaf = false;
+            this.id = id;
             this.childNode1 = childNode1;
             this.childNode2 = childNode2;
-            this.name = "(" + childNode1.getName() + "," + childNode2.getName() + ")";
         }
 
         public boolean hasProfile() {
@@ -456,9 +595,22 @@ public class NeighbourJoining {
         }
 
         public String getName() {
+            if (name == null) name = "(" + childNode1.getName() + "," + childNode2.getName() + ")";
             return name;
         }
 
+        public double getBranchLength() {
+            return branchLength;
+        }
+
+        public void setBranchLength(double branchLength) {
+            this.branchLength = branchLength;
+        }
+
+        public int getId() {
+            return id;
+        }
+
         public boolean isLeaf() {
             return isLeaf;
         }
@@ -490,5 +642,14 @@ public class NeighbourJoining {
         public Profile getProfile() {
             return profile;
         }
+
+        /**
+         * lets an internal node hold the already aligned profile of its subtree (e.g. computed by another process),
+         * the progressive phase then uses it instead of aligning the subtree
+         * @param profile the profile of all sequences below this node
+         */
+        public void setProfile(Profile profile) {
+            this.profile = profile;
+        }
     }
 }
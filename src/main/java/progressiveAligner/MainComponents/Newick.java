@@ -0,0 +1,239 @@
+package progressiveAligner.MainComponents;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Export and import of guiding trees in Newick format, so a tree can be reused for reruns with different scoring
+ * parameters instead of computing the distance matrix and the Neighbour Joining again.
+ * <p>
+ * Leaves are labelled with the FASTA headers of their sequences and every node carries its branch length. Both
+ * directions work without recursion, so caterpillar shaped trees with many thousand leaves do not overflow the stack.
+ */
+public class Newick {
+
+    private static final String CHARACTERS_TO_QUOTE = "()[]':;, \t";
+
+    /**
+     * @param root root of the guiding tree
+     * @return the tree in Newick format (terminated by ';')
+     */
+    public static String toNewick(NeighbourJoining.Node root) {
+        StringBuilder newick = new StringBuilder();
+        // entries are either nodes to open or strings to append once the children are written
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(";");
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            Object next = stack.pop();
+            if (next instanceof String text) {
+                newick.append(text);
+                continue;
+            }
+
+            NeighbourJoining.Node node = (NeighbourJoining.Node) next;
+            String branchLength = node == root ? "" : ":" + formatBranchLength(node.getBranchLength());
+            if (node.isLeaf()) {
+                newick.append(label(node)).append(branchLength);
+            } else {
+                newick.append('(');
+                stack.push(")" + branchLength);
+                stack.push(node.getChildNode2());
+                stack.push(",");
+                stack.push(node.getChildNode1());
+            }
+        }
+        return newick.toString();
+    }
+
+    /**
+     * writes {@link #toNewick(NeighbourJoining.Node)} to a file
+     * @param root root of the guiding tree
+     * @param filePath path of the file that gets (over)written
+     */
+    public static void write(NeighbourJoining.Node root, String filePath) {
+        try {
+            Files.writeString(Path.of(filePath), toNewick(root) + System.lineSeparator());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * reads a Newick file, see {@link #parse(String, LinkedList)}
+     */
+    public static NeighbourJoining.Node read(String filePath, LinkedList<Profile> profiles) throws IllegalArgumentException {
+        try {
+            return parse(Files.readString(Path.of(filePath)), profiles);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * parses a Newick tree whose leaf labels are the names of the given profiles.
+     * Nodes with more than two children are resolved into a chain of binary nodes with zero length branches,
+     * labels of internal nodes (e.g. support values) and comments in square brackets are ignored.
+     * @param newick the tree in Newick format
+     * @param profiles the profiles of the leaves, leaf ids are their positions in this list
+     * @return root of the parsed guiding tree, internal node ids start at the number of profiles
+     * @throws IllegalArgumentException if the tree is malformed or its labels do not match the profile names one to one
+     */
+    public static NeighbourJoining.Node parse(String newick, LinkedList<Profile> profiles) throws IllegalArgumentException {
+        Map<String, Integer> leafIndexByName = new HashMap<>();
+        int index = 0;
+        for (Profile profile : profiles) {
+            String name = profile.getInitialName();
+            if (name == null) throw new IllegalArgumentException("every sequence needs a name to be matched with the tree!");
+            if (leafIndexByName.put(name, index++) != null) throw new IllegalArgumentException("sequence name " + name + " is not unique!");
+        }
+
+        // random access by leaf index, get(i) on the linked list would make the parse quadratic
+        Profile[] profilesByIndex = profiles.toArray(new Profile[0]);
+        NeighbourJoining.Node[] leaves = new NeighbourJoining.Node[profiles.size()];
+        int nextInternalId = profiles.size();
+
+        // children of all currently open '(' groups
+        Deque<List<NeighbourJoining.Node>> openGroups = new ArrayDeque<>();
+        List<NeighbourJoining.Node> topLevel = new ArrayList<>();
+        NeighbourJoining.Node lastNode = null;
+
+        int position = 0;
+        int length = newick.length();
+        while (position < length) {
+            char c = newick.charAt(position);
+            if (Character.isWhitespace(c)) {
+                position++;
+            } else if (c == '[') {
+                int end = newick.indexOf(']', position);
+                if (end < 0) throw new IllegalArgumentException("unclosed comment in Newick tree!");
+                position = end + 1;
+            } else if (c == '(') {
+                requireSeparator(lastNode, position);
+                openGroups.push(new ArrayList<>());
+                lastNode = null;
+                position++;
+            } else if (c == ',') {
+                if (lastNode == null) throw new IllegalArgumentException("empty node in Newick tree at position " + position + "!");
+                lastNode = null;
+                position++;
+            } else if (c == ')') {
+                if (openGroups.isEmpty()) throw new IllegalArgumentException("unbalanced ')' in Newick tree at position " + position + "!");
+                List<NeighbourJoining.Node> children = openGroups.pop();
+                if (children.isEmpty()) throw new IllegalArgumentException("empty group in Newick tree at position " + position + "!");
+
+                NeighbourJoining.Node node = children.get(0);
+                for (int k = 1; k < children.size(); k++) {
+                    node = new NeighbourJoining.Node(node, children.get(k), nextInternalId++);
+                }
+                position++;
+                // label of the internal node is ignored
+                position = skipLabel(newick, position);
+                lastNode = node;
+                (openGroups.isEmpty() ? topLevel : openGroups.peek()).add(node);
+            } else if (c == ':') {
+                if (lastNode == null) throw new IllegalArgumentException("branch length without node at position " + position + "!");
+                int end = position + 1;
+                while (end < length && "+-.0123456789eE".indexOf(newick.charAt(end)) >= 0) end++;
+                try {
+                    lastNode.setBranchLength(Double.parseDouble(newick.substring(position + 1, end)));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid branch length at position " + position + "!");
+                }
+                position = end;
+            } else if (c == ';') {
+                break;
+            } else {
+                requireSeparator(lastNode, position);
+                int end = skipLabel(newick, position);
+                String label = unquote(newick.substring(position, end));
+                Integer leafIndex = leafIndexByName.get(label);
+                if (leafIndex == null) throw new IllegalArgumentException("tree label " + label + " is no sequence name of the input!");
+                if (leaves[leafIndex] != null) throw new IllegalArgumentException("tree label " + label + " occurs twice!");
+
+                NeighbourJoining.Node leaf = new NeighbourJoining.Node(profilesByIndex[leafIndex], leafIndex);
+                leaves[leafIndex] = leaf;
+                lastNode = leaf;
+                (openGroups.isEmpty() ? topLevel : openGroups.peek()).add(leaf);
+                position = end;
+            }
+        }
+
+        if (!openGroups.isEmpty()) throw new IllegalArgumentException("unbalanced '(' in Newick tree!");
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i] == null) throw new IllegalArgumentException("sequence " + profilesByIndex[i].getInitialName() + " is missing in the tree!");
+        }
+        if (topLevel.size() != 1 || topLevel.get(0).isLeaf()) {
+            throw new IllegalArgumentException("the Newick tree needs exactly one root with at least two leaves!");
+        }
+        return topLevel.get(0);
+    }
+
+    /**
+     * sibling subtrees have to be separated by ',', a node can only start at the beginning, after '(' or after ','
+     * @throws IllegalArgumentException if the node before the given position is not yet followed by ','
+     */
+    private static void requireSeparator(NeighbourJoining.Node lastNode, int position) throws IllegalArgumentException {
+        if (lastNode != null) throw new IllegalArgumentException("missing ',' between two nodes in Newick tree at position " + position + "!");
+    }
+
+    /**
+     * @return position after the (quoted or unquoted) label starting at the given position
+     */
+    private static int skipLabel(String newick, int position) {
+        if (position < newick.length() && newick.charAt(position) == '\'') {
+            int end = position + 1;
+            while (end < newick.length()) {
+                if (newick.charAt(end) == '\'') {
+                    // '' is an escaped quote inside a quoted label
+                    if (end + 1 < newick.length() && newick.charAt(end + 1) == '\'') {
+                        end += 2;
+                        continue;
+                    }
+                    return end + 1;
+                }
+                end++;
+            }
+            throw new IllegalArgumentException("unclosed quoted label in Newick tree!");
+        }
+
+        int end = position;
+        while (end < newick.length() && CHARACTERS_TO_QUOTE.indexOf(newick.charAt(end)) < 0) end++;
+        return end;
+    }
+
+    private static String unquote(String label) {
+        if (label.length() >= 2 && label.startsWith("'") && label.endsWith("'")) {
+            return label.substring(1, label.length() - 1).replace("''", "'");
+        }
+        return label;
+    }
+
+    /**
+     * @return the name of the leaf, quoted if it contains characters with a meaning in Newick
+     */
+    private static String label(NeighbourJoining.Node leaf) {
+        String name = leaf.getProfile().getInitialName();
+        if (name == null) name = "seq" + leaf.getId();
+
+        for (int i = 0; i < name.length(); i++) {
+            if (CHARACTERS_TO_QUOTE.indexOf(name.charAt(i)) >= 0) return "'" + name.replace("'", "''") + "'";
+        }
+        return name;
+    }
+
+    private static String formatBranchLength(double branchLength) {
+        return new BigDecimal(branchLength, new MathContext(6)).stripTrailingZeros().toPlainString();
+    }
+}
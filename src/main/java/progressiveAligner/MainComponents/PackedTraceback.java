@@ -0,0 +1,211 @@
+package progressiveAligner.MainComponents;
+
+import progressiveAligner.ToolClasses.JfrEvents;
+import progressiveAligner.ToolClasses.Metrics;
+
+/**
+ * Needleman-Wunsch alignment that records the chosen move of every cell as 2 bit direction during the fill instead
+ * of keeping the whole score matrix for the traceback.
+ * <p>
+ * Only two score rows are kept, the directions are packed 32 cells per long (16 times less memory than an int
+ * matrix). Each row of the direction matrix starts at a word boundary, its stride is the length of the second
+ * sequence rounded up to a multiple of 32, and cell (i, j) is stored at index (i - 1) * stride + (j - 1).
+ * The first row and column are not stored, there the only possible move is a gap.
+ * <p>
+ * Large matrices are filled tile by tile on all cores, see {@link WavefrontFill}. All other buffers (score rows,
+ * direction matrix, traceback buffers) come from the {@link DPWorkspace} of the thread, so in the steady state only
+ * the returned strings and gap arrays are allocated.
+ * <p>
+ * On ties the moves are preferred in the order diagonal, left (gap in sequence 1), up (gap in sequence 2), which is
+ * the order the former score matrix traceback checked them in, so both produce the same alignments.
+ */
+public class PackedTraceback {
+
+    static final int DIAGONAL = 0;
+    static final int LEFT = 1;
+    static final int UP = 2;
+
+    static final int CELLS_PER_WORD = 32;
+
+    /**
+     * computes an optimal global alignment of two (possibly gapped) sequences
+     * @param sequence1 the first sequence to align
+     * @param sequence2 the second sequence to align
+     * @param scoring the scoring parameters of the alignment
+     * @return the aligned sequences, their score and the columns in which gaps were inserted into each sequence
+     */
+    public static SequenceAlignment.AlignedSequences align(String sequence1, String sequence2, ScoringScheme scoring) {
+        return align(sequence1, sequence2, scoring, WavefrontFill.isWorthwhile(sequence1.length(), sequence2.length()));
+    }
+
+    /**
+     * computes an optimal global alignment of two (possibly gapped) sequences
+     * @param sequence1 the first sequence to align
+     * @param sequence2 the second sequence to align
+     * @param scoring the scoring parameters of the alignment
+     * @param parallel if true, the matrix is filled by the {@link WavefrontFill}, otherwise on the calling thread
+     * @return the aligned sequences, their score and the columns in which gaps were inserted into each sequence
+     */
+    public static SequenceAlignment.AlignedSequences align(String sequence1, String sequence2, ScoringScheme scoring,
+                                                           boolean parallel) {
+        final int rows = sequence1.length();
+        final int columns = sequence2.length();
+        final int stride = roundUpToWord(columns);
+
+        long dpStart = Metrics.startDP();
+        JfrEvents.PairwiseAlignmentEvent event = JfrEvents.beginPairwiseAlignment(rows, columns);
+
+        int words = Math.toIntExact((long) rows * stride / CELLS_PER_WORD);
+        DPWorkspace workspace = DPWorkspace.current();
+        long[] directions;
+        int score;
+        if (parallel && rows > 0 && columns > 0) {
+            directions = new long[words];
+            score = WavefrontFill.fill(sequence1, sequence2, scoring, directions, stride);
+        } else {
+            // the whole matrix as a single tile
+            directions = workspace.directions(words);
+            int[] topRow = workspace.row(2, columns + 1);
+            int[] leftColumn = workspace.row(3, rows + 1);
+            for (int j = 0; j <= columns; j++) topRow[j] = j * -scoring.gapPenalty();
+            for (int i = 0; i <= rows; i++) leftColumn[i] = i * -scoring.gapPenalty();
+            fillTile(sequence1, sequence2, scoring, 0, rows, 0, columns, 0, topRow, leftColumn, directions, stride,
+                     workspace.row(0, columns + 1), workspace.row(1, columns + 1));
+            score = columns == 0 ? leftColumn[rows] : topRow[columns];
+        }
+
+        Metrics.recordDP(dpStart, (long) rows * columns);
+        if (event != null) event.commit();
+
+        return traceback(sequence1, sequence2, directions, stride, score, workspace);
+    }
+
+    /**
+     * fills the cells (i, j) with rowFrom < i <= rowTo and columnFrom < j <= columnTo and records their directions.
+     * The tile is bounded by row rowFrom (corner and topRow[columnFrom + 1 .. columnTo]) and column columnFrom
+     * (leftColumn[rowFrom + 1 .. rowTo]). Afterwards these entries hold the last row and the last column of the tile,
+     * the boundaries of the tiles below and to the right. columnFrom has to be a multiple of 32, so every tile writes
+     * whole words of the direction matrix.
+     * @param rowBuffer1 buffer with at least columnTo - columnFrom + 1 entries
+     * @param rowBuffer2 buffer with at least columnTo - columnFrom + 1 entries
+     */
+    static void fillTile(String sequence1, String sequence2, ScoringScheme scoring, int rowFrom, int rowTo,
+                         int columnFrom, int columnTo, int corner, int[] topRow, int[] leftColumn, long[] directions,
+                         int stride, int[] rowBuffer1, int[] rowBuffer2) {
+        // local copies of the scoring parameters, so the JIT can keep them in registers inside the fill loop
+        final int matchScore = scoring.matchScore();
+        final int mismatchScore = scoring.mismatchScore();
+        final int gapPenalty = scoring.gapPenalty();
+        final int width = columnTo - columnFrom;
+
+        int[] previousRow = rowBuffer1;
+        int[] currentRow = rowBuffer2;
+        previousRow[0] = corner;
+        System.arraycopy(topRow, columnFrom + 1, previousRow, 1, width);
+
+        for (int i = rowFrom + 1; i <= rowTo; i++) {
+            char a = sequence1.charAt(i - 1);
+            currentRow[0] = leftColumn[i];
+            int wordIndex = (int) (((long) (i - 1) * stride + columnFrom) / CELLS_PER_WORD);
+            long word = 0;
+            int shift = 0;
+            for (int j = 1; j <= width; j++) {
+                char b = sequence2.charAt(columnFrom + j - 1);
+                int best = previousRow[j - 1] + (a == b ? matchScore : (a == '-' || b == '-' ? -gapPenalty : mismatchScore));
+                long direction = DIAGONAL;
+                int left = currentRow[j - 1] - gapPenalty;
+                if (left > best) {
+                    best = left;
+                    direction = LEFT;
+                }
+                int up = previousRow[j] - gapPenalty;
+                if (up > best) {
+                    best = up;
+                    direction = UP;
+                }
+                currentRow[j] = best;
+
+                word |= direction << shift;
+                shift += 2;
+                if (shift == 2 * CELLS_PER_WORD) {
+                    directions[wordIndex++] = word;
+                    word = 0;
+                    shift = 0;
+                }
+            }
+            if (shift != 0) directions[wordIndex] = word;
+            leftColumn[i] = currentRow[width];
+
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+
+        if (rowTo > rowFrom) System.arraycopy(previousRow, 1, topRow, columnFrom + 1, width);
+    }
+
+    /**
+     * follows the recorded directions from the last cell back to the origin. The aligned sequences are filled back to
+     * front, gap positions are collected as offsets from the end and converted to column indices at the end.
+     */
+    private static SequenceAlignment.AlignedSequences traceback(String sequence1, String sequence2, long[] directions,
+                                                                int stride, int score, DPWorkspace workspace) {
+        int i = sequence1.length();
+        int j = sequence2.length();
+        char[] aligned1 = workspace.alignedBuffer(0, i + j);
+        char[] aligned2 = workspace.alignedBuffer(1, i + j);
+        int[] gaps1 = workspace.gapBuffer(0, j);
+        int[] gaps2 = workspace.gapBuffer(1, i);
+        int numberOfGaps1 = 0;
+        int numberOfGaps2 = 0;
+        int end = i + j;
+        int position = end;
+
+        while (i > 0 || j > 0) {
+            int direction;
+            if (i == 0) direction = LEFT;
+            else if (j == 0) direction = UP;
+            else {
+                long cell = (long) (i - 1) * stride + (j - 1);
+                direction = (int) (directions[(int) (cell >>> 5)] >>> ((cell & 31) << 1)) & 3;
+            }
+
+            position--;
+            if (direction == DIAGONAL) {
+                aligned1[position] = sequence1.charAt(--i);
+                aligned2[position] = sequence2.charAt(--j);
+            } else if (direction == LEFT) {
+                aligned1[position] = '-';
+                aligned2[position] = sequence2.charAt(--j);
+                gaps1[numberOfGaps1++] = position;
+            } else {
+                aligned1[position] = sequence1.charAt(--i);
+                aligned2[position] = '-';
+                gaps2[numberOfGaps2++] = position;
+            }
+        }
+
+        return new SequenceAlignment.AlignedSequences(new String(aligned1, position, end - position),
+                                                      new String(aligned2, position, end - position),
+                                                      score,
+                                                      toColumnIndices(gaps1, numberOfGaps1, position),
+                                                      toColumnIndices(gaps2, numberOfGaps2, position));
+    }
+
+    /**
+     * @param positions gap positions in the back to front filled buffers, in descending order
+     * @param offset buffer position of the first alignment column
+     * @return the column indices of the gaps in ascending order
+     */
+    private static int[] toColumnIndices(int[] positions, int count, int offset) {
+        int[] columnIndices = new int[count];
+        for (int k = 0; k < count; k++) {
+            columnIndices[k] = positions[count - 1 - k] - offset;
+        }
+        return columnIndices;
+    }
+
+    private static int roundUpToWord(int cells) {
+        return (cells + CELLS_PER_WORD - 1) / CELLS_PER_WORD * CELLS_PER_WORD;
+    }
+}
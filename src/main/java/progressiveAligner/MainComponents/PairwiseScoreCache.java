@@ -0,0 +1,271 @@
+package progressiveAligner.MainComponents;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.OptionalInt;
+
+/**
+ * Persistent, size bounded cache of pairwise alignment scores, so the initial distance matrix of a growing sequence
+ * collection only has to be computed for the pairs that are new since the last run.
+ * <p>
+ * Entries are addressed by the content of both sequences and the scoring (not by their position or name in the
+ * FASTA), the order of the two sequences does not matter since the global alignment score is symmetric. If anchored
+ * alignments are enabled, the seed length and the planner thresholds that decide which pairs are anchored are part
+ * of the key as well, so the heuristic scores of an anchored run are never read by an exact run and vice versa.
+ * The cache file is memory mapped and organized as set associative table: a key selects one set of
+ * {@value #WAYS} slots, a new entry replaces the least recently used slot of its set once the set is full.
+ * <p>
+ * File layout: a header of {@value #HEADER_BYTES} bytes (magic, version, number of sets, access clock), followed by
+ * the sets. A slot holds the 128 bit key, the score and the clock value of its last access ({@value #SLOT_BYTES}
+ * bytes). A file with a different layout or size is discarded and recreated.
+ */
+public class PairwiseScoreCache implements AutoCloseable {
+
+    private static final int MAGIC = 0x50415343; // "PASC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int WAYS = 8;
+    private static final int SLOT_BYTES = 24;
+    private static final int SET_BYTES = WAYS * SLOT_BYTES;
+    // sets per mapped chunk, a single MappedByteBuffer is limited to 2 GiB
+    private static final int SETS_PER_CHUNK_SHIFT = 22;
+    private static final long SETS_PER_CHUNK = 1L << SETS_PER_CHUNK_SHIFT;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] chunks;
+    private final long setMask;
+    private int clock;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * content hash of one sequence under one scoring, see {@link #key(String, AlignmentContext)}
+     */
+    public record SequenceKey(long high, long low) {
+
+        private boolean isBefore(SequenceKey other) {
+            return high != other.high ? high < other.high : low < other.low;
+        }
+    }
+
+    private PairwiseScoreCache() {
+        this.channel = null;
+        this.header = null;
+        this.chunks = new MappedByteBuffer[0];
+        this.setMask = 0;
+    }
+
+    PairwiseScoreCache(Path path, long sizeInBytes) throws IOException {
+        long numberOfSets = Long.highestOneBit(Math.max(1, (sizeInBytes - HEADER_BYTES) / SET_BYTES));
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+
+        boolean compatible = channel.size() == HEADER_BYTES + numberOfSets * SET_BYTES
+                && header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getLong(8) == numberOfSets;
+        if (!compatible) {
+            // discard the old content, the file is refilled with zeros (= empty slots)
+            channel.truncate(HEADER_BYTES);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putLong(8, numberOfSets);
+            header.putInt(16, 0);
+        }
+
+        this.setMask = numberOfSets - 1;
+        this.clock = header.getInt(16);
+        int numberOfChunks = (int) ((numberOfSets + SETS_PER_CHUNK - 1) >>> SETS_PER_CHUNK_SHIFT);
+        this.chunks = new MappedByteBuffer[numberOfChunks];
+        for (int c = 0; c < numberOfChunks; c++) {
+            long setsInChunk = Math.min(SETS_PER_CHUNK, numberOfSets - c * SETS_PER_CHUNK);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + c * SETS_PER_CHUNK * SET_BYTES, setsInChunk * SET_BYTES);
+        }
+    }
+
+    /**
+     * @return a cache that never holds anything
+     */
+    public static PairwiseScoreCache disabled() {
+        return new PairwiseScoreCache();
+    }
+
+    /**
+     * opens (or creates) the cache file
+     * @param path file the cache is mapped from
+     * @param sizeInMegabytes size of the cache file, rounded down so the number of sets is a power of two
+     * @return the cache
+     */
+    public static PairwiseScoreCache open(Path path, int sizeInMegabytes) {
+        if (sizeInMegabytes < 1) throw new IllegalArgumentException("the size of the distance cache has to be at least 1 MB!");
+        try {
+            return new PairwiseScoreCache(path, (long) sizeInMegabytes << 20);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return false if this is the {@link #disabled()} cache
+     */
+    public boolean isEnabled() {
+        return channel != null;
+    }
+
+    /**
+     * computes the content key of a sequence, compute it once per sequence and reuse it for all its pairs
+     * @param sequence the (ungapped) sequence
+     * @param context the context the cached scores are computed with (scoring and anchoring settings)
+     * @return the key
+     */
+    public static SequenceKey key(String sequence, AlignmentContext context) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ScoringScheme scoring = context.scoring();
+            String settings = scoring.matchScore() + "," + scoring.mismatchScore() + "," + scoring.gapPenalty();
+            // exact runs keep the keys of older cache files, anchored runs get their own entries
+            if (context.anchorSeedLength() > 0) {
+                settings += ",anchored," + context.anchorSeedLength() + "," + context.planner().anchoredMinCells() + ","
+                        + context.planner().anchoredMinSimilarity();
+            }
+            digest.update((settings + "\n").getBytes(StandardCharsets.US_ASCII));
+            digest.update(sequence.getBytes(StandardCharsets.US_ASCII));
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+            return new SequenceKey(hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the cached alignment score of both sequences or an empty optional on a miss
+     */
+    public synchronized OptionalInt get(SequenceKey sequence1, SequenceKey sequence2) {
+        if (!isEnabled()) return OptionalInt.empty();
+        long high = pairHigh(sequence1, sequence2);
+        long low = pairLow(sequence1, sequence2);
+        ByteBuffer chunk = chunkOf(low);
+        int setOffset = setOffset(low);
+
+        for (int way = 0; way < WAYS; way++) {
+            int slot = setOffset + way * SLOT_BYTES;
+            if (chunk.getInt(slot + 20) != 0 && chunk.getLong(slot) == high && chunk.getLong(slot + 8) == low) {
+                chunk.putInt(slot + 20, tick());
+                hits++;
+                return OptionalInt.of(chunk.getInt(slot + 16));
+            }
+        }
+        misses++;
+        return OptionalInt.empty();
+    }
+
+    /**
+     * stores the alignment score of both sequences, evicting the least recently used entry of its set if necessary
+     */
+    public synchronized void put(SequenceKey sequence1, SequenceKey sequence2, int score) {
+        if (!isEnabled()) return;
+        long high = pairHigh(sequence1, sequence2);
+        long low = pairLow(sequence1, sequence2);
+        ByteBuffer chunk = chunkOf(low);
+        int setOffset = setOffset(low);
+
+        int victim = setOffset;
+        long oldestAge = -1;
+        for (int way = 0; way < WAYS; way++) {
+            int slot = setOffset + way * SLOT_BYTES;
+            int lastUsed = chunk.getInt(slot + 20);
+            if (lastUsed == 0 || (chunk.getLong(slot) == high && chunk.getLong(slot + 8) == low)) {
+                victim = slot;
+                break;
+            }
+            // ages are compared as differences, so a wrapped around clock keeps the order
+            long age = Integer.toUnsignedLong(clock - lastUsed);
+            if (age > oldestAge) {
+                oldestAge = age;
+                victim = slot;
+            }
+        }
+
+        chunk.putLong(victim, high);
+        chunk.putLong(victim + 8, low);
+        chunk.putInt(victim + 16, score);
+        chunk.putInt(victim + 20, tick());
+    }
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups not found in the cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * flushes the mapped file to disk and closes it
+     */
+    @Override
+    public synchronized void close() {
+        if (!isEnabled() || !channel.isOpen()) return;
+        try {
+            header.force();
+            for (MappedByteBuffer chunk : chunks) chunk.force();
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the next clock value, 0 is reserved for empty slots
+     */
+    private int tick() {
+        clock++;
+        if (clock == 0) clock++;
+        header.putInt(16, clock);
+        return clock;
+    }
+
+    private ByteBuffer chunkOf(long low) {
+        return chunks[(int) ((low & setMask) >>> SETS_PER_CHUNK_SHIFT)];
+    }
+
+    private int setOffset(long low) {
+        return (int) ((low & setMask) & (SETS_PER_CHUNK - 1)) * SET_BYTES;
+    }
+
+    // the pair key combines the ordered sequence keys, mixed so that the set index depends on all bits
+    private static long pairHigh(SequenceKey sequence1, SequenceKey sequence2) {
+        boolean ordered = sequence1.isBefore(sequence2);
+        SequenceKey first = ordered ? sequence1 : sequence2;
+        SequenceKey second = ordered ? sequence2 : sequence1;
+        return mix(first.high() ^ mix(second.high() + 0x9E3779B97F4A7C15L));
+    }
+
+    private static long pairLow(SequenceKey sequence1, SequenceKey sequence2) {
+        boolean ordered = sequence1.isBefore(sequence2);
+        SequenceKey first = ordered ? sequence1 : sequence2;
+        SequenceKey second = ordered ? sequence2 : sequence1;
+        return mix(first.low() ^ mix(second.low() + 0xC2B2AE3D27D4EB4FL));
+    }
+
+    /**
+     * finalizer of SplitMix64
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
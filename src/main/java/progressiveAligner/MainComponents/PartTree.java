@@ -0,0 +1,225 @@
+package progressiveAligner.MainComponents;
+
+import progressiveAligner.ToolClasses.KmerSpectrum;
+import progressiveAligner.ToolClasses.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a guiding tree for very many sequences by recursive partitioning (in the style of the PartTree method of
+ * MAFFT) instead of Neighbour Joining, which needs all pairwise distances.
+ * <p>
+ * A group with more sequences than representatives picks that many representatives at random and assigns every
+ * sequence to its closest representative by k-mer distance (1 - {@link KmerSpectrum#similarity}). The resulting
+ * subgroups are partitioned recursively, their subtrees are joined in the order of an average linkage (UPGMA)
+ * clustering of their representatives. Small groups are clustered directly by average linkage. With g
+ * representatives every level costs n * g distances and the groups shrink by about the factor g, so the whole tree
+ * takes O(n g log n) distances and never more than a g x g distance matrix.
+ * <p>
+ * Leaves have the index of their profile as id, internal nodes get the ids from the number of profiles on, the same
+ * seed always gives the same tree. Branch lengths are half the average linkage distances (ultrametric).
+ */
+public class PartTree {
+
+    /**
+     * number of representatives per partitioning step used by default
+     */
+    public static final int DEFAULT_REPRESENTATIVES = 50;
+
+    /**
+     * seed of the representative choice used by default
+     */
+    public static final long DEFAULT_SEED = 42;
+
+    private final List<Profile> profiles;
+    private final KmerSpectrum[] spectra;
+    private final int representatives;
+    private final Random random;
+    private int nextInternalId;
+    private int partitioningSteps = 0;
+
+    /**
+     * a built subtree and its height (distance of its leaves to its root)
+     */
+    private record Subtree(NeighbourJoining.Node node, double height) {
+    }
+
+    private PartTree(List<Profile> profiles, int representatives, long seed) {
+        this.profiles = profiles;
+        this.spectra = profiles.stream().parallel().map(profile -> new KmerSpectrum(profile.getInitialSequence())).toArray(KmerSpectrum[]::new);
+        this.representatives = representatives;
+        this.random = new Random(seed);
+        this.nextInternalId = profiles.size();
+    }
+
+    /**
+     * builds the guiding tree with {@value #DEFAULT_REPRESENTATIVES} representatives and the default seed
+     * @param profiles the initial profiles (one sequence each), at least 2
+     * @param context the context, progress is printed if it is verbose
+     * @return root of the guiding tree
+     */
+    public static NeighbourJoining.Node build(List<Profile> profiles, AlignmentContext context) {
+        return build(profiles, DEFAULT_REPRESENTATIVES, DEFAULT_SEED, context);
+    }
+
+    /**
+     * builds the guiding tree
+     * @param profiles the initial profiles (one sequence each), at least 2
+     * @param representatives number of representatives per partitioning step (at least 2), groups up to this size are
+     *                        clustered directly
+     * @param seed seed of the random choice of the representatives
+     * @param context the context, progress is printed if it is verbose
+     * @return root of the guiding tree
+     * @throws IllegalArgumentException if less than 2 profiles or representatives are given
+     */
+    public static NeighbourJoining.Node build(List<Profile> profiles, int representatives, long seed,
+                                              AlignmentContext context) throws IllegalArgumentException {
+        if (profiles.size() < 2) throw new IllegalArgumentException("at least 2 sequences are needed for a guiding tree!");
+        if (representatives < 2) throw new IllegalArgumentException("PartTree needs at least 2 representatives!");
+
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.TREE_BUILD)) {
+            PartTree partTree = new PartTree(new ArrayList<>(profiles), representatives, seed);
+            NeighbourJoining.Node root = partTree.partition(IntStream.range(0, profiles.size()).toArray()).node();
+            if (context.verbose()) {
+                System.out.println("PartTree built for " + profiles.size() + " sequences in "
+                                           + partTree.partitioningSteps + " partitioning steps\n");
+            }
+            return root;
+        }
+    }
+
+    /**
+     * builds the subtree of the given profile indices
+     */
+    private Subtree partition(int[] members) {
+        if (members.length <= representatives) {
+            Subtree[] leaves = new Subtree[members.length];
+            for (int m = 0; m < members.length; m++) {
+                leaves[m] = new Subtree(new NeighbourJoining.Node(profiles.get(members[m]), members[m]), 0);
+            }
+            return averageLinkage(leaves, distanceMatrix(members));
+        }
+        partitioningSteps++;
+
+        // partial Fisher-Yates shuffle, the first entries are the representatives
+        int[] shuffled = members.clone();
+        for (int r = 0; r < representatives; r++) {
+            int swap = r + random.nextInt(shuffled.length - r);
+            int member = shuffled[r];
+            shuffled[r] = shuffled[swap];
+            shuffled[swap] = member;
+        }
+        int[] representativeMembers = Arrays.copyOf(shuffled, representatives);
+
+        // every representative is its own closest one, all other members are assigned in parallel
+        int[] groupOfMember = IntStream.range(0, shuffled.length).parallel()
+                .map(m -> m < representatives ? m : closestRepresentative(shuffled[m], representativeMembers))
+                .toArray();
+
+        int[] groupSizes = new int[representatives];
+        for (int group : groupOfMember) groupSizes[group]++;
+        int[][] groups = new int[representatives][];
+        for (int g = 0; g < representatives; g++) groups[g] = new int[groupSizes[g]];
+        int[] filled = new int[representatives];
+        for (int m = 0; m < shuffled.length; m++) {
+            int group = groupOfMember[m];
+            groups[group][filled[group]++] = shuffled[m];
+        }
+        // members in input order, so the recursion does not depend on the shuffle of this level
+        for (int[] group : groups) Arrays.sort(group);
+
+        Subtree[] subtrees = new Subtree[representatives];
+        for (int g = 0; g < representatives; g++) {
+            subtrees[g] = partition(groups[g]);
+        }
+        return averageLinkage(subtrees, distanceMatrix(representativeMembers));
+    }
+
+    /**
+     * @return index (into representativeMembers) of the representative closest to the member, ties are spread over
+     * the tied representatives by the member index, so groups of identical sequences are still split
+     */
+    private int closestRepresentative(int member, int[] representativeMembers) {
+        double bestDistance = Double.MAX_VALUE;
+        int[] tied = new int[representativeMembers.length];
+        int numberOfTied = 0;
+        for (int r = 0; r < representativeMembers.length; r++) {
+            double distance = distance(member, representativeMembers[r]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                numberOfTied = 0;
+            }
+            if (distance == bestDistance) tied[numberOfTied++] = r;
+        }
+        return tied[member % numberOfTied];
+    }
+
+    private double distance(int member1, int member2) {
+        return 1 - spectra[member1].similarity(spectra[member2]);
+    }
+
+    private double[][] distanceMatrix(int[] members) {
+        double[][] distances = new double[members.length][members.length];
+        for (int i = 0; i < members.length; i++) {
+            for (int j = i + 1; j < members.length; j++) {
+                distances[i][j] = distances[j][i] = distance(members[i], members[j]);
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * joins the subtrees by average linkage clustering, always the two clusters with the smallest average distance
+     * are joined next
+     * @param subtrees the subtrees to join
+     * @param distances distance matrix of the subtrees (modified)
+     * @return the joined tree
+     */
+    private Subtree averageLinkage(Subtree[] subtrees, double[][] distances) {
+        int n = subtrees.length;
+        Subtree[] clusters = subtrees.clone();
+        int[] clusterSizes = new int[n];
+        Arrays.fill(clusterSizes, 1);
+        boolean[] active = new boolean[n];
+        Arrays.fill(active, true);
+
+        for (int joins = 1; joins < n; joins++) {
+            int best1 = -1;
+            int best2 = -1;
+            for (int i = 0; i < n; i++) {
+                if (!active[i]) continue;
+                for (int j = i + 1; j < n; j++) {
+                    if (active[j] && (best1 < 0 || distances[i][j] < distances[best1][best2])) {
+                        best1 = i;
+                        best2 = j;
+                    }
+                }
+            }
+
+            double height = Math.max(distances[best1][best2] / 2, Math.max(clusters[best1].height(), clusters[best2].height()));
+            NeighbourJoining.Node node = new NeighbourJoining.Node(clusters[best1].node(), clusters[best2].node(), nextInternalId++);
+            clusters[best1].node().setBranchLength(height - clusters[best1].height());
+            clusters[best2].node().setBranchLength(height - clusters[best2].height());
+
+            // the joined cluster takes the place of best1
+            for (int k = 0; k < n; k++) {
+                if (!active[k] || k == best1 || k == best2) continue;
+                double average = (distances[best1][k] * clusterSizes[best1] + distances[best2][k] * clusterSizes[best2])
+                        / (clusterSizes[best1] + clusterSizes[best2]);
+                distances[best1][k] = distances[k][best1] = average;
+            }
+            clusterSizes[best1] += clusterSizes[best2];
+            clusters[best1] = new Subtree(node, height);
+            active[best2] = false;
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (active[i]) return clusters[i];
+        }
+        throw new IllegalStateException("no cluster left!");
+    }
+}
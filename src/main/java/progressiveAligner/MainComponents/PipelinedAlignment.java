@@ -0,0 +1,213 @@
+package progressiveAligner.MainComponents;
+
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.FastaIO;
+import progressiveAligner.ToolClasses.Metrics;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the Neighbour Joining pipeline with overlapping stages instead of strictly one phase after the other.
+ * <ul>
+ *   <li>A virtual thread parses the FASTA and hands every entry over through a bounded queue, it blocks when the
+ *       distance stage falls behind.</li>
+ *   <li>The distance stage scores every new sequence against all earlier ones (in parallel) as soon as it arrives,
+ *       so the distance matrix is complete right after the last entry was read.</li>
+ *   <li>While Neighbour Joining builds the tree, every join starts the alignment of its two children on the
+ *       alignment threads as soon as both child profiles are ready, so most of the progressive phase is done when
+ *       the tree is finished.</li>
+ * </ul>
+ * The alignments are the same as in {@link ProgressiveAlignment#neighbourJoiningGuidedMSA(LinkedList, AlignmentContext)}
+ * (same scores, same tree, same order of the profiles in every merge), only their schedule differs.
+ */
+public class PipelinedAlignment {
+
+    /**
+     * number of parsed entries that may wait for the distance stage
+     */
+    public static final int QUEUE_CAPACITY = 256;
+
+    // marks the end of the parsed entries
+    private static final Fasta END_OF_INPUT = new Fasta("", "");
+
+    private final AlignmentContext context;
+    private final int alignmentThreads;
+    private NeighbourJoining.Node guidingTreeRoot;
+
+    /**
+     * @param context the context holding the scoring parameters
+     * @param alignmentThreads number of threads running profile-profile alignments while the tree is built
+     */
+    public PipelinedAlignment(AlignmentContext context, int alignmentThreads) {
+        if (alignmentThreads < 1) throw new IllegalArgumentException("at least one alignment thread is needed!");
+        this.context = context;
+        this.alignmentThreads = alignmentThreads;
+    }
+
+    /**
+     * parses, scores, builds the guiding tree and aligns along it with overlapping stages
+     * @param fastaPath path to the FASTA holding at least 2 sequences
+     * @return a Profile with all sequences aligned in a full MSA
+     * @throws IllegalArgumentException if the FASTA holds less than 2 sequences
+     */
+    public Profile align(String fastaPath) throws IllegalArgumentException {
+        LinkedList<Profile> profiles = new LinkedList<>();
+        int[][] distanceMatrix;
+        long start = System.nanoTime();
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.DISTANCE_MATRIX)) {
+            distanceMatrix = parseAndScore(fastaPath, profiles);
+        }
+        if (context.verbose()) {
+            System.out.println("pipeline: " + profiles.size() + " sequences parsed and scored in "
+                                       + (System.nanoTime() - start) / 1_000_000 + " ms\n");
+        }
+
+        ExecutorService alignmentPool = Executors.newFixedThreadPool(alignmentThreads);
+        try {
+            AtomicInteger finishedAlignments = new AtomicInteger();
+            Map<NeighbourJoining.Node, CompletableFuture<Profile>> pendingProfiles = new IdentityHashMap<>();
+
+            NeighbourJoining neighbourJoining = new NeighbourJoining(profiles, distanceMatrix, context);
+            neighbourJoining.setJoinListener(node -> pendingProfiles.put(node, alignWhenReady(node, pendingProfiles, alignmentPool, finishedAlignments)));
+            guidingTreeRoot = neighbourJoining.runAlgorithm();
+
+            if (context.verbose()) {
+                System.out.println("pipeline: tree finished with " + finishedAlignments.get() + " of "
+                                           + (profiles.size() - 1) + " profile alignments done\n");
+            }
+            try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.PROGRESSIVE_MERGE)) {
+                return pendingProfiles.get(guidingTreeRoot).join();
+            }
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e.getCause());
+        } finally {
+            alignmentPool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the guiding tree of the last {@link #align(String)}
+     */
+    public NeighbourJoining.Node getGuidingTreeRoot() {
+        return guidingTreeRoot;
+    }
+
+    /**
+     * reads the FASTA on a virtual thread and scores each entry against all earlier ones when it arrives
+     * @param fastaPath path to the FASTA
+     * @param profiles receives the profile of each entry in the order of the file
+     * @return the distance matrix of the profiles
+     */
+    private int[][] parseAndScore(String fastaPath, LinkedList<Profile> profiles) {
+        BlockingQueue<Fasta> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<RuntimeException> parseFailure = new AtomicReference<>();
+        Thread parser = Thread.ofVirtual().name("fasta-parser").start(() -> {
+            try {
+                FastaIO.readInFasta(fastaPath, fasta -> {
+                    try {
+                        queue.put(fasta);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                parseFailure.set(e);
+            } finally {
+                // the distance stage may have stopped already, then nobody takes the marker
+                queue.offer(END_OF_INPUT);
+            }
+        });
+
+        PairwiseScoreCache distanceCache = context.distanceCache();
+        List<String> sequences = new ArrayList<>();
+        List<PairwiseScoreCache.SequenceKey> cacheKeys = new ArrayList<>();
+        // row i holds the scores of sequence i with the sequences 0 to i - 1
+        List<int[]> scoresToEarlier = new ArrayList<>();
+        try {
+            for (Fasta fasta = queue.take(); fasta != END_OF_INPUT; fasta = queue.take()) {
+                Profile profile = ProgressiveAlignment.toProfile(fasta);
+                profiles.add(profile);
+                String sequence = profile.getInitialSequence();
+                int i = sequences.size();
+                sequences.add(sequence);
+                if (distanceCache.isEnabled()) cacheKeys.add(PairwiseScoreCache.key(sequence, context));
+
+                // earlier sequences come first, as in the upper triangle of NeighbourJoining
+                scoresToEarlier.add(IntStream.range(0, i).parallel().map(j -> {
+                    if (!distanceCache.isEnabled()) return SequenceAlignment.computeAlignmentScore(sequences.get(j), sequence, context);
+                    OptionalInt cachedScore = distanceCache.get(cacheKeys.get(j), cacheKeys.get(i));
+                    if (cachedScore.isPresent()) return cachedScore.getAsInt();
+                    int score = SequenceAlignment.computeAlignmentScore(sequences.get(j), sequence, context);
+                    distanceCache.put(cacheKeys.get(j), cacheKeys.get(i), score);
+                    return score;
+                }).toArray());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            parser.interrupt();
+        }
+        if (parseFailure.get() != null) throw parseFailure.get();
+        if (profiles.size() < 2) throw new IllegalArgumentException("This FASTA holds only " + profiles.size() + " sequence!");
+
+        int n = profiles.size();
+        int[][] distanceMatrix = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            int[] scores = scoresToEarlier.get(i);
+            for (int j = 0; j < i; j++) {
+                distanceMatrix[i][j] = distanceMatrix[j][i] = scores[j];
+            }
+        }
+        return distanceMatrix;
+    }
+
+    /**
+     * starts the alignment of the two children of a freshly joined node once both of their profiles are ready, in
+     * the same order {@link ProgressiveAlignment} merges them
+     */
+    private CompletableFuture<Profile> alignWhenReady(NeighbourJoining.Node node,
+                                                      Map<NeighbourJoining.Node, CompletableFuture<Profile>> pendingProfiles,
+                                                      ExecutorService alignmentPool, AtomicInteger finishedAlignments) {
+        NeighbourJoining.Node firstChild = node.getChildNode1();
+        NeighbourJoining.Node secondChild = node.getChildNode2();
+        if (!firstChild.isLeaf() && !secondChild.isLeaf()) {
+            firstChild = node.getChildNode2();
+            secondChild = node.getChildNode1();
+        }
+        boolean releaseFirst = !firstChild.isLeaf();
+        boolean releaseSecond = !secondChild.isLeaf();
+
+        return profileOf(firstChild, pendingProfiles).thenCombineAsync(profileOf(secondChild, pendingProfiles), (firstProfile, secondProfile) -> {
+            Profile profile = SequenceAlignment.pairGuidedAlignment(firstProfile, secondProfile, context);
+            if (releaseFirst) firstProfile.release();
+            if (releaseSecond) secondProfile.release();
+            finishedAlignments.incrementAndGet();
+            return profile;
+        }, alignmentPool);
+    }
+
+    /**
+     * @return the profile of a leaf or the pending alignment of an inner node (which is then no longer tracked)
+     */
+    private static CompletableFuture<Profile> profileOf(NeighbourJoining.Node node,
+                                                        Map<NeighbourJoining.Node, CompletableFuture<Profile>> pendingProfiles) {
+        if (node.isLeaf()) return CompletableFuture.completedFuture(node.getProfile());
+        return pendingProfiles.remove(node);
+    }
+}
@@ -1,12 +1,13 @@
 package progressiveAligner.MainComponents;
 
 import progressiveAligner.ToolClasses.Fasta;
-import progressiveAligner.ToolClasses.OccurrenceCounter;
 
+import java.io.PrintStream;
 import java.util.*;
 
 /**
- * Stores one unaligned or multiple aligned sequences.
+ * Stores one unaligned or multiple aligned sequences. The rows are kept in a {@link ProfileStore}, on the heap or
+ * spilled to disk for large merged profiles.
  */
 public class Profile {
 
@@ -15,17 +16,43 @@ public class Profile {
     /**
      * The sequences currently stored in this profile.
      */
-    private final LinkedList<String> sequences = new LinkedList<>();
+    private final ProfileStore sequences;
 
     private final LinkedList<Fasta> fastas = new LinkedList<>();
 
     private String initialSequence;
 
+    private String initialName;
+
+    // computed on first use, reset when a sequence is added
+    private volatile String consensusSequence;
+
     /**
      * Returns an empty sequence profile.
      */
     public Profile() {
+        this(new HeapProfileStore());
+    }
 
+    /**
+     * Returns a profile holding the rows of the given store.
+     * @param store the store of the rows, the profile takes ownership of it
+     */
+    public Profile(ProfileStore store) {
+        sequences = store;
+    }
+
+    /**
+     * Returns a profile holding the rows of the given store that keeps the first sequence and its name of the profile
+     * its first row comes from.
+     * @param store the store of the rows, the profile takes ownership of it
+     * @param initialSequence the first (unaligned) sequence or null
+     * @param initialName the name of the first sequence or null
+     */
+    Profile(ProfileStore store, String initialSequence, String initialName) {
+        this(store);
+        this.initialSequence = initialSequence;
+        this.initialName = initialName;
     }
 
     /**
@@ -33,8 +60,19 @@ public class Profile {
      * @param sequence the sequence which should be added.
      */
     public Profile(String sequence) {
+        this();
         initialSequence = sequence;
-        sequences.add(sequence);
+        sequences.append(sequence);
+    }
+
+    /**
+     * Constructor which initializes a Profile with one given sequence and its name
+     * @param sequence the sequence which should be added.
+     * @param name the name of the sequence (FASTA header without '>')
+     */
+    public Profile(String sequence, String name) {
+        this(sequence);
+        initialName = name;
     }
 
     /**
@@ -43,15 +81,34 @@ public class Profile {
      * @param sequence The sequence to add.
      */
     public void addSequenceToProfile(String sequence) {
-        this.sequences.add(sequence);
+        this.sequences.append(sequence);
+        this.consensusSequence = null;
     }
 
     /**
      *
-     * @return a list of all sequences in this profile
+     * @return a read-only list view of all sequences in this profile (rows of spilled profiles are read on access)
+     */
+    public List<String> getSequenceList() {
+        return new AbstractList<>() {
+            @Override
+            public String get(int index) {
+                return sequences.row(index);
+            }
+
+            @Override
+            public int size() {
+                return sequences.size();
+            }
+        };
+    }
+
+    /**
+     * frees the storage of the rows (e.g. the spill file of a large merged profile). Called on intermediate profiles
+     * once they are merged, the profile must not be used afterwards.
      */
-    public LinkedList<String> getSequenceList() {
-        return this.sequences;
+    public void release() {
+        sequences.close();
     }
 
     /**
@@ -63,59 +120,60 @@ public class Profile {
     }
 
     /**
-     * this method calculates the consensus sequence of the Profile
+     *
+     * @return the name of the first sequence (FASTA header without '>') or null if it was not given
+     */
+    public String getInitialName() {
+        return this.initialName;
+    }
+
+    /**
+     * this method calculates the consensus sequence of the Profile (the most frequent residue of each column, see
+     * {@link ColumnStatistics}). It is computed once and reused until a sequence is added.
      * @return consensus sequence of the profile
      */
     public String getConsensusSequence() {
-
-        OccurrenceCounter oC = new OccurrenceCounter();
-        StringBuilder consensusSequence = new StringBuilder();
-
-        for (int i = 0; i < sequences.getFirst().length(); i++) {
-
-            for (String sequence : sequences) {
-                char aminoAcid = sequence.charAt(i);
-                oC.increaseByOne(aminoAcid);
-            }
-
-            consensusSequence.append(oC.getMostFrequentAminoAcid());
-            oC.resetCounter();
+        String consensus = consensusSequence;
+        if (consensus == null) {
+            consensus = getColumnStatistics().consensus();
+            consensusSequence = consensus;
         }
+        return consensus;
+    }
 
-        return consensusSequence.toString();
+    /**
+     * counts the residues of all columns in one pass over the rows
+     * @return the statistics of all columns of the profile
+     */
+    public ColumnStatistics getColumnStatistics() {
+        return ColumnStatistics.of(sequences);
     }
 
     /**
      * this method prints the Profile to the console
      */
     public void printProfile(){
-        for (String sequence : sortedSequences()) {
-            System.out.println(sequence);
+        writeProfile(System.out);
+    }
+
+    /**
+     * this method writes the Profile (sorted sequences followed by the match line) to the given stream
+     * @param out the stream to write to
+     */
+    public void writeProfile(PrintStream out) {
+        for (int row : sortedRows()) {
+            out.println(sequences.row(row));
         }
-        printMatches();
+        printMatches(out);
     }
 
     /**
      * this method prints "*" on 100% identity positions and "." on Positions in which the most abundant AA occurs more
      * than 80% of the time!
+     * @param out the stream to print to
      */
-    private void printMatches() {
-        StringBuilder matches = new StringBuilder();
-        OccurrenceCounter oC = new OccurrenceCounter();
-
-        for (int i = 0; i < sequences.getFirst().length(); i++) {
-            for (String sequence : sequences) {
-                oC.increaseByOne(sequence.charAt(i));
-            }
-
-            if (oC.getFrequencyOfMostFrequentAA() == 1.0) matches.append("*");
-            else if (oC.getFrequencyOfMostFrequentAA() >= 0.8) matches.append(".");
-            else matches.append(" ");
-
-            oC.resetCounter();
-        }
-
-        System.out.println(matches);
+    private void printMatches(PrintStream out) {
+        out.println(getColumnStatistics().conservationLine());
     }
 
     /**
@@ -126,42 +184,76 @@ public class Profile {
      * @param gapsProfile2 gaps inside sequence j in profile 2 found while aligning with sequence i in profile 1
      * @return a combined Profile with all gaps propagated
      */
-    public static Profile combineProfiles(Profile profile1, Profile profile2, ArrayList<Integer> gapsProfile1, ArrayList<Integer> gapsProfile2) {
-        Profile combinedProfile = new Profile();
+    public static Profile combineProfiles(Profile profile1, Profile profile2, int[] gapsProfile1, int[] gapsProfile2) {
+        return combineProfiles(profile1, profile2, gapsProfile1, gapsProfile2, ProfileStorage.HEAP);
+    }
 
-        for (String sequence : profile1.getSequenceList()) {
-            StringBuilder sequenceBuilder = new StringBuilder(sequence);
-            for (int gapIndex : gapsProfile1) {
-                sequenceBuilder.insert(gapIndex, '-');
-            }
+    /**
+     * combines two profiles like {@link #combineProfiles(Profile, Profile, int[], int[])}, the rows are streamed one
+     * by one from the input stores into a store chosen by the storage policy, so no second full copy of the merged
+     * rows is held on the heap.
+     * @param storage decides whether the combined profile stays on the heap or is spilled to disk
+     * @return a combined Profile with all gaps propagated
+     */
+    public static Profile combineProfiles(Profile profile1, Profile profile2, int[] gapsProfile1, int[] gapsProfile2,
+                                          ProfileStorage storage) {
+        int width = profile1.sequences.rowLength(0) + gapsProfile1.length;
+        ProfileStore combinedStore = storage.create(profile1.sequences.size() + profile2.sequences.size(), width);
 
-            combinedProfile.addSequenceToProfile(sequenceBuilder.toString());
-        }
+        byte[] source = new byte[Math.max(maximalRowLength(profile1.sequences), maximalRowLength(profile2.sequences))];
+        byte[] target = new byte[source.length + Math.max(gapsProfile1.length, gapsProfile2.length)];
+        appendWithGaps(profile1.sequences, gapsProfile1, combinedStore, source, target);
+        appendWithGaps(profile2.sequences, gapsProfile2, combinedStore, source, target);
 
-        for (String sequence : profile2.getSequenceList()) {
-            StringBuilder sequenceBuilder = new StringBuilder(sequence);
-            for (int gapIndex : gapsProfile2) {
-                sequenceBuilder.insert(gapIndex, '-');
-            }
+        return new Profile(combinedStore, profile1.initialSequence, profile1.initialName);
+    }
 
-            combinedProfile.addSequenceToProfile(sequenceBuilder.toString());
+    private static int maximalRowLength(ProfileStore store) {
+        int length = 0;
+        for (int row = 0; row < store.size(); row++) {
+            length = Math.max(length, store.rowLength(row));
         }
+        return length;
+    }
 
-        return combinedProfile;
+    /**
+     * appends every row of the source store with gaps inserted in a single pass to the target store
+     * @param gapIndices ascending column indices of the gaps in the resulting rows
+     */
+    private static void appendWithGaps(ProfileStore sourceStore, int[] gapIndices, ProfileStore targetStore,
+                                       byte[] source, byte[] target) {
+        for (int row = 0; row < sourceStore.size(); row++) {
+            int rowLength = sourceStore.rowLength(row);
+            sourceStore.readRow(row, source);
+            int sourcePosition = 0;
+            int targetPosition = 0;
+            for (int gapIndex : gapIndices) {
+                int length = gapIndex - targetPosition;
+                System.arraycopy(source, sourcePosition, target, targetPosition, length);
+                sourcePosition += length;
+                targetPosition = gapIndex;
+                target[targetPosition++] = '-';
+            }
+            System.arraycopy(source, sourcePosition, target, targetPosition, rowLength - sourcePosition);
+            targetStore.append(target, rowLength + gapIndices.length);
+        }
     }
 
     /**
-     * sorts the sequences by number of gaps inside them. This is just used for a better looking printout
-     * @return sorted sequences list
+     * sorts the rows by number of gaps inside them. This is just used for a better looking printout
+     * @return row indices in the order of the printout
      */
-    private List<String> sortedSequences() {
-        List<String> list = new ArrayList<>(sequences);
+    private List<Integer> sortedRows() {
+        int[] gapCounts = new int[sequences.size()];
+        List<Integer> list = new ArrayList<>(sequences.size());
+        for (int row = 0; row < sequences.size(); row++) {
+            for (int column = 0; column < sequences.rowLength(row); column++) {
+                if (sequences.charAt(row, column) == '-') gapCounts[row]++;
+            }
+            list.add(row);
+        }
 
-        list.sort((s1, s2) -> {
-            long count1 = s1.chars().filter(ch -> ch == '-').count();
-            long count2 = s2.chars().filter(ch -> ch == '-').count();
-            return Long.compare(count1, count2);
-        });
+        list.sort(Comparator.comparingInt(row -> gapCounts[row]));
 
         return list;
     }
@@ -175,18 +267,18 @@ public class Profile {
             return false;
         }
         Profile profile = (Profile) obj;
-        return sequences.equals(profile.sequences);
+        return getSequenceList().equals(profile.getSequenceList());
     }
 
     @Override
     public int hashCode() {
-        return sequences.hashCode();
+        return getSequenceList().hashCode();
     }
 
     @Override
     public String toString() {
         return "Profile{" +
-                "sequences=" + sequences +
+                "sequences=" + getSequenceList() +
                 '}';
     }
 }
@@ -0,0 +1,43 @@
+package progressiveAligner.MainComponents;
+
+import java.nio.file.Path;
+
+/**
+ * Decides where the rows of merged profiles are stored: profiles up to the spill threshold stay on the heap, larger
+ * ones are written to a {@link MappedProfileStore} in the spill directory.
+ *
+ * @param spillThresholdBytes profiles with more cells (rows x columns) are spilled, {@link Long#MAX_VALUE} never spills
+ * @param spillDirectory directory the spill files are created in
+ */
+public record ProfileStorage(long spillThresholdBytes, Path spillDirectory) {
+
+    /**
+     * keeps all profiles on the heap
+     */
+    public static final ProfileStorage HEAP = new ProfileStorage(Long.MAX_VALUE, Path.of(System.getProperty("java.io.tmpdir")));
+
+    public ProfileStorage {
+        if (spillThresholdBytes < 0) throw new IllegalArgumentException("the spill threshold must not be negative!");
+        if (spillDirectory == null) throw new IllegalArgumentException("spillDirectory must not be null!");
+    }
+
+    /**
+     * @param spillThresholdInMegabytes profiles larger than this are spilled to disk, 0 never spills
+     * @param spillDirectory directory the spill files are created in
+     * @return the storage policy
+     */
+    public static ProfileStorage spillingAbove(int spillThresholdInMegabytes, Path spillDirectory) {
+        if (spillThresholdInMegabytes < 0) throw new IllegalArgumentException("the spill threshold must not be negative!");
+        return new ProfileStorage(spillThresholdInMegabytes == 0 ? Long.MAX_VALUE : (long) spillThresholdInMegabytes << 20, spillDirectory);
+    }
+
+    /**
+     * @param rows number of rows of the profile
+     * @param width number of columns of the profile
+     * @return an empty store for a profile of the given size
+     */
+    public ProfileStore create(int rows, int width) {
+        if (width > 0 && (long) rows * width > spillThresholdBytes) return new MappedProfileStore(width, rows, spillDirectory);
+        return new HeapProfileStore(rows);
+    }
+}
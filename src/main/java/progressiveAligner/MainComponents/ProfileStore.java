@@ -0,0 +1,68 @@
+package progressiveAligner.MainComponents;
+
+/**
+ * Storage of the rows of a {@link Profile}. Rows are ASCII sequences, they are only appended and never changed.
+ * Either on the heap ({@link HeapProfileStore}) or spilled to a memory-mapped file ({@link MappedProfileStore}) for
+ * alignments larger than the heap, see {@link ProfileStorage} for the choice.
+ */
+public interface ProfileStore extends AutoCloseable {
+
+    /**
+     * @return number of rows
+     */
+    int size();
+
+    /**
+     * @param row index of the row
+     * @return length of the row
+     */
+    int rowLength(int row);
+
+    /**
+     * @param row index of the row
+     * @param column index of the column
+     * @return the character in the column of the row
+     */
+    char charAt(int row, int column);
+
+    /**
+     * @param row index of the row
+     * @return the row as string (a copy for off-heap stores)
+     */
+    String row(int row);
+
+    /**
+     * copies a row into a buffer without creating a string
+     * @param row index of the row
+     * @param target buffer with at least {@link #rowLength(int)} entries
+     */
+    void readRow(int row, byte[] target);
+
+    /**
+     * copies a column range of a row into a buffer without creating a string
+     * @param row index of the row
+     * @param from first column (inclusive)
+     * @param to last column (exclusive)
+     * @param target buffer with at least to - from entries, the column from is copied to index 0
+     */
+    void readRow(int row, int from, int to, byte[] target);
+
+    /**
+     * appends a row
+     * @param row the row to append
+     */
+    void append(String row);
+
+    /**
+     * appends a row
+     * @param row buffer holding the row
+     * @param length length of the row
+     */
+    void append(byte[] row, int length);
+
+    /**
+     * frees the resources of the store (e.g. the spill file), it must not be used afterwards
+     */
+    @Override
+    void close();
+}
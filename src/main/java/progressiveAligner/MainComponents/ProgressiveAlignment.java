@@ -2,7 +2,7 @@ package progressiveAligner.MainComponents;
 
 import progressiveAligner.ToolClasses.Fasta;
 import progressiveAligner.ToolClasses.FastaIO;
-import progressiveAligner.Main;
+import progressiveAligner.ToolClasses.Metrics;
 
 import java.util.*;
 
@@ -18,28 +18,50 @@ public class ProgressiveAlignment {
      * @throws IllegalArgumentException if the FASTA holds only 1 sequence!
      */
     public static LinkedList<Profile> parseProfileListFromFasta(String filePath) throws IllegalArgumentException {
-        LinkedList<Profile> parsedSequences = new LinkedList<>();
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.PARSING)) {
+            LinkedList<Profile> parsedSequences = new LinkedList<>();
 
-        LinkedList<Fasta> loadedFasta = FastaIO.readInFasta(filePath);
+            LinkedList<Fasta> loadedFasta = FastaIO.readInFasta(filePath);
 
-        if (loadedFasta.size() == 1) throw new IllegalArgumentException("This FASTA holds only 1 sequence!");
+            if (loadedFasta.size() == 1) throw new IllegalArgumentException("This FASTA holds only 1 sequence!");
 
-        for (Fasta fasta : loadedFasta) {
-            parsedSequences.add(new Profile(fasta.sequence()));
+            for (Fasta fasta : loadedFasta) {
+                parsedSequences.add(toProfile(fasta));
+            }
+
+            return parsedSequences;
         }
+    }
 
-        return parsedSequences;
+    /**
+     * @param fasta a parsed FASTA entry
+     * @return a profile holding the sequence, named by the header without '>'
+     */
+    static Profile toProfile(Fasta fasta) {
+        String name = fasta.header().startsWith(">") ? fasta.header().substring(1).strip() : fasta.header();
+        return new Profile(fasta.sequence(), name);
     }
 
     /**
      * computes the MSA as learned in the lectures.
      * profile-profile technique: consensus sequences.
      * @param profiles all Profils that should be aligned (initially all profils hold one sequence)
+     * @param context the context holding the scoring parameters
      * @return a profile with the result of the MSA
      */
-    public static Profile consensusMSA(LinkedList<Profile> profiles) {
+    public static Profile consensusMSA(LinkedList<Profile> profiles, AlignmentContext context) {
+
+        if(context.verbose()) System.out.println("consensusMSA used!\n");
 
-        if(Main.verbose()) System.out.println("consensusMSA used!\n");
+        // consensus sequences (with their character composition) and pair scores only change for the merged profile of
+        // an iteration, so they are kept over the iterations
+        ArrayList<ConsensusEntry> consensusEntries = new ArrayList<>();
+        int nextEntryId = 0;
+        for (Profile profile : profiles) {
+            consensusEntries.add(new ConsensusEntry(nextEntryId++, profile.getConsensusSequence()));
+        }
+        HashMap<Long, Integer> exactScores = new HashMap<>();
+        HashMap<Long, Integer> scoreBounds = new HashMap<>();
 
         while (profiles.size() != 1) {
 
@@ -47,42 +69,68 @@ public class ProgressiveAlignment {
             int indexProfileI = 0;
             int indexProfileJ = 0;
 
-            if(Main.verbose()) {
+            if(context.verbose()) {
                 System.out.println("## start of iteration:");
                 System.out.println("number of profiles: " + profiles.size());
                 System.out.println("profiles:");
                 System.out.println(profiles + "\n");
             }
 
-            // find the Profile alignment with the highest score
-            for (int i = 0; i < profiles.size(); i++) {
-                for (int j = i + 1; j < profiles.size(); j++) {
-                    // "random sequence" picking or alternatively use consensus sequence
-                    String sequence1;
-                    String sequence2;
-
-                    sequence1 = profiles.get(i).getConsensusSequence();
-                    sequence2 = profiles.get(j).getConsensusSequence();
-
-                    int profileAlignScore = SequenceAlignment.computeAlignmentScore(sequence1, sequence2);
-
-                    if(Main.verbose()) {
-                        System.out.println("current i: " + i);
-                        System.out.println("current j: " + j);
-                        System.out.println("high-score: " + highScore);
-                        System.out.println("current score: " + profileAlignScore + "\n");
+            // find the Profile alignment with the highest score. Pairs are visited in order of their known score or score
+            // bound, the search stops once no remaining pair can beat (or tie with an earlier pair) the best score found
+            // so far. The chosen pair is the same as in a scan of all pairs: the first (i, j) with the highest score > 0.
+            try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.DISTANCE_MATRIX)) {
+                List<PairCandidate> candidates = new ArrayList<>();
+                for (int i = 0; i < consensusEntries.size(); i++) {
+                    for (int j = i + 1; j < consensusEntries.size(); j++) {
+                        long key = consensusEntries.get(i).pairKey(consensusEntries.get(j));
+                        Integer exactScore = exactScores.get(key);
+                        if (exactScore != null) {
+                            candidates.add(new PairCandidate(i, j, exactScore, true));
+                            continue;
+                        }
+                        int bound = consensusEntries.get(i).upperBound(consensusEntries.get(j), context.scoring());
+                        Integer learnedBound = scoreBounds.get(key);
+                        if (learnedBound != null) bound = Math.min(bound, learnedBound);
+                        candidates.add(new PairCandidate(i, j, bound, false));
                     }
-
-
-                    if (profileAlignScore > highScore) {
-                        highScore = profileAlignScore;
-                        indexProfileI = i;
-                        indexProfileJ = j;
+                }
+                candidates.sort(Comparator.comparingInt(PairCandidate::bound).reversed()
+                                        .thenComparingInt(PairCandidate::i).thenComparingInt(PairCandidate::j));
+
+                boolean found = false;
+                for (PairCandidate candidate : candidates) {
+                    boolean beforeBest = !found || candidate.i() < indexProfileI
+                            || (candidate.i() == indexProfileI && candidate.j() < indexProfileJ);
+                    // a score has to be > 0 and > highScore, or equal to highScore for a pair before the best one
+                    int minimumScore = found && beforeBest ? highScore : highScore + 1;
+                    // candidates are sorted by bound (ties by pair), so no later candidate can be chosen either
+                    if (candidate.bound() < minimumScore) break;
+
+                    int profileAlignScore;
+                    if (candidate.exact()) {
+                        profileAlignScore = candidate.bound();
+                    } else {
+                        ConsensusEntry entry1 = consensusEntries.get(candidate.i());
+                        ConsensusEntry entry2 = consensusEntries.get(candidate.j());
+                        profileAlignScore = SequenceAlignment.computeAlignmentScore(entry1.consensus(), entry2.consensus(),
+                                                                                    context, minimumScore);
+                        if (profileAlignScore == SequenceAlignment.BELOW_MINIMUM_SCORE) {
+                            scoreBounds.put(entry1.pairKey(entry2), minimumScore - 1);
+                            continue;
+                        }
+                        exactScores.put(entry1.pairKey(entry2), profileAlignScore);
                     }
+
+                    highScore = profileAlignScore;
+                    indexProfileI = candidate.i();
+                    indexProfileJ = candidate.j();
+                    found = true;
                 }
             }
 
-            if(Main.verbose()) {
+            if(context.verbose()) {
+                System.out.println("high-score: " + highScore);
                 System.out.println("index of highest profil I: " + indexProfileI);
                 System.out.println("index of highest profil J: " + indexProfileJ + "\n");
             }
@@ -102,50 +150,174 @@ public class ProgressiveAlignment {
 
             // Since we are allowed to choose "random" sequences as representative for a Profile, we decided to just use
             // always the first sequence since this allows us to predict the outcome better than just picking one by random!
-            profiles.add(SequenceAlignment.pairGuidedAlignment(profile1, profile2));
+            ConsensusEntry mergedEntry2 = consensusEntries.remove(Math.max(indexProfileI, indexProfileJ));
+            ConsensusEntry mergedEntry1 = consensusEntries.remove(Math.min(indexProfileI, indexProfileJ));
+            for (ConsensusEntry entry : consensusEntries) {
+                for (ConsensusEntry mergedEntry : List.of(mergedEntry1, mergedEntry2)) {
+                    exactScores.remove(entry.pairKey(mergedEntry));
+                    scoreBounds.remove(entry.pairKey(mergedEntry));
+                }
+            }
+
+            try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.PROGRESSIVE_MERGE)) {
+                Profile mergedProfile = SequenceAlignment.pairGuidedAlignment(profile1, profile2, context);
+                // the merged profiles are not needed anymore, spilled ones free their files right away
+                profile1.release();
+                profile2.release();
+                profiles.add(mergedProfile);
+                consensusEntries.add(new ConsensusEntry(nextEntryId++, mergedProfile.getConsensusSequence()));
+            }
 
-            if(Main.verbose()) System.out.println("## end of this iteration\n");
+            if(context.verbose()) System.out.println("## end of this iteration\n");
         }
 
         return profiles.getFirst();
     }
 
+    /**
+     * a pair of profiles (indices into the profile list) with its consensus alignment score (exact) or an upper bound
+     * of it (not exact)
+     */
+    private record PairCandidate(int i, int j, int bound, boolean exact) {
+    }
+
+    /**
+     * consensus sequence of a profile of the consensusMSA and the number of occurrences of each of its characters
+     * (index = char, characters above 127 share the last index)
+     */
+    private record ConsensusEntry(int id, String consensus, int[] composition) {
+
+        ConsensusEntry(int id, String consensus) {
+            this(id, consensus, new int[128]);
+            for (int k = 0; k < consensus.length(); k++) {
+                composition[Math.min(consensus.charAt(k), 127)]++;
+            }
+        }
+
+        /**
+         * @return key of the pair in the score maps, independent of the order of both entries
+         */
+        long pairKey(ConsensusEntry other) {
+            return ((long) Math.min(id, other.id) << 32) | Math.max(id, other.id);
+        }
+
+        /**
+         * @return upper bound of the alignment score of both consensus sequences, at most as many identical pairs as
+         * characters both have in common can be aligned
+         */
+        int upperBound(ConsensusEntry other, ScoringScheme scoring) {
+            int shared = 0;
+            for (int c = 0; c < composition.length; c++) {
+                shared += Math.min(composition[c], other.composition[c]);
+            }
+            return scoring.upperBound(consensus.length(), other.consensus.length(), shared);
+        }
+    }
+
     /**
      * Uses a guiding tree created by neighbour joining
      * @param profiles initial profiles from which a MSA should be computed
+     * @param context the context holding the scoring parameters
      * @return a Profile with all initial sequences aligned in a full MSA
      */
-    public static Profile neighbourJoiningGuidedMSA(LinkedList<Profile> profiles) {
-        System.out.println("treeGuidedMSA used!\n");
+    public static Profile neighbourJoiningGuidedMSA(LinkedList<Profile> profiles, AlignmentContext context) {
+        return neighbourJoiningGuidedMSA(profiles, context, Checkpoint.disabled());
+    }
 
-        NeighbourJoining nj = new NeighbourJoining(profiles);
+    /**
+     * Uses a guiding tree created by neighbour joining, restores finished work from the checkpoint and records
+     * the progress of distance matrix, tree and progressive phase in it
+     * @param profiles initial profiles from which a MSA should be computed
+     * @param context the context holding the scoring parameters
+     * @param checkpoint the checkpoint of this job
+     * @return a Profile with all initial sequences aligned in a full MSA
+     */
+    public static Profile neighbourJoiningGuidedMSA(LinkedList<Profile> profiles, AlignmentContext context, Checkpoint checkpoint) {
+        if (context.verbose()) System.out.println("treeGuidedMSA used!\n");
+
+        NeighbourJoining nj = new NeighbourJoining(profiles, context, checkpoint);
         NeighbourJoining.Node guidingTreeRoot = nj.runAlgorithm();
 
-        return alignProfilesAtNodeRec(guidingTreeRoot);
+        return alignAlongGuideTree(guidingTreeRoot, context, checkpoint);
     }
 
     /**
-     * recursively aligns Profiles along a guiding Tree
-     * @param node root node of guide tree in initial call, child nodes in recursive calls
-     * @return profiles align from booth child nodes
+     * Uses a guiding tree created by recursive k-mer partitioning ({@link PartTree}), which avoids the all pairs
+     * distance matrix of neighbour joining for very many sequences
+     * @param profiles initial profiles from which a MSA should be computed
+     * @param context the context holding the scoring parameters
+     * @return a Profile with all initial sequences aligned in a full MSA
      */
-    private static Profile alignProfilesAtNodeRec(NeighbourJoining.Node node) {
+    public static Profile partTreeGuidedMSA(LinkedList<Profile> profiles, AlignmentContext context) {
+        if (context.verbose()) System.out.println("partTreeGuidedMSA used!\n");
 
-        // if both childs have a Profile, just do Profile Alignment
-        if (node.getChildNode1().hasProfile() && node.getChildNode2().hasProfile()) {
-            return SequenceAlignment.pairGuidedAlignment(node.getChildNode1().getProfile(), node.getChildNode1().getProfile());
+        return alignAlongGuideTree(PartTree.build(profiles, context), context);
+    }
 
-        // if child1 has profile but child2 not, recurse on child 2 in alignment method
-        } else if (node.getChildNode1().hasProfile() && !node.getChildNode2().hasProfile()) {
-            return SequenceAlignment.pairGuidedAlignment(node.getChildNode1().getProfile(), alignProfilesAtNodeRec(node.getChildNode2()));
+    /**
+     * runs the progressive phase on an already built guiding tree
+     * @param guidingTreeRoot root node of the guiding tree (e.g. from {@link NeighbourJoining#runAlgorithm()})
+     * @param context the context holding the scoring parameters
+     * @return a Profile with all sequences of the tree aligned in a full MSA
+     */
+    public static Profile alignAlongGuideTree(NeighbourJoining.Node guidingTreeRoot, AlignmentContext context) {
+        return alignAlongGuideTree(guidingTreeRoot, context, Checkpoint.disabled());
+    }
 
-        // if child1 has NO profile but child2 has one, recurse in child1
-        } else if (!node.getChildNode1().hasProfile() && node.getChildNode2().hasProfile()) {
-            return SequenceAlignment.pairGuidedAlignment(alignProfilesAtNodeRec(node.getChildNode1()), node.getChildNode2().getProfile());
+    /**
+     * runs the progressive phase on an already built (or imported, see {@link Newick}) guiding tree, restores
+     * completed subtrees from the checkpoint and records newly completed ones in it
+     * @param guidingTreeRoot root node of the guiding tree
+     * @param context the context holding the scoring parameters
+     * @param checkpoint the checkpoint of this job
+     * @return a Profile with all sequences of the tree aligned in a full MSA
+     * @throws IllegalArgumentException if the checkpoint was written for a different guiding tree
+     */
+    public static Profile alignAlongGuideTree(NeighbourJoining.Node guidingTreeRoot, AlignmentContext context, Checkpoint checkpoint) {
+        checkpoint.guidingTreeUsed(guidingTreeRoot);
+        try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.PROGRESSIVE_MERGE)) {
+            return alignProfilesAtNodeRec(guidingTreeRoot, context, checkpoint);
+        }
+    }
 
-        // if booth children have no profile, recurse on booth
+    /**
+     * recursively aligns Profiles along a guiding Tree
+     * @param node root node of guide tree in initial call, child nodes in recursive calls
+     * @param context the context holding the scoring parameters
+     * @param checkpoint provides subtrees completed in an earlier run and records newly completed ones
+     * @return profiles align from booth child nodes
+     */
+    private static Profile alignProfilesAtNodeRec(NeighbourJoining.Node node, AlignmentContext context, Checkpoint checkpoint) {
+
+        // leaves (and subtrees aligned by another process) hold their own profile
+        if (node.hasProfile()) return node.getProfile();
+
+        // subtree was already aligned before the last checkpoint
+        Profile restoredProfile = checkpoint.getCompletedSubtree(node);
+        if (restoredProfile != null) return restoredProfile;
+
+        NeighbourJoining.Node firstChild;
+        NeighbourJoining.Node secondChild;
+        if (!node.getChildNode1().isLeaf() && !node.getChildNode2().isLeaf()) {
+            // if booth children are inner nodes, recurse on booth (decided by the tree shape, so subtrees aligned
+            // elsewhere and set on their node give the same order)
+            firstChild = node.getChildNode2();
+            secondChild = node.getChildNode1();
         } else {
-            return SequenceAlignment.pairGuidedAlignment(alignProfilesAtNodeRec(node.getChildNode2()), alignProfilesAtNodeRec(node.getChildNode1()));
+            // otherwise the leaf is used directly and the other child is recursed on
+            firstChild = node.getChildNode1();
+            secondChild = node.getChildNode2();
         }
+        Profile firstProfile = alignProfilesAtNodeRec(firstChild, context, checkpoint);
+        Profile secondProfile = alignProfilesAtNodeRec(secondChild, context, checkpoint);
+        Profile profile = SequenceAlignment.pairGuidedAlignment(firstProfile, secondProfile, context);
+
+        // intermediate profiles are not needed anymore, spilled ones free their files right away (profiles held by
+        // the nodes themselves are kept)
+        if (!firstChild.hasProfile()) firstProfile.release();
+        if (!secondChild.hasProfile()) secondProfile.release();
+
+        checkpoint.subtreeCompleted(node, profile);
+        return profile;
     }
-}
\ No newline at end of file
+}
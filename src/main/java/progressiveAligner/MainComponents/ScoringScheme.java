@@ -0,0 +1,63 @@
+package progressiveAligner.MainComponents;
+
+/**
+ * Immutable scoring parameters of the pairwise alignments.
+ *
+ * @param matchScore score added for two identical characters (also two gaps)
+ * @param mismatchScore score added for two different residues
+ * @param gapPenalty penalty subtracted for a gap, the sign is ignored (stored as positive value)
+ */
+public record ScoringScheme(int matchScore, int mismatchScore, int gapPenalty) {
+
+    /**
+     * the default scoring of the command line interface
+     */
+    public static final ScoringScheme DEFAULT = new ScoringScheme(4, 2, 1);
+
+    public ScoringScheme {
+        gapPenalty = Math.abs(gapPenalty);
+    }
+
+    /**
+     * scores two aligned characters of which one or both may be a gap character '-'
+     * @param a character of the first sequence
+     * @param b character of the second sequence
+     * @return matchScore for identical characters, -gapPenalty if only one of them is a gap, mismatchScore otherwise
+     */
+    public int score(char a, char b) {
+        return a == b ? matchScore : (a == '-' || b == '-' ? -gapPenalty : mismatchScore);
+    }
+
+    /**
+     * upper bound of the global alignment score of two sequences with the given lengths
+     * @param length1 length of the first sequence
+     * @param length2 length of the second sequence
+     * @return a score no alignment of such sequences can exceed
+     */
+    public int upperBound(int length1, int length2) {
+        return upperBound(length1, length2, Math.min(length1, length2));
+    }
+
+    /**
+     * upper bound of the global alignment score of two sequences with the given lengths of which at most maxMatches
+     * columns can be identical (e.g. the shared character composition of both)
+     * @param length1 length of the first sequence
+     * @param length2 length of the second sequence
+     * @param maxMatches upper bound of the number of identical aligned pairs
+     * @return a score no alignment of such sequences can exceed
+     */
+    public int upperBound(int length1, int length2, int maxMatches) {
+        // an alignment with d aligned pairs has length1 + length2 - 2d gap columns, its score is piecewise linear in d,
+        // so the maximum is taken at d = 0, d = maxMatches or d = min(length1, length2)
+        int maxPairs = Math.min(length1, length2);
+        int matches = Math.min(maxMatches, maxPairs);
+        int otherPairScore = Math.max(mismatchScore, -gapPenalty);
+        int bestPairScore = Math.max(matchScore, otherPairScore);
+
+        long onlyGaps = -(long) (length1 + length2) * gapPenalty;
+        long untilMatches = (long) matches * bestPairScore - (long) (length1 + length2 - 2 * matches) * gapPenalty;
+        long allPairs = (long) matches * bestPairScore + (long) (maxPairs - matches) * otherPairScore
+                - (long) (length1 + length2 - 2 * maxPairs) * gapPenalty;
+        return (int) Math.max(onlyGaps, Math.max(untilMatches, allPairs));
+    }
+}
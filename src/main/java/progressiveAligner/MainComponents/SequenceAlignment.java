@@ -1,8 +1,7 @@
 package progressiveAligner.MainComponents;
 
-import progressiveAligner.Main;
-
-import java.util.ArrayList;
+import progressiveAligner.ToolClasses.JfrEvents;
+import progressiveAligner.ToolClasses.Metrics;
 
 /**
  * Implements methods for sequence alignment.
@@ -11,82 +10,134 @@ public class SequenceAlignment {
 
     /**
      * Adapted version of the Needleman-Wunsch algorithm to compute optimal global sequence alignments of sequences that may already contain gaps.
+     * The traceback follows directions recorded during the fill, see {@link PackedTraceback}.
      *
      * @param sequence1     The first sequence to align.
      * @param sequence2     The second sequence to align.
+     * @param scoring       The scoring parameters of the alignment.
+     * @param parallel      If true, the matrix is filled on all cores (see {@link WavefrontFill}).
      * @return An {@link AlignedSequences} record that stores the aligned sequences, their score and novel gaps inserted.
      */
-    private static AlignedSequences adaptedNeedlemanWunsch(String sequence1, String sequence2) {
-
-        int[][] dpMatrix = calculateDPmatrix(sequence1, sequence2);
-
-        // Run traceback.
-        StringBuilder alignedSequenceBuilder1 = new StringBuilder();
-        StringBuilder alignedSequenceBuilder2 = new StringBuilder();
-        ArrayList<Integer> gapsAlignedSequence1 = new ArrayList<>();
-        ArrayList<Integer> gapsAlignedSequence2 = new ArrayList<>();
-        int i = sequence1.length();
-        int j = sequence2.length();
-        int score = dpMatrix[i][j];
-        while (i > 0 || j > 0) {
-            if (i > 0 && j > 0 && dpMatrix[i][j] == (dpMatrix[i - 1][j - 1] + (sequence1.charAt(i - 1) == sequence2.charAt(j - 1) ? Main.matchScore : (sequence1.charAt(i - 1) == '-' || sequence2.charAt(j - 1) == '-' ? -Main.gapPenalty : Main.mismatchScore)))) {
-                alignedSequenceBuilder1.insert(0, sequence1.charAt(i - 1));
-                alignedSequenceBuilder2.insert(0, sequence2.charAt(j - 1));
-                i--;
-                j--;
-            } else if (j > 0 && dpMatrix[i][j] == (dpMatrix[i][j - 1] - Main.gapPenalty)) {
-                alignedSequenceBuilder1.insert(0, "-");
-                alignedSequenceBuilder2.insert(0, sequence2.charAt(j - 1));
-                gapsAlignedSequence1.add(0, j - 1);
-                j--;
-            } else if (i > 0 && dpMatrix[i][j] == (dpMatrix[i - 1][j] - Main.gapPenalty)) {
-                alignedSequenceBuilder1.insert(0, sequence1.charAt(i - 1));
-                alignedSequenceBuilder2.insert(0, "-");
-                gapsAlignedSequence2.add(0, i - 1);
-                i--;
-            }
-        }
-        // Return aligned sequences.
-        return new AlignedSequences(alignedSequenceBuilder1.toString(), alignedSequenceBuilder2.toString(), score, gapsAlignedSequence1, gapsAlignedSequence2);
+    private static AlignedSequences adaptedNeedlemanWunsch(String sequence1, String sequence2, ScoringScheme scoring,
+                                                           boolean parallel) {
+        return PackedTraceback.align(sequence1, sequence2, scoring, parallel);
     }
 
     /**
-     * calculates the dpMatrix of to sequences
-     * @param sequence1 the first sequence to align with the second
-     * @param sequence2 the second sequence to align with the first
-     * @return the dpMatrix int[][]
+     * computes an optimal global alignment of two sequences with the engine chosen by the planner of the context
+     * (see {@link AlignmentPlanner}). If the context is verbose, plans that depart from the default engine
+     * ({@link AlignmentPlanner.Engine#PACKED}) are printed, so large inputs do not print one line per alignment
+     * @param sequence1 first sequence
+     * @param sequence2 second sequence
+     * @param context the context holding the scoring parameters
+     * @return the aligned sequences and their score
      */
-    public static int[][] calculateDPmatrix(String sequence1, String sequence2) {
-        // Initialize the DP matrix.
-        int[][] dpMatrix = new int[sequence1.length() + 1][sequence2.length() + 1];
-        for (int i = 0; i <= sequence1.length(); i++) {
-            dpMatrix[i][0] = i * -Main.gapPenalty;
-        }
-        for (int j = 0; j <= sequence2.length(); j++) {
-            dpMatrix[0][j] = dpMatrix[0][j] = j * -Main.gapPenalty;
-        }
-        // Fill the DP matrix.
-        for (int i = 1; i <= sequence1.length(); i++) {
-            for (int j = 1; j <= sequence2.length(); j++) {
-                dpMatrix[i][j] = Math.max(dpMatrix[i - 1][j] - Main.gapPenalty,
-                                          Math.max(dpMatrix[i][j - 1] - Main.gapPenalty, dpMatrix[i - 1][j - 1] +
-                                                  (sequence1.charAt(i - 1) == sequence2.charAt(j - 1) ? Main.matchScore : (sequence1.charAt(i - 1) == '-' || sequence2.charAt(j - 1) == '-' ? -Main.gapPenalty : Main.mismatchScore))));
-            }
-        }
-
-        return dpMatrix;
+    public static AlignedSequences alignSequences(String sequence1, String sequence2, AlignmentContext context) {
+        AlignmentPlanner.Plan plan = context.planner().planAlignment(sequence1, sequence2, context);
+        if (context.verbose() && plan.engine() != AlignmentPlanner.Engine.PACKED) System.out.println("alignment plan: " + plan);
+
+        return switch (plan.engine()) {
+            case ANCHORED -> AnchoredAlignment.align(sequence1, sequence2, plan.seedLength(), context.scoring(), context.planner());
+            case WAVEFRONT -> adaptedNeedlemanWunsch(sequence1, sequence2, context.scoring(), true);
+            default -> adaptedNeedlemanWunsch(sequence1, sequence2, context.scoring(), false);
+        };
     }
 
     // TODO: add advanced Profile-Profile alignment (e.g. using sum-of-Pair scoring)
 
     /**
-     * calculates the alignmentScore by using a dpMatrix and calling the lowest right entry
+     * returned by {@link #computeAlignmentScore(String, String, AlignmentContext, int)} if the score is certainly
+     * lower than the requested minimum
+     */
+    public static final int BELOW_MINIMUM_SCORE = Integer.MIN_VALUE;
+
+    // rows between two checks whether the minimum score can still be reached
+    private static final int CUTOFF_CHECK_INTERVAL = 16;
+
+    /**
+     * calculates the alignmentScore by filling the dp matrix row by row and returning the lowest right entry
      * @param sequence1 first sequence to compute the alignmentScore for alignment with second sequence
      * @param sequence2 second sequence to compute the alignment score for alignment with first sequence
+     * @param context the context holding the scoring parameters
      * @return the alignmentScore of two sequences
      */
-    public static int computeAlignmentScore(String sequence1, String sequence2) {
-        return calculateDPmatrix(sequence1, sequence2)[sequence1.length()][sequence2.length()];
+    public static int computeAlignmentScore(String sequence1, String sequence2, AlignmentContext context) {
+        AlignmentPlanner.Plan plan = context.planner().planScore(sequence1, sequence2, context);
+        if (plan.engine() == AlignmentPlanner.Engine.ANCHORED) {
+            return AnchoredAlignment.align(sequence1, sequence2, plan.seedLength(), context.scoring(), context.planner()).alignmentScore();
+        }
+        return computeAlignmentScore(sequence1, sequence2, context, BELOW_MINIMUM_SCORE);
+    }
+
+    /**
+     * calculates the alignmentScore like {@link #computeAlignmentScore(String, String, AlignmentContext)}, but stops
+     * as soon as no path through the current row can reach the minimum score anymore (each cell plus the upper bound
+     * of the remaining suffixes, see {@link ScoringScheme#upperBound(int, int)}). Scores that reach the minimum are
+     * always exact.
+     * @param sequence1 first sequence to compute the alignmentScore for alignment with second sequence
+     * @param sequence2 second sequence to compute the alignment score for alignment with first sequence
+     * @param context the context holding the scoring parameters
+     * @param minimumScore the lowest score the caller is interested in
+     * @return the alignmentScore of two sequences or {@link #BELOW_MINIMUM_SCORE} if it is lower than minimumScore
+     */
+    public static int computeAlignmentScore(String sequence1, String sequence2, AlignmentContext context, int minimumScore) {
+        ScoringScheme scoring = context.scoring();
+        final int matchScore = scoring.matchScore();
+        final int mismatchScore = scoring.mismatchScore();
+        final int gapPenalty = scoring.gapPenalty();
+        final int rows = sequence1.length();
+        final int columns = sequence2.length();
+        final boolean cutoff = minimumScore != BELOW_MINIMUM_SCORE;
+
+        long dpStart = Metrics.startDP();
+        JfrEvents.PairwiseAlignmentEvent event = JfrEvents.beginPairwiseAlignment(rows, columns);
+
+        DPWorkspace workspace = DPWorkspace.current();
+        int[] previousRow = workspace.row(0, columns + 1);
+        int[] currentRow = workspace.row(1, columns + 1);
+        for (int j = 0; j <= columns; j++) {
+            previousRow[j] = j * -gapPenalty;
+        }
+
+        int filledRows = 0;
+        boolean abandoned = false;
+        for (int i = 1; i <= rows; i++) {
+            char a = sequence1.charAt(i - 1);
+            currentRow[0] = i * -gapPenalty;
+            for (int j = 1; j <= columns; j++) {
+                char b = sequence2.charAt(j - 1);
+                currentRow[j] = Math.max(previousRow[j] - gapPenalty,
+                                         Math.max(currentRow[j - 1] - gapPenalty, previousRow[j - 1] +
+                                                 (a == b ? matchScore : (a == '-' || b == '-' ? -gapPenalty : mismatchScore))));
+            }
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+            filledRows = i;
+
+            // every path to the last cell passes through this row
+            if (cutoff && i % CUTOFF_CHECK_INTERVAL == 0 && i < rows && !canReach(previousRow, columns, rows - i, scoring, minimumScore)) {
+                abandoned = true;
+                break;
+            }
+        }
+
+        Metrics.recordDP(dpStart, (long) filledRows * columns);
+        if (event != null) event.commit();
+
+        if (abandoned) return BELOW_MINIMUM_SCORE;
+        int score = previousRow[columns];
+        return cutoff && score < minimumScore ? BELOW_MINIMUM_SCORE : score;
+    }
+
+    /**
+     * @return true if some cell of the row plus the best possible score of the remaining suffixes reaches the minimum
+     */
+    private static boolean canReach(int[] row, int columns, int remainingRows, ScoringScheme scoring, int minimumScore) {
+        for (int j = 0; j <= columns; j++) {
+            if ((long) row[j] + scoring.upperBound(remainingRows, columns - j) >= minimumScore) return true;
+        }
+        return false;
     }
 
     /**
@@ -94,9 +145,13 @@ public class SequenceAlignment {
      * (including propagation of the gap inside the Profile)
      * @param profileI Profile in which sequence in position i should be aligned.
      * @param profileJ Profile in which sequence in position j should be aligned.
+     * @param context the context holding the scoring parameters and the storage policy of the combined profile
      * @return combined profile of ProfileI and ProfileJ after alignment.
      */
-    public static Profile pairGuidedAlignment(Profile profileI, Profile profileJ) {
+    public static Profile pairGuidedAlignment(Profile profileI, Profile profileJ, AlignmentContext context) {
+
+        JfrEvents.ProfileMergeEvent event = new JfrEvents.ProfileMergeEvent();
+        event.begin();
 
         String sequence_i;
         String sequence_j;
@@ -104,19 +159,32 @@ public class SequenceAlignment {
         sequence_i = profileI.getConsensusSequence();
         sequence_j = profileJ.getConsensusSequence();
 
-        AlignedSequences alignmentOutput = adaptedNeedlemanWunsch(sequence_i, sequence_j);
+        AlignedSequences alignmentOutput = alignSequences(sequence_i, sequence_j, context);
+
+        Profile combinedProfile = Profile.combineProfiles(profileI, profileJ,
+                                                          alignmentOutput.gapsAlignedSequence1(),
+                                                          alignmentOutput.gapsAlignedSequence2(),
+                                                          context.profileStorage());
+
+        if (event.shouldCommit()) {
+            event.depth1 = profileI.getSequenceList().size();
+            event.depth2 = profileJ.getSequenceList().size();
+            event.columns = alignmentOutput.alignedSequence1().length();
+            event.gapsInserted1 = alignmentOutput.gapsAlignedSequence1().length;
+            event.gapsInserted2 = alignmentOutput.gapsAlignedSequence2().length;
+            event.commit();
+        }
 
-        return  Profile.combineProfiles(profileI, profileJ,
-                                        alignmentOutput.gapsAlignedSequence1(),
-                                        alignmentOutput.gapsAlignedSequence2());
+        return combinedProfile;
     }
 
     /**
-     * Stores the results of pairwise sequence alignment.
+     * Stores the results of pairwise sequence alignment. The gaps are the column indices (ascending) at which gaps
+     * were inserted into each sequence.
      */
-    private record AlignedSequences(String alignedSequence1, String alignedSequence2, int alignmentScore,
-                                   ArrayList<Integer> gapsAlignedSequence1,
-                                   ArrayList<Integer> gapsAlignedSequence2) {
+    public record AlignedSequences(String alignedSequence1, String alignedSequence2, int alignmentScore,
+                                   int[] gapsAlignedSequence1,
+                                   int[] gapsAlignedSequence2) {
     }
 
 }
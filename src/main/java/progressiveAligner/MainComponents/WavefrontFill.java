@@ -0,0 +1,90 @@
+package progressiveAligner.MainComponents;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel fill of one large {@link PackedTraceback} matrix, so the few huge profile-profile alignments at the top of
+ * the guiding tree do not run on a single core while all others idle.
+ * <p>
+ * The matrix is cut into tiles of {@value #TILE_SIZE} x {@value #TILE_SIZE} cells (a multiple of 32, so every tile
+ * writes whole words of the packed direction matrix). A tile only depends on the tile above, the tile to the left
+ * and the corner cell diagonally above left, so all tiles of one anti-diagonal are independent and are filled in
+ * parallel on the common fork-join pool, anti-diagonal after anti-diagonal.
+ * <p>
+ * The boundaries between tiles are kept in three arrays: a horizontal one (last row of the tile above, for each
+ * column), a vertical one (last column of the tile to the left, for each row) and the corner values per tile row.
+ * A tile overwrites the part of the horizontal array above it with its own last row, so before doing this it saves
+ * the value above its last column as corner of its right neighbour. The result is identical to the sequential fill.
+ */
+public class WavefrontFill {
+
+    /**
+     * edge length of a tile in cells
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * matrices with fewer cells are filled sequentially
+     */
+    public static final long MIN_CELLS = 16_000_000L;
+
+    /**
+     * @return true if a matrix of this size is large enough and more than one core is available
+     */
+    static boolean isWorthwhile(int rows, int columns) {
+        return (long) rows * columns >= MIN_CELLS && rows >= 2 * TILE_SIZE && columns >= 2 * TILE_SIZE
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * fills the score matrix tile by tile and records the direction of each cell
+     * @param sequence1 the first sequence (rows)
+     * @param sequence2 the second sequence (columns)
+     * @param scoring the scoring parameters of the alignment
+     * @param directions the packed direction matrix to fill, not taken from the {@link DPWorkspace} of the caller,
+     *                   which may run other alignments while it waits for the tiles
+     * @param stride row stride of the direction matrix in cells
+     * @return the score of the last cell
+     */
+    static int fill(String sequence1, String sequence2, ScoringScheme scoring, long[] directions, int stride) {
+        final int rows = sequence1.length();
+        final int columns = sequence2.length();
+        final int gapPenalty = scoring.gapPenalty();
+        final int tileRows = (rows + TILE_SIZE - 1) / TILE_SIZE;
+        final int tileColumns = (columns + TILE_SIZE - 1) / TILE_SIZE;
+
+        int[] horizontal = new int[columns + 1];
+        int[] vertical = new int[rows + 1];
+        int[][] corners = new int[tileRows][tileColumns];
+        for (int j = 0; j <= columns; j++) horizontal[j] = j * -gapPenalty;
+        for (int i = 0; i <= rows; i++) vertical[i] = i * -gapPenalty;
+        for (int tileColumn = 0; tileColumn < tileColumns; tileColumn++) corners[0][tileColumn] = tileColumn * TILE_SIZE * -gapPenalty;
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) corners[tileRow][0] = tileRow * TILE_SIZE * -gapPenalty;
+
+        for (int antiDiagonal = 0; antiDiagonal < tileRows + tileColumns - 1; antiDiagonal++) {
+            final int diagonal = antiDiagonal;
+            int firstTileRow = Math.max(0, diagonal - tileColumns + 1);
+            int lastTileRow = Math.min(tileRows - 1, diagonal);
+
+            IntStream.rangeClosed(firstTileRow, lastTileRow).parallel().forEach(tileRow -> {
+                int tileColumn = diagonal - tileRow;
+                int rowFrom = tileRow * TILE_SIZE;
+                int rowTo = Math.min(rows, rowFrom + TILE_SIZE);
+                int columnFrom = tileColumn * TILE_SIZE;
+                int columnTo = Math.min(columns, columnFrom + TILE_SIZE);
+
+                // the value above the last column is the corner of the right neighbour and is overwritten by this tile
+                if (tileColumn + 1 < tileColumns && tileRow > 0) corners[tileRow][tileColumn + 1] = horizontal[columnTo];
+
+                // a tile does not wait for other tasks, so it can use the row buffers of the worker running it
+                DPWorkspace workspace = DPWorkspace.current();
+                PackedTraceback.fillTile(sequence1, sequence2, scoring, rowFrom, rowTo, columnFrom, columnTo,
+                                         corners[tileRow][tileColumn], horizontal, vertical, directions, stride,
+                                         workspace.row(0, TILE_SIZE + 1), workspace.row(1, TILE_SIZE + 1));
+            });
+        }
+
+        return horizontal[columns];
+    }
+}
@@ -0,0 +1,138 @@
+package progressiveAligner;
+
+import progressiveAligner.MainComponents.AlignmentContext;
+import progressiveAligner.MainComponents.IncrementalAlignment;
+import progressiveAligner.MainComponents.Profile;
+import progressiveAligner.MainComponents.ProgressiveAlignment;
+import progressiveAligner.MainComponents.ScoringScheme;
+import progressiveAligner.ToolClasses.Fasta;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Library entry point of the progressive aligner.
+ * <p>
+ * An instance only holds its immutable {@link AlignmentContext} and every call works on its own profiles, so one
+ * aligner can be shared between threads and aligners with different scoring can run concurrently in one JVM:
+ * <pre>
+ * MultipleSequenceAligner aligner = new MultipleSequenceAligner(AlignmentContext.of(new ScoringScheme(4, 2, 1)));
+ * Profile msa = aligner.align(sequences, MultipleSequenceAligner.Method.NEIGHBOUR_JOINING);
+ * </pre>
+ */
+public class MultipleSequenceAligner {
+
+    /**
+     * the strategies that decide in which order profiles are aligned
+     */
+    public enum Method {
+        /**
+         * align the pair of profiles with the best consensus alignment score next
+         */
+        CONSENSUS,
+        /**
+         * align along a guiding tree built by Neighbour Joining
+         */
+        NEIGHBOUR_JOINING,
+        /**
+         * align along a guiding tree built by recursive k-mer partitioning
+         * ({@link progressiveAligner.MainComponents.PartTree}), for very many sequences
+         */
+        PART_TREE;
+
+        /**
+         * @param name full or short name of the matching CLI command ("Consensus" / "c", "NeighbourJoining" / "nj", "PartTree" / "pt")
+         * @return the matching method
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Method fromCommandName(String name) throws IllegalArgumentException {
+            return switch (name) {
+                case "nj", "NeighbourJoining" -> NEIGHBOUR_JOINING;
+                case "c", "Consensus" -> CONSENSUS;
+                case "pt", "PartTree" -> PART_TREE;
+                default -> throw new IllegalArgumentException("unknown method: " + name);
+            };
+        }
+    }
+
+    private final AlignmentContext context;
+
+    /**
+     * @param context the settings used for every alignment of this aligner
+     */
+    public MultipleSequenceAligner(AlignmentContext context) {
+        if (context == null) throw new IllegalArgumentException("context must not be null!");
+        this.context = context;
+    }
+
+    /**
+     * @param scoring the scoring used for every alignment of this aligner
+     */
+    public MultipleSequenceAligner(ScoringScheme scoring) {
+        this(AlignmentContext.of(scoring));
+    }
+
+    /**
+     * @return the context used by this aligner
+     */
+    public AlignmentContext getContext() {
+        return context;
+    }
+
+    /**
+     * computes the MSA of the given sequences
+     * @param sequences at least 2 unaligned sequences
+     * @param method strategy deciding the order of the profile-profile alignments
+     * @return a profile holding all sequences aligned
+     * @throws IllegalArgumentException if less than 2 sequences are given
+     */
+    public Profile align(List<String> sequences, Method method) throws IllegalArgumentException {
+        if (sequences.size() < 2) throw new IllegalArgumentException("at least 2 sequences are needed for a MSA!");
+
+        LinkedList<Profile> profiles = new LinkedList<>();
+        for (String sequence : sequences) {
+            profiles.add(new Profile(sequence));
+        }
+        return alignProfiles(profiles, method);
+    }
+
+    /**
+     * computes the MSA of all sequences of a FASTA file
+     * @param fastaPath path to a FASTA file with at least 2 sequences
+     * @param method strategy deciding the order of the profile-profile alignments
+     * @return a profile holding all sequences aligned
+     */
+    public Profile alignFasta(String fastaPath, Method method) {
+        return alignProfiles(ProgressiveAlignment.parseProfileListFromFasta(fastaPath), method);
+    }
+
+    /**
+     * computes the MSA of already parsed FASTA entries
+     * @param fastaEntries at least 2 {@link Fasta} entries
+     * @param method strategy deciding the order of the profile-profile alignments
+     * @return a profile holding all sequences aligned
+     * @throws IllegalArgumentException if less than 2 entries are given
+     */
+    public Profile alignFastaEntries(List<Fasta> fastaEntries, Method method) throws IllegalArgumentException {
+        return align(fastaEntries.stream().map(Fasta::sequence).toList(), method);
+    }
+
+    /**
+     * adds sequences to an existing alignment without realigning it, see {@link IncrementalAlignment}
+     * @param alignment the existing alignment (not modified)
+     * @param sequences the unaligned sequences to add
+     * @return a new profile holding the rows of the alignment followed by the added sequences
+     */
+    public Profile addToAlignment(Profile alignment, List<String> sequences) {
+        List<Profile> newSequences = sequences.stream().map(Profile::new).toList();
+        return IncrementalAlignment.addSequences(alignment, newSequences, context);
+    }
+
+    private Profile alignProfiles(LinkedList<Profile> profiles, Method method) {
+        return switch (method) {
+            case CONSENSUS -> ProgressiveAlignment.consensusMSA(profiles, context);
+            case NEIGHBOUR_JOINING -> ProgressiveAlignment.neighbourJoiningGuidedMSA(profiles, context);
+            case PART_TREE -> ProgressiveAlignment.partTreeGuidedMSA(profiles, context);
+        };
+    }
+}
@@ -0,0 +1,251 @@
+package progressiveAligner.RunModes;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import progressiveAligner.MainComponents.AlignmentContext;
+import progressiveAligner.MainComponents.Profile;
+import progressiveAligner.MainComponents.ScoringScheme;
+import progressiveAligner.MultipleSequenceAligner;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.FastaIO;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running alignment daemon. Jobs are posted over HTTP to the loopback interface and run on a bounded worker
+ * pool inside one JVM, so the JIT compiled DP kernels stay warm across jobs.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *   <li>{@code POST /align} - runs one job. The query may contain {@code method} ({@code nj} (default), {@code pt} or {@code c}),
+ *       {@code matchScore}, {@code misMatchScore}, {@code gapPenalty} and {@code fastaPath}. Without
+ *       {@code fastaPath} the request body has to hold the sequences in FASTA format. {@code fastaPath} is resolved
+ *       against the FASTA root directory of the server and may not leave it, without a root directory it is rejected.
+ *       Invalid jobs are answered with {@code 400}. The response streams the aligned sequences followed by the match
+ *       line as plain text.</li>
+ *   <li>{@code GET /status} - queued, running, completed and rejected jobs.</li>
+ * </ul>
+ * If all workers are busy and the queue is full the job is rejected with {@code 503} (back-pressure), clients are
+ * expected to retry later.
+ */
+public class AlignmentServer {
+
+    private final HttpServer httpServer;
+    private final ThreadPoolExecutor workers;
+    private final AlignmentContext defaultContext;
+    private final Path fastaRoot;
+    private final AtomicLong completedJobs = new AtomicLong();
+    private final AtomicLong failedJobs = new AtomicLong();
+    private final AtomicLong rejectedJobs = new AtomicLong();
+
+    /**
+     * creates the server, it does not accept connections until {@link #start()} is called
+     * @param port port on the loopback interface to listen on
+     * @param workerCount number of jobs aligned in parallel
+     * @param queueCapacity number of jobs that may wait for a worker before new jobs are rejected
+     * @param defaultContext context used for all parameters a job does not specify itself
+     * @param fastaRoot directory the {@code fastaPath} of a job has to lie in, or null to only accept sequences in
+     *                  the request body
+     * @throws IOException if the port can not be bound or fastaRoot can not be resolved
+     */
+    public AlignmentServer(int port, int workerCount, int queueCapacity, AlignmentContext defaultContext,
+                           Path fastaRoot) throws IOException {
+        if (workerCount < 1 || queueCapacity < 1) throw new IllegalArgumentException("workers and queue capacity must be positive!");
+        if (fastaRoot != null && !Files.isDirectory(fastaRoot)) throw new IllegalArgumentException(fastaRoot + " is no directory!");
+        this.defaultContext = defaultContext;
+        // resolved once, symbolic links included, so the prefix check of a job compares real paths
+        this.fastaRoot = fastaRoot == null ? null : fastaRoot.toRealPath();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                                              new ArrayBlockingQueue<>(queueCapacity),
+                                              new ThreadPoolExecutor.AbortPolicy());
+        this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // the request threads only parse and enqueue, the alignments themselves run on the worker pool
+        this.httpServer.setExecutor(Executors.newCachedThreadPool());
+        this.httpServer.createContext("/align", this::handleAlign);
+        this.httpServer.createContext("/status", this::handleStatus);
+    }
+
+    /**
+     * starts accepting jobs and registers a shutdown hook that drains the worker pool
+     */
+    public void start() {
+        httpServer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        System.out.println("alignment server listening on http://" + httpServer.getAddress().getHostString() + ":"
+                                   + httpServer.getAddress().getPort());
+    }
+
+    /**
+     * stops accepting jobs and waits (at most one minute) for the running ones
+     */
+    public void stop() {
+        httpServer.stop(0);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * parses the job and hands it to the worker pool, which answers the exchange once the job is done
+     */
+    private void handleAlign(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "only POST is supported\n");
+            return;
+        }
+
+        Job job;
+        try {
+            job = parseJob(exchange);
+        } catch (RuntimeException e) {
+            // every job that can not be parsed is the client's fault, FastaIO wraps read errors of the file
+            respond(exchange, 400, (e instanceof IllegalArgumentException ? e.getMessage() : "the FASTA can not be read: " + e.getCause()) + "\n");
+            return;
+        }
+
+        try {
+            workers.execute(() -> runJob(exchange, job));
+        } catch (RejectedExecutionException e) {
+            rejectedJobs.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            respond(exchange, 503, "all workers are busy and the queue is full, retry later\n");
+        }
+    }
+
+    /**
+     * aligns the job on a worker thread and streams the result back
+     */
+    private void runJob(HttpExchange exchange, Job job) {
+        try {
+            Profile result = new MultipleSequenceAligner(job.context()).alignFastaEntries(job.fastaEntries(), job.method());
+
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0); // chunked
+            try (PrintStream out = new PrintStream(exchange.getResponseBody(), false, StandardCharsets.UTF_8)) {
+                result.writeProfile(out);
+            }
+            completedJobs.incrementAndGet();
+        } catch (IOException e) {
+            // client went away, nothing left to answer
+            failedJobs.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedJobs.incrementAndGet();
+            try {
+                respond(exchange, 500, "alignment failed: " + e.getMessage() + "\n");
+            } catch (IOException ignored) {
+                // client went away
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        String status = "{\"queued\": " + workers.getQueue().size()
+                + ", \"running\": " + workers.getActiveCount()
+                + ", \"completed\": " + completedJobs.get()
+                + ", \"failed\": " + failedJobs.get()
+                + ", \"rejected\": " + rejectedJobs.get() + "}\n";
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        respond(exchange, 200, status);
+    }
+
+    /**
+     * reads query and body of an /align request
+     * @throws IllegalArgumentException if a parameter is invalid, the FASTA can not be found or less than 2 sequences
+     *                                  are given
+     * @throws RuntimeException if reading the FASTA fails
+     */
+    private Job parseJob(HttpExchange exchange) throws IOException, IllegalArgumentException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+        ScoringScheme defaults = defaultContext.scoring();
+        ScoringScheme scoring = new ScoringScheme(intParameter(query, "matchScore", defaults.matchScore()),
+                                                  intParameter(query, "misMatchScore", defaults.mismatchScore()),
+                                                  intParameter(query, "gapPenalty", defaults.gapPenalty()));
+
+        MultipleSequenceAligner.Method method = MultipleSequenceAligner.Method.fromCommandName(query.getOrDefault("method", "nj"));
+
+        List<Fasta> fastaEntries = query.containsKey("fastaPath")
+                ? FastaIO.readInFasta(resolveFastaPath(query.get("fastaPath")).toString())
+                : FastaIO.parseFasta(body);
+        if (fastaEntries.size() < 2) throw new IllegalArgumentException("a job needs at least 2 sequences!");
+
+        return new Job(fastaEntries, method, defaultContext.withScoring(scoring).withVerbose(false));
+    }
+
+    /**
+     * @return the real path of the requested file, which lies inside the FASTA root directory
+     * @throws IllegalArgumentException if there is no FASTA root directory or the path leaves it
+     */
+    private Path resolveFastaPath(String fastaPath) throws IllegalArgumentException {
+        if (fastaRoot == null) throw new IllegalArgumentException("fastaPath is disabled, send the sequences in the request body!");
+        Path requested;
+        try {
+            // toRealPath resolves '..' and symbolic links, so neither can point outside the root
+            requested = fastaRoot.resolve(fastaPath).toRealPath();
+        } catch (IOException | InvalidPathException e) {
+            throw new IllegalArgumentException("the FASTA " + fastaPath + " can not be read!");
+        }
+        if (!requested.startsWith(fastaRoot)) throw new IllegalArgumentException("fastaPath has to lie inside the FASTA root directory!");
+        if (!Files.isRegularFile(requested)) throw new IllegalArgumentException("the FASTA " + fastaPath + " is no file!");
+        return requested;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) return query;
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator < 0) continue;
+            query.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                      URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        if (!query.containsKey(name)) return defaultValue;
+        try {
+            return Integer.parseInt(query.get(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " has to be an integer!");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * one parsed alignment job
+     */
+    private record Job(List<Fasta> fastaEntries, MultipleSequenceAligner.Method method, AlignmentContext context) {
+    }
+}
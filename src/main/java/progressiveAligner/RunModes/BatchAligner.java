@@ -0,0 +1,219 @@
+package progressiveAligner.RunModes;
+
+import progressiveAligner.MainComponents.AlignmentContext;
+import progressiveAligner.MainComponents.Profile;
+import progressiveAligner.MultipleSequenceAligner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Aligns many FASTA files concurrently in one process.
+ * <p>
+ * The jobs run on a work-stealing {@link ForkJoinPool}. They are submitted largest file first, so the big families
+ * do not end up as a long serial tail after all small ones are done. Every result is written to its own file in the
+ * output directory ({@code <name>.aln}, see {@link #outputNames(List)} for inputs with the same name), and a summary
+ * with time and status of every job is printed and written to {@code summary.tsv} at the end.
+ */
+public class BatchAligner {
+
+    private static final String[] FASTA_EXTENSIONS = {".fasta", ".fa", ".faa", ".fas", ".fna"};
+
+    private final MultipleSequenceAligner aligner;
+    private final MultipleSequenceAligner.Method method;
+    private final int threads;
+
+    /**
+     * @param context the context (scoring parameters) all jobs run with
+     * @param method strategy deciding the order of the profile-profile alignments
+     * @param threads number of jobs aligned in parallel
+     */
+    public BatchAligner(AlignmentContext context, MultipleSequenceAligner.Method method, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("at least one thread is needed!");
+        this.aligner = new MultipleSequenceAligner(context);
+        this.method = method;
+        this.threads = threads;
+    }
+
+    /**
+     * runs all jobs of the input and writes the results
+     * @param input a directory (all FASTA files in it are aligned) or a manifest file with one FASTA path per line
+     * @param outputDirectory directory the results and the summary are written to (created if missing)
+     * @return the results of all jobs in the order they were submitted
+     */
+    public List<JobResult> run(String input, String outputDirectory) {
+        Path outputPath = Path.of(outputDirectory);
+        List<Path> fastaFiles = collectInputFiles(Path.of(input));
+        // the names are fixed before the jobs run, so no two jobs write to the same file
+        List<String> outputNames = outputNames(fastaFiles);
+        List<Integer> order = new ArrayList<>(IntStream.range(0, fastaFiles.size()).boxed().toList());
+        order.sort(Comparator.comparingLong((Integer job) -> fileSize(fastaFiles.get(job))).reversed());
+
+        List<JobResult> results = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Files.createDirectories(outputPath);
+
+            List<Future<JobResult>> futures = new ArrayList<>();
+            for (int job : order) {
+                Path outputFile = outputPath.resolve(outputNames.get(job));
+                futures.add(pool.submit(() -> alignOne(fastaFiles.get(job), outputFile)));
+            }
+            for (Future<JobResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // alignOne catches every job failure itself
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        writeSummary(results, outputPath.resolve("summary.tsv"));
+        return results;
+    }
+
+    /**
+     * aligns one FASTA file and writes its result, failures are reported in the returned result
+     */
+    private JobResult alignOne(Path fastaFile, Path outputFile) {
+        long start = System.nanoTime();
+        try {
+            Profile result = aligner.alignFasta(fastaFile.toString(), method);
+            try (PrintStream out = new PrintStream(outputFile.toFile())) {
+                result.writeProfile(out);
+            }
+            return new JobResult(fastaFile, outputFile, result.getSequenceList().size(), seconds(start), "OK");
+        } catch (Exception e) {
+            return new JobResult(fastaFile, null, 0, seconds(start), "FAILED: " + e);
+        }
+    }
+
+    /**
+     * prints the summary table and writes it as TSV
+     */
+    private static void writeSummary(List<JobResult> results, Path summaryFile) {
+        int failed = 0;
+        double totalSeconds = 0;
+        try (PrintWriter summary = new PrintWriter(summaryFile.toFile())) {
+            summary.println("input\toutput\tsequences\tseconds\tstatus");
+            for (JobResult result : results) {
+                String line = String.format(Locale.ROOT, "%s\t%s\t%d\t%.3f\t%s", result.input(),
+                                            result.output() != null ? result.output() : "-",
+                                            result.sequences(), result.seconds(), result.status());
+                summary.println(line);
+                System.out.println(line);
+                if (result.output() == null) failed++;
+                totalSeconds += result.seconds();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.printf(Locale.ROOT, "%d jobs, %d failed, %.3f job seconds in total%n", results.size(), failed, totalSeconds);
+    }
+
+    /**
+     * chooses the result file names: {@code <name>.aln} with the extension of the input removed, the full file name
+     * ({@code fam1.fa.aln}, {@code fam1.fasta.aln}) if several inputs share the name without extension, and an index
+     * ({@code fam1.fa-2.aln}) for inputs with the same file name in different directories. Names are compared
+     * ignoring case for case-insensitive file systems.
+     * @return the output file name of every input file, in the same order
+     */
+    static List<String> outputNames(List<Path> fastaFiles) {
+        Map<String, Long> baseNameCounts = fastaFiles.stream()
+                .collect(Collectors.groupingBy(file -> baseName(file).toLowerCase(Locale.ROOT), Collectors.counting()));
+        Set<String> usedNames = new HashSet<>();
+        List<String> outputNames = new ArrayList<>(fastaFiles.size());
+        for (Path fastaFile : fastaFiles) {
+            String name = baseNameCounts.get(baseName(fastaFile).toLowerCase(Locale.ROOT)) == 1
+                    ? baseName(fastaFile)
+                    : fastaFile.getFileName().toString();
+            String uniqueName = name;
+            for (int index = 2; !usedNames.add(uniqueName.toLowerCase(Locale.ROOT)); index++) {
+                uniqueName = name + "-" + index;
+            }
+            outputNames.add(uniqueName + ".aln");
+        }
+        return outputNames;
+    }
+
+    /**
+     * @return all FASTA files of a directory (sorted by name) or all paths listed in a manifest file
+     */
+    private static List<Path> collectInputFiles(Path input) {
+        try {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.list(input)) {
+                    return new ArrayList<>(files.filter(BatchAligner::hasFastaExtension).sorted().toList());
+                }
+            }
+
+            Path manifestDirectory = input.toAbsolutePath().getParent();
+            List<Path> files = new ArrayList<>();
+            for (String line : Files.readAllLines(input)) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                // relative paths in the manifest are resolved against the directory of the manifest
+                files.add(manifestDirectory.resolve(line.strip()));
+            }
+            return files;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean hasFastaExtension(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : FASTA_EXTENSIONS) {
+            if (name.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    private static String baseName(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static long fileSize(Path path) {
+        File file = path.toFile();
+        return file.isFile() ? file.length() : 0;
+    }
+
+    private static double seconds(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    /**
+     * outcome of one batch job
+     * @param input the aligned FASTA file
+     * @param output the written result file, null if the job failed
+     * @param sequences number of aligned sequences
+     * @param seconds wall time of the job
+     * @param status "OK" or the failure reason
+     */
+    public record JobResult(Path input, Path output, int sequences, double seconds, String status) {
+    }
+}
@@ -0,0 +1,257 @@
+package progressiveAligner.RunModes;
+
+import progressiveAligner.MainComponents.AlignmentContext;
+import progressiveAligner.MainComponents.NeighbourJoining;
+import progressiveAligner.MainComponents.Profile;
+import progressiveAligner.MainComponents.ProgressiveAlignment;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.FastaIO;
+import progressiveAligner.ToolClasses.Metrics;
+import progressiveAligner.ToolClasses.SequenceFamilyGenerator;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end scaling benchmark: generates synthetic families for every (number of sequences, sequence length) pair
+ * of a grid, runs the Consensus and the NeighbourJoining pipeline on them and writes one CSV line per run.
+ * <p>
+ * Each line holds the wall time of every {@link Metrics.Phase} of the run (parsing, distances, tree building,
+ * progressive alignment), the peak heap usage of the run and the peak resident set size of the process, so scaling
+ * curves can be drawn from the file. The distances of Consensus are the scores of the pairs it chooses from, it builds
+ * no tree. Before the grid both pipelines run once on the first grid point without being recorded, so the measured
+ * runs do not include the JIT compilation of the DP kernels. The heap peak is the highest used heap sampled during
+ * the run.
+ */
+public class ScalingBenchmark {
+
+    private static final String CSV_HEADER =
+            "pipeline,sequences,length,repetition,parseSeconds,distanceSeconds,treeSeconds,alignSeconds,totalSeconds,peakHeapBytes,peakRssBytes";
+
+    private static final long HEAP_SAMPLE_INTERVAL_NANOS = 1_000_000;
+
+    private final int[] sequenceCounts;
+    private final int[] sequenceLengths;
+    private final int repetitions;
+    private final SequenceFamilyGenerator generator;
+    private final AlignmentContext context;
+
+    /**
+     * @param sequenceCounts numbers of sequences of the grid
+     * @param sequenceLengths root sequence lengths of the grid
+     * @param repetitions how often each grid point is measured (each time with a newly generated family)
+     * @param generator generator used to create the families
+     * @param context the context (scoring parameters) the pipelines run with
+     */
+    public ScalingBenchmark(int[] sequenceCounts, int[] sequenceLengths, int repetitions, SequenceFamilyGenerator generator,
+                            AlignmentContext context) {
+        if (repetitions < 1) throw new IllegalArgumentException("at least one repetition is needed!");
+        this.sequenceCounts = sequenceCounts;
+        this.sequenceLengths = sequenceLengths;
+        this.repetitions = repetitions;
+        this.generator = generator;
+        this.context = context;
+    }
+
+    /**
+     * runs both pipelines on the whole grid and writes the results as CSV
+     * @param csvPath path of the CSV file that gets (over)written
+     */
+    public void run(String csvPath) {
+        // the phase timers are the source of the phase times
+        Metrics.enable();
+        try (PrintWriter csv = new PrintWriter(new FileWriter(csvPath))) {
+            csv.println(CSV_HEADER);
+            warmUp();
+
+            for (int sequenceCount : sequenceCounts) {
+                for (int sequenceLength : sequenceLengths) {
+                    for (int repetition = 0; repetition < repetitions; repetition++) {
+                        Path fastaFile = writeFamily(sequenceCount, sequenceLength);
+                        try {
+                            for (Pipeline pipeline : Pipeline.values()) {
+                                String line = measure(pipeline, fastaFile.toFile(), sequenceCount, sequenceLength, repetition);
+                                csv.println(line);
+                                csv.flush();
+                                System.out.println(line);
+                            }
+                        } finally {
+                            Files.deleteIfExists(fastaFile);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * runs both pipelines once on a family of the first grid point, so the measured runs use JIT compiled code
+     */
+    private void warmUp() throws IOException {
+        if (sequenceCounts.length == 0 || sequenceLengths.length == 0) return;
+        Path fastaFile = writeFamily(sequenceCounts[0], sequenceLengths[0]);
+        try {
+            for (Pipeline pipeline : Pipeline.values()) run(pipeline, fastaFile.toFile());
+        } finally {
+            Files.deleteIfExists(fastaFile);
+        }
+    }
+
+    /**
+     * @return a temporary FASTA file with a newly generated family, the caller deletes it
+     */
+    private Path writeFamily(int sequenceCount, int sequenceLength) throws IOException {
+        LinkedList<Fasta> family = generator.generateFamily(sequenceCount, sequenceLength);
+        Path fastaFile = Files.createTempFile("benchmark_" + sequenceCount + "_" + sequenceLength, ".fasta");
+        FastaIO.writeFasta(family, fastaFile.toString());
+        return fastaFile;
+    }
+
+    /**
+     * measures one run of a pipeline on the given fasta file
+     * @return the CSV line of the run
+     */
+    private String measure(Pipeline pipeline, File fastaFile, int sequenceCount, int sequenceLength, int repetition) {
+        System.gc();
+        resetRssPeak();
+
+        long[] phaseNanosBefore = phaseNanos();
+        long start = System.nanoTime();
+        long peakHeapBytes;
+        try (HeapSampler heapSampler = new HeapSampler()) {
+            run(pipeline, fastaFile);
+            peakHeapBytes = heapSampler.peakBytes();
+        }
+        long end = System.nanoTime();
+        long[] phaseNanos = phaseNanos();
+
+        return String.format(Locale.ROOT, "%s,%d,%d,%d,%.6f,%.6f,%.6f,%.6f,%.6f,%d,%d",
+                             pipeline, sequenceCount, sequenceLength, repetition,
+                             phaseSeconds(Metrics.Phase.PARSING, phaseNanosBefore, phaseNanos),
+                             phaseSeconds(Metrics.Phase.DISTANCE_MATRIX, phaseNanosBefore, phaseNanos),
+                             phaseSeconds(Metrics.Phase.TREE_BUILD, phaseNanosBefore, phaseNanos),
+                             phaseSeconds(Metrics.Phase.PROGRESSIVE_MERGE, phaseNanosBefore, phaseNanos),
+                             (end - start) / 1e9, peakHeapBytes, peakRssBytes());
+    }
+
+    /**
+     * runs a pipeline from parsing to the finished alignment
+     */
+    private void run(Pipeline pipeline, File fastaFile) {
+        LinkedList<Profile> profiles = ProgressiveAlignment.parseProfileListFromFasta(fastaFile.getPath());
+        switch (pipeline) {
+            case Consensus -> ProgressiveAlignment.consensusMSA(profiles, context);
+            case NeighbourJoining -> {
+                NeighbourJoining.Node root = new NeighbourJoining(profiles, context).runAlgorithm();
+                ProgressiveAlignment.alignAlongGuideTree(root, context);
+            }
+        }
+    }
+
+    /**
+     * @return the wall time of every phase recorded so far
+     */
+    private static long[] phaseNanos() {
+        return Arrays.stream(Metrics.Phase.values()).mapToLong(Metrics::phaseNanos).toArray();
+    }
+
+    private static double phaseSeconds(Metrics.Phase phase, long[] before, long[] after) {
+        return (after[phase.ordinal()] - before[phase.ordinal()]) / 1e9;
+    }
+
+    /**
+     * resets (on Linux) the peak RSS of the process
+     */
+    private static void resetRssPeak() {
+        try {
+            // "5" resets the VmHWM high water mark of the process
+            Files.writeString(Path.of("/proc/self/clear_refs"), "5");
+        } catch (IOException | UnsupportedOperationException | SecurityException ignored) {
+            // not available on this platform, the peak then covers the whole process lifetime
+        }
+    }
+
+
+    /**
+     * @return peak resident set size of the process (VmHWM) or -1 if it is not available on this platform
+     */
+    private static long peakRssBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    String kiloBytes = line.substring("VmHWM:".length()).replace("kB", "").strip();
+                    return Long.parseLong(kiloBytes) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+            // not available on this platform
+        }
+        return -1;
+    }
+
+    /**
+     * Samples the used heap of the whole JVM (a single {@link MemoryMXBean} value) on a daemon thread until closed.
+     * The per pool peaks can not be summed, the pools reach their peaks at different times.
+     */
+    private static class HeapSampler implements AutoCloseable {
+        private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        private final Thread sampler;
+        private volatile boolean running = true;
+        private final AtomicLong peakBytes = new AtomicLong();
+
+        private HeapSampler() {
+            sample();
+            sampler = new Thread(() -> {
+                while (running) {
+                    sample();
+                    LockSupport.parkNanos(HEAP_SAMPLE_INTERVAL_NANOS);
+                }
+            }, "heap-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        private void sample() {
+            peakBytes.accumulateAndGet(memoryBean.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        /**
+         * @return the highest used heap sampled so far
+         */
+        private long peakBytes() {
+            sample();
+            return peakBytes.get();
+        }
+
+        @Override
+        public void close() {
+            running = false;
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * the pipelines compared by the benchmark, named like the commands of the CLI
+     */
+    private enum Pipeline {
+        Consensus,
+        NeighbourJoining
+    }
+}
@@ -0,0 +1,310 @@
+package progressiveAligner.RunModes;
+
+import progressiveAligner.MainComponents.AlignmentContext;
+import progressiveAligner.MainComponents.AlignmentPlanner;
+import progressiveAligner.MainComponents.NeighbourJoining;
+import progressiveAligner.MainComponents.Newick;
+import progressiveAligner.MainComponents.Profile;
+import progressiveAligner.MainComponents.ProfileStorage;
+import progressiveAligner.MainComponents.ProfileStore;
+import progressiveAligner.MainComponents.ProgressiveAlignment;
+import progressiveAligner.MainComponents.ScoringScheme;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.FastaIO;
+import progressiveAligner.ToolClasses.Metrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Spreads the progressive phase of one large job over several worker processes, so no single JVM has to hold all
+ * intermediate profiles.
+ * <p>
+ * The coordinator cuts the guiding tree into subtrees (always splitting the subtree with the most leaves) and writes
+ * one shard per subtree to a shared directory: {@code shard-<k>.fa} with its sequences (named by leaf id) and
+ * {@code shard-<k>.nwk} with its tree, next to {@code context.properties} holding the alignment parameters. A worker
+ * ({@link #main(String[])} with the directory and the shard index) aligns the shard along its tree and writes the
+ * aligned rows to {@code shard-<k>.aln}. The coordinator reads the results back, sets them on the subtree roots and
+ * aligns the remaining nodes near the root itself.
+ * <p>
+ * Workers are started as local child processes, at most {@code parallelWorkers} at a time. As they only communicate
+ * through the directory, workers on other hosts can process the same layout on a shared file system.
+ */
+public class ShardedAligner {
+
+    /**
+     * name of the file holding the alignment parameters of the workers
+     */
+    public static final String CONTEXT_FILE = "context.properties";
+
+    private final AlignmentContext context;
+    private final int shards;
+    private final int parallelWorkers;
+    private final Path shardDirectory;
+
+    /**
+     * @param context the context of the alignment, it is handed to the workers (except the distance cache)
+     * @param shards number of subtrees the guiding tree is cut into (at least 2)
+     * @param parallelWorkers number of worker processes running at the same time
+     * @param shardDirectory directory the shards are exchanged in or null for a temporary directory that is deleted
+     *                       afterwards
+     */
+    public ShardedAligner(AlignmentContext context, int shards, int parallelWorkers, Path shardDirectory) {
+        if (shards < 2) throw new IllegalArgumentException("at least 2 shards are needed!");
+        if (parallelWorkers < 1) throw new IllegalArgumentException("at least one worker is needed!");
+        this.context = context;
+        this.shards = shards;
+        this.parallelWorkers = parallelWorkers;
+        this.shardDirectory = shardDirectory;
+    }
+
+    /**
+     * aligns the sequences of the tree, the subtrees in worker processes and the nodes above them in this process
+     * @param root root of the guiding tree, the roots of the shards get their aligned profiles set
+     * @return a Profile with all sequences of the tree aligned in a full MSA
+     * @throws RuntimeException if a worker fails (the message names its log file)
+     */
+    public Profile align(NeighbourJoining.Node root) {
+        List<NeighbourJoining.Node> subtrees = cut(root, shards);
+
+        Path directory = null;
+        try {
+            directory = shardDirectory != null ? Files.createDirectories(shardDirectory) : Files.createTempDirectory("shards");
+            writeContext(directory.resolve(CONTEXT_FILE));
+
+            try (Metrics.PhaseTimer ignored = Metrics.time(Metrics.Phase.PROGRESSIVE_MERGE)) {
+                ExecutorService pool = Executors.newFixedThreadPool(parallelWorkers);
+                try {
+                    List<Future<Profile>> results = new ArrayList<>();
+                    for (int k = 0; k < subtrees.size(); k++) {
+                        // single leaves already hold their profile
+                        if (subtrees.get(k).isLeaf()) continue;
+                        int shard = k;
+                        Path shardPath = directory;
+                        writeShard(shardPath, shard, subtrees.get(shard));
+                        results.add(pool.submit(() -> runWorker(shardPath, shard)));
+                    }
+                    int result = 0;
+                    for (NeighbourJoining.Node subtree : subtrees) {
+                        if (!subtree.isLeaf()) subtree.setProfile(results.get(result++).get());
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            if (context.verbose()) System.out.println(subtrees.size() + " shards aligned, merging near the root\n");
+
+            return ProgressiveAlignment.alignAlongGuideTree(root, context);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e.getCause());
+        } finally {
+            if (shardDirectory == null && directory != null) deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * cuts the tree into subtrees by repeatedly replacing the subtree with the most leaves by its two children
+     * @param root root of the guiding tree
+     * @param shards wanted number of subtrees
+     * @return the subtrees (fewer if the tree runs out of inner nodes), largest first
+     */
+    static List<NeighbourJoining.Node> cut(NeighbourJoining.Node root, int shards) {
+        Map<NeighbourJoining.Node, Integer> leafCounts = countLeaves(root);
+        Comparator<NeighbourJoining.Node> largestFirst = Comparator.comparingInt(leafCounts::get);
+        PriorityQueue<NeighbourJoining.Node> subtrees = new PriorityQueue<>(largestFirst.reversed());
+        subtrees.add(root);
+        while (subtrees.size() < shards && !subtrees.peek().isLeaf()) {
+            NeighbourJoining.Node largest = subtrees.poll();
+            subtrees.add(largest.getChildNode1());
+            subtrees.add(largest.getChildNode2());
+        }
+
+        List<NeighbourJoining.Node> result = new ArrayList<>(subtrees);
+        result.sort(largestFirst.reversed());
+        return result;
+    }
+
+    /**
+     * @return number of leaves below every node, computed without recursion (trees may be very deep)
+     */
+    private static Map<NeighbourJoining.Node, Integer> countLeaves(NeighbourJoining.Node root) {
+        Map<NeighbourJoining.Node, Integer> leafCounts = new IdentityHashMap<>();
+        for (NeighbourJoining.Node node : postOrder(root)) {
+            leafCounts.put(node, node.isLeaf() ? 1 : leafCounts.get(node.getChildNode1()) + leafCounts.get(node.getChildNode2()));
+        }
+        return leafCounts;
+    }
+
+    /**
+     * @return all nodes of the tree, children before their parent
+     */
+    private static List<NeighbourJoining.Node> postOrder(NeighbourJoining.Node root) {
+        List<NeighbourJoining.Node> reversed = new ArrayList<>();
+        Deque<NeighbourJoining.Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NeighbourJoining.Node node = stack.pop();
+            reversed.add(node);
+            if (!node.isLeaf()) {
+                stack.push(node.getChildNode1());
+                stack.push(node.getChildNode2());
+            }
+        }
+        return reversed.reversed();
+    }
+
+    /**
+     * writes the sequences of the subtree (named by leaf id, so the input headers need not be unique) and a copy of
+     * the subtree with these names
+     */
+    private static void writeShard(Path directory, int shard, NeighbourJoining.Node subtree) {
+        List<Fasta> sequences = new ArrayList<>();
+        Map<NeighbourJoining.Node, NeighbourJoining.Node> copies = new IdentityHashMap<>();
+        for (NeighbourJoining.Node node : postOrder(subtree)) {
+            NeighbourJoining.Node copy;
+            if (node.isLeaf()) {
+                String name = String.valueOf(node.getId());
+                sequences.add(new Fasta(name, node.getProfile().getInitialSequence()));
+                copy = new NeighbourJoining.Node(new Profile(node.getProfile().getInitialSequence(), name), node.getId());
+            } else {
+                copy = new NeighbourJoining.Node(copies.remove(node.getChildNode1()), copies.remove(node.getChildNode2()), node.getId());
+            }
+            copy.setBranchLength(node.getBranchLength());
+            copies.put(node, copy);
+        }
+
+        FastaIO.writeFasta(sequences, directory.resolve(shardFile(shard, ".fa")).toString());
+        Newick.write(copies.get(subtree), directory.resolve(shardFile(shard, ".nwk")).toString());
+    }
+
+    /**
+     * runs the worker of one shard as child process and reads its result
+     */
+    private Profile runWorker(Path directory, int shard) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        // the workers get the same heap and stack limits as the coordinator
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-Xmx") || argument.startsWith("-Xss")) command.add(argument);
+        }
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), ShardedAligner.class.getName(),
+                               directory.toString(), String.valueOf(shard)));
+
+        Path log = directory.resolve(shardFile(shard, ".log"));
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) throw new RuntimeException("worker of shard " + shard + " failed with exit code " + exitCode + ", see " + log);
+        } finally {
+            process.destroyForcibly();
+        }
+        if (context.verbose()) {
+            System.out.println("shard " + shard + " aligned in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        return readAlignedRows(directory.resolve(shardFile(shard, ".aln")), context.profileStorage());
+    }
+
+    private static Profile readAlignedRows(Path path, ProfileStorage storage) {
+        LinkedList<Fasta> rows = FastaIO.readInFasta(path.toString());
+        if (rows.isEmpty()) throw new IllegalArgumentException("the shard result " + path + " holds no rows!");
+        ProfileStore store = storage.create(rows.size(), rows.getFirst().sequence().length());
+        for (Fasta row : rows) store.append(row.sequence());
+        return new Profile(store);
+    }
+
+    private static String shardFile(int shard, String extension) {
+        return "shard-" + shard + extension;
+    }
+
+    private void writeContext(Path path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("matchScore", String.valueOf(context.scoring().matchScore()));
+        properties.setProperty("mismatchScore", String.valueOf(context.scoring().mismatchScore()));
+        properties.setProperty("gapPenalty", String.valueOf(context.scoring().gapPenalty()));
+        properties.setProperty("verbose", String.valueOf(context.verbose()));
+        properties.setProperty("anchorSeedLength", String.valueOf(context.anchorSeedLength()));
+        properties.setProperty("spillThresholdBytes", String.valueOf(context.profileStorage().spillThresholdBytes()));
+        properties.setProperty("spillDirectory", context.profileStorage().spillDirectory().toString());
+        properties.setProperty("wavefrontMinCells", String.valueOf(context.planner().wavefrontMinCells()));
+        properties.setProperty("anchoredMinCells", String.valueOf(context.planner().anchoredMinCells()));
+        properties.setProperty("anchoredMinSimilarity", String.valueOf(context.planner().anchoredMinSimilarity()));
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            properties.store(writer, "alignment parameters of the shard workers");
+        }
+    }
+
+    private static AlignmentContext readContext(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+        ScoringScheme scoring = new ScoringScheme(Integer.parseInt(properties.getProperty("matchScore")),
+                                                  Integer.parseInt(properties.getProperty("mismatchScore")),
+                                                  Integer.parseInt(properties.getProperty("gapPenalty")));
+        return new AlignmentContext(scoring, Boolean.parseBoolean(properties.getProperty("verbose")))
+                .withAnchorSeedLength(Integer.parseInt(properties.getProperty("anchorSeedLength")))
+                .withProfileStorage(new ProfileStorage(Long.parseLong(properties.getProperty("spillThresholdBytes")),
+                                                       Path.of(properties.getProperty("spillDirectory"))))
+                .withPlanner(new AlignmentPlanner(Long.parseLong(properties.getProperty("wavefrontMinCells")),
+                                                  Long.parseLong(properties.getProperty("anchoredMinCells")),
+                                                  Double.parseDouble(properties.getProperty("anchoredMinSimilarity"))));
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * worker entry point: aligns one shard and writes its rows as aligned FASTA (first to a temporary file that is
+     * then moved, so the coordinator never reads a partial result)
+     * @param args the shard directory and the index of the shard
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) throw new IllegalArgumentException("usage: ShardedAligner <shardDirectory> <shardIndex>");
+        Path directory = Path.of(args[0]);
+        int shard = Integer.parseInt(args[1]);
+
+        AlignmentContext context = readContext(directory.resolve(CONTEXT_FILE));
+        LinkedList<Profile> profiles = ProgressiveAlignment.parseProfileListFromFasta(directory.resolve(shardFile(shard, ".fa")).toString());
+        NeighbourJoining.Node root = Newick.read(directory.resolve(shardFile(shard, ".nwk")).toString(), profiles);
+        Profile profile = ProgressiveAlignment.alignAlongGuideTree(root, context);
+
+        List<Fasta> rows = new ArrayList<>();
+        List<String> sequences = profile.getSequenceList();
+        for (int row = 0; row < sequences.size(); row++) rows.add(new Fasta(String.valueOf(row), sequences.get(row)));
+        Path temporaryPath = directory.resolve(shardFile(shard, ".aln.tmp"));
+        FastaIO.writeFasta(rows, temporaryPath.toString());
+        Files.move(temporaryPath, directory.resolve(shardFile(shard, ".aln")), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        profile.release();
+    }
+}
@@ -1,10 +1,15 @@
 package progressiveAligner.ToolClasses;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
 import java.util.LinkedList;
-import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Implements methods to read fasta format files.
@@ -18,31 +23,103 @@ public class FastaIO {
      */
     public static LinkedList<Fasta> readInFasta(String filepath) {
         LinkedList<Fasta> fastaEntries = new LinkedList<>();
+        readInFasta(filepath, fastaEntries::add);
+        return fastaEntries;
+    }
+
+    /**
+     * Method to read in a fasta file entry by entry, each entry is handed over as soon as it is complete, so large
+     * files can be processed while they are still being read.
+     *
+     * @param filepath {@link String} specifying the path to the fasta file.
+     * @param consumer receives a {@link Fasta} object for each entry, in the order of the file.
+     */
+    public static void readInFasta(String filepath, Consumer<Fasta> consumer) {
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(filepath))) {
+            readFasta(fileReader, consumer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Method to parse fasta formatted text (e.g. sent inline to the alignment server).
+     *
+     * @param fastaText {@link String} holding the content of a fasta file.
+     * @return List of {@link Fasta} objects.
+     */
+    public static LinkedList<Fasta> parseFasta(String fastaText) {
+        try (BufferedReader reader = new BufferedReader(new StringReader(fastaText))) {
+            LinkedList<Fasta> fastaEntries = new LinkedList<>();
+            readFasta(reader, fastaEntries::add);
+            return fastaEntries;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads fasta entries until the end of the reader. Generates a {@link Fasta} object for each entry.
+     *
+     * @param reader {@link BufferedReader} providing fasta formatted lines.
+     * @param consumer receives the {@link Fasta} objects.
+     * @throws IOException if reading fails.
+     */
+    private static void readFasta(BufferedReader reader, Consumer<Fasta> consumer) throws IOException {
         StringBuilder header = new StringBuilder();
         StringBuilder sequence = new StringBuilder();
         Runnable dump = () -> {
-            fastaEntries.add(new Fasta(header.toString(), sequence.toString()));
+            consumer.accept(new Fasta(header.toString(), sequence.toString()));
             header.setLength(0);
             sequence.setLength(0);
         };
-        try (BufferedReader fileReader = new BufferedReader(new FileReader(filepath))) {
-            Iterator<String> lineIterator = fileReader.lines().iterator();
-            String line;
-            do {
-                line = lineIterator.next();
-                if (line.startsWith(">")) {
-                    if (!header.isEmpty())
-                        dump.run();
-                    header.append(line.strip());
-                } else {
-                    sequence.append(line.strip());
-                }
-            } while (lineIterator.hasNext());
-            if (!header.isEmpty())
-                dump.run();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(">")) {
+                if (!header.isEmpty())
+                    dump.run();
+                header.append(line.strip());
+            } else {
+                sequence.append(line.strip());
+            }
+        }
+        if (!header.isEmpty())
+            dump.run();
+    }
+
+    /**
+     * Writes the given entries to a fasta file. Headers are written as stored (a missing '>' is added) and
+     * sequences are written on a single line.
+     *
+     * @param fastaEntries the {@link Fasta} entries to write.
+     * @param filepath {@link String} specifying the path of the fasta file to (over)write.
+     */
+    public static void writeFasta(List<Fasta> fastaEntries, String filepath) {
+        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(filepath))) {
+            for (Fasta fasta : fastaEntries) {
+                if (!fasta.header().startsWith(">")) fileWriter.write('>');
+                fileWriter.write(fasta.header());
+                fileWriter.newLine();
+                fileWriter.write(fasta.sequence());
+                fileWriter.newLine();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return fastaEntries;
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the given entries in fasta format to a stream (e.g. the console), as {@link #writeFasta(List, String)}.
+     *
+     * @param fastaEntries the {@link Fasta} entries to write.
+     * @param out the {@link PrintStream} the entries are printed to.
+     */
+    public static void writeFasta(List<Fasta> fastaEntries, PrintStream out) {
+        for (Fasta fasta : fastaEntries) {
+            if (!fasta.header().startsWith(">")) out.print('>');
+            out.println(fasta.header());
+            out.println(fasta.sequence());
+        }
+        out.flush();
+    }
+}
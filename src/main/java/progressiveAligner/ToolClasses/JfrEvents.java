@@ -0,0 +1,106 @@
+package progressiveAligner.ToolClasses;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Custom JDK Flight Recorder events of the aligner. They show up in a recording (e.g. started with
+ * {@code -XX:StartFlightRecording} or attached via {@code jcmd <pid> JFR.start}) under the category
+ * "Progressive Aligner", so JDK Mission Control can show which pairs, joins or merges dominate a slow run.
+ * <p>
+ * While no recording is running {@link Event#commit()} returns immediately, the events therefore cost almost nothing.
+ */
+public class JfrEvents {
+
+    private static final String CATEGORY = "Progressive Aligner";
+
+    /**
+     * Minimal number of DP cells a pairwise alignment needs to emit a {@link PairwiseAlignmentEvent}.
+     * Can be changed with the system property {@code progressiveAligner.jfr.minCells}.
+     */
+    public static final long MIN_CELLS_FOR_ALIGNMENT_EVENT = Long.getLong("progressiveAligner.jfr.minCells", 1_000_000L);
+
+    /**
+     * @param length1 length of the first sequence
+     * @param length2 length of the second sequence
+     * @return a begun {@link PairwiseAlignmentEvent} if the DP is at least {@link #MIN_CELLS_FOR_ALIGNMENT_EVENT}
+     * cells large, null otherwise
+     */
+    public static PairwiseAlignmentEvent beginPairwiseAlignment(int length1, int length2) {
+        long cells = (long) length1 * length2;
+        if (cells < MIN_CELLS_FOR_ALIGNMENT_EVENT) return null;
+
+        PairwiseAlignmentEvent event = new PairwiseAlignmentEvent();
+        event.length1 = length1;
+        event.length2 = length2;
+        event.cells = cells;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * One pairwise DP (score only or with traceback) above the size threshold.
+     */
+    @Name("progressiveAligner.PairwiseAlignment")
+    @Label("Pairwise Alignment")
+    @Category(CATEGORY)
+    @Description("Pairwise DP alignment with at least progressiveAligner.jfr.minCells cells")
+    public static class PairwiseAlignmentEvent extends Event {
+        @Label("Length 1")
+        public int length1;
+
+        @Label("Length 2")
+        public int length2;
+
+        @Label("DP Cells")
+        public long cells;
+    }
+
+    /**
+     * One join of the Neighbour Joining algorithm (neighbour matrix, nearest pair search and matrix update).
+     */
+    @Name("progressiveAligner.NeighbourJoin")
+    @Label("Neighbour Join")
+    @Category(CATEGORY)
+    @Description("One iteration of the Neighbour Joining tree construction")
+    public static class NeighbourJoinEvent extends Event {
+        @Label("Iteration")
+        public int iteration;
+
+        @Label("Matrix Size")
+        @Description("number of nodes on the distance matrix before the join")
+        public int matrixSize;
+    }
+
+    /**
+     * One merge of two profiles guided by the alignment of their consensus sequences.
+     */
+    @Name("progressiveAligner.ProfileMerge")
+    @Label("Profile Merge")
+    @Category(CATEGORY)
+    @Description("Alignment and gap propagation of two profiles")
+    public static class ProfileMergeEvent extends Event {
+        @Label("Depth 1")
+        @Description("number of sequences in the first profile")
+        public int depth1;
+
+        @Label("Depth 2")
+        @Description("number of sequences in the second profile")
+        public int depth2;
+
+        @Label("Columns")
+        @Description("number of columns of the merged profile")
+        public int columns;
+
+        @Label("Gaps Inserted 1")
+        @Description("gap columns inserted into the first profile")
+        public int gapsInserted1;
+
+        @Label("Gaps Inserted 2")
+        @Description("gap columns inserted into the second profile")
+        public int gapsInserted2;
+    }
+}
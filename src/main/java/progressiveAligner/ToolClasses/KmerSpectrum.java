@@ -0,0 +1,128 @@
+package progressiveAligner.ToolClasses;
+
+import java.util.Arrays;
+
+/**
+ * Sorted multiset of the k-mers of one sequence, used as alignment free similarity estimate
+ * (shared k-mer count as in MAFFT / MUSCLE) where a full dynamic programming alignment would be too expensive.
+ * <p>
+ * Each residue is encoded with 5 bits (letters A-Z, everything else shares one code), gaps are skipped, so a k-mer
+ * code fits into an int for k up to {@value #MAX_K}.
+ */
+public class KmerSpectrum {
+
+    /**
+     * largest supported k
+     */
+    public static final int MAX_K = 6;
+
+    /**
+     * k used when nothing else is specified
+     */
+    public static final int DEFAULT_K = 3;
+
+    private static final int BITS_PER_RESIDUE = 5;
+
+    private final int k;
+    private final int[] sortedCodes;
+
+    /**
+     * @param sequence the (possibly gapped) sequence
+     * @param k length of the k-mers
+     * @throws IllegalArgumentException if k is not between 1 and {@value #MAX_K}
+     */
+    public KmerSpectrum(String sequence, int k) throws IllegalArgumentException {
+        this.k = k;
+        this.sortedCodes = encode(sequence, k);
+        Arrays.sort(sortedCodes);
+    }
+
+    /**
+     * @param sequence the (possibly gapped) sequence
+     */
+    public KmerSpectrum(String sequence) {
+        this(sequence, DEFAULT_K);
+    }
+
+    /**
+     * computes the codes of all k-mers of the sequence in sequence order (gaps are skipped)
+     * @param sequence the (possibly gapped) sequence
+     * @param k length of the k-mers
+     * @return one code per k-mer, entry p belongs to the k-mer starting at the p-th residue
+     * @throws IllegalArgumentException if k is not between 1 and {@value #MAX_K}
+     */
+    public static int[] encode(String sequence, int k) throws IllegalArgumentException {
+        if (k < 1 || k > MAX_K) throw new IllegalArgumentException("k has to be between 1 and " + MAX_K + "!");
+
+        int residues = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            if (sequence.charAt(i) != '-') residues++;
+        }
+        int[] codes = new int[Math.max(0, residues - k + 1)];
+
+        int mask = (1 << (BITS_PER_RESIDUE * k)) - 1;
+        int code = 0;
+        int read = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            char residue = sequence.charAt(i);
+            if (residue == '-') continue;
+            code = ((code << BITS_PER_RESIDUE) | residueCode(residue)) & mask;
+            read++;
+            if (read >= k) codes[read - k] = code;
+        }
+        return codes;
+    }
+
+    private static int residueCode(char residue) {
+        char upper = Character.toUpperCase(residue);
+        return upper >= 'A' && upper <= 'Z' ? upper - 'A' : 31;
+    }
+
+    /**
+     * @return k of this spectrum
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return number of k-mers (with multiplicity)
+     */
+    public int size() {
+        return sortedCodes.length;
+    }
+
+    /**
+     * @param other spectrum with the same k
+     * @return number of shared k-mers, each counted as often as it occurs in both spectra
+     */
+    public int sharedKmers(KmerSpectrum other) {
+        if (other.k != k) throw new IllegalArgumentException("spectra with different k can not be compared!");
+
+        int shared = 0;
+        int i = 0;
+        int j = 0;
+        while (i < sortedCodes.length && j < other.sortedCodes.length) {
+            if (sortedCodes[i] == other.sortedCodes[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (sortedCodes[i] < other.sortedCodes[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * @param other spectrum with the same k
+     * @return fraction of shared k-mers relative to the shorter sequence, 0 (unrelated) to 1 (identical spectra)
+     */
+    public double similarity(KmerSpectrum other) {
+        int smallerSize = Math.min(size(), other.size());
+        if (smallerSize == 0) return 0;
+        return (double) sharedKmers(other) / smallerSize;
+    }
+}
@@ -0,0 +1,176 @@
+package progressiveAligner.ToolClasses;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lightweight process wide run metrics: counters for the DP kernels and wall time / allocation per pipeline phase.
+ * <p>
+ * Metrics are disabled by default. While disabled every method returns right after reading a single boolean and
+ * {@link #time(Phase)} hands out a shared no-op timer, so instrumented code pays (close to) nothing. All counters are
+ * {@link LongAdder}s and can be updated from several threads at once.
+ */
+public class Metrics {
+
+    /**
+     * the phases of a run a timer can be started for
+     */
+    public enum Phase {
+        PARSING,
+        DISTANCE_MATRIX,
+        TREE_BUILD,
+        PROGRESSIVE_MERGE,
+        OUTPUT
+    }
+
+    private static volatile boolean enabled = false;
+
+    private static final LongAdder dpCells = new LongAdder();
+    private static final LongAdder dpNanos = new LongAdder();
+    private static final LongAdder alignments = new LongAdder();
+    private static final LongAdder[] phaseNanos = newAdders();
+    private static final LongAdder[] phaseAllocatedBytes = newAdders();
+
+    private static final PhaseTimer NO_OP_TIMER = new PhaseTimer(null);
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = allocationBean();
+
+    /**
+     * turns the collection of metrics on (it can not be turned off again)
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * @return true if metrics are collected
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} if metrics are enabled, 0 otherwise. Pass the value to
+     * {@link #recordDP(long, long)} after the DP finished.
+     */
+    public static long startDP() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * records one pairwise alignment (one DP matrix fill)
+     * @param startNanos the value returned by {@link #startDP()}
+     * @param cells number of DP cells computed
+     */
+    public static void recordDP(long startNanos, long cells) {
+        if (!enabled) return;
+        dpNanos.add(System.nanoTime() - startNanos);
+        dpCells.add(cells);
+        alignments.increment();
+    }
+
+    /**
+     * starts timing a phase. Use it in a try-with-resources block so the timer is closed at the end of the phase.
+     * Time and allocations are measured on the calling thread.
+     * @param phase the phase to time
+     * @return a timer that adds its measurement to the phase when closed
+     */
+    public static PhaseTimer time(Phase phase) {
+        return enabled ? new PhaseTimer(phase) : NO_OP_TIMER;
+    }
+
+    /**
+     * @param phase the phase to look up
+     * @return wall time of all timers of the phase closed so far, summed over all threads
+     */
+    public static long phaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * @return the collected metrics as a JSON object
+     */
+    public static String toJson() {
+        double dpSeconds = dpNanos.sum() / 1e9;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"dpCells\": ").append(dpCells.sum()).append(",\n");
+        json.append("  \"alignments\": ").append(alignments.sum()).append(",\n");
+        json.append("  \"dpSeconds\": ").append(format(dpSeconds)).append(",\n");
+        json.append("  \"cellsPerSecond\": ").append(format(dpSeconds > 0 ? dpCells.sum() / dpSeconds : 0)).append(",\n");
+        json.append("  \"phases\": {\n");
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            json.append("    \"").append(phases[i]).append("\": {\"seconds\": ")
+                .append(format(phaseNanos[i].sum() / 1e9))
+                .append(", \"allocatedBytes\": ").append(phaseAllocatedBytes[i].sum()).append('}')
+                .append(i < phases.length - 1 ? ",\n" : "\n");
+        }
+        json.append("  }\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * writes {@link #toJson()} to the given file
+     * @param filePath path of the JSON file that gets (over)written
+     */
+    public static void writeJson(String filePath) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
+            writer.print(toJson());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[Phase.values().length];
+        for (int i = 0; i < adders.length; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * @return the HotSpot thread bean if it supports allocation counting, null otherwise
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            return bean;
+        }
+        return null;
+    }
+
+    private static long allocatedBytesOfCurrentThread() {
+        return THREAD_BEAN != null ? THREAD_BEAN.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Measures wall time and allocated bytes of one phase between its creation and {@link #close()}.
+     */
+    public static class PhaseTimer implements AutoCloseable {
+        private final Phase phase;
+        private final long startNanos;
+        private final long startAllocatedBytes;
+
+        private PhaseTimer(Phase phase) {
+            this.phase = phase;
+            this.startNanos = phase != null ? System.nanoTime() : 0;
+            this.startAllocatedBytes = phase != null ? allocatedBytesOfCurrentThread() : 0;
+        }
+
+        @Override
+        public void close() {
+            if (phase == null) return;
+            phaseNanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+            phaseAllocatedBytes[phase.ordinal()].add(allocatedBytesOfCurrentThread() - startAllocatedBytes);
+        }
+    }
+}
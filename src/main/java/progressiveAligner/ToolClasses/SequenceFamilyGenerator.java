@@ -0,0 +1,129 @@
+package progressiveAligner.ToolClasses;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Generates synthetic protein families by evolving a random root sequence along a random binary tree.
+ * Every branch applies point substitutions and insertions / deletions with the configured per-site rates, so the
+ * produced sequences are related like a real family and can be used as realistic input for benchmarks.
+ */
+public class SequenceFamilyGenerator {
+
+    /**
+     * the 20 standard amino acids, all of them are supported by the column statistics
+     * ({@link progressiveAligner.MainComponents.ColumnStatistics#RESIDUES})
+     */
+    private static final char[] AMINO_ACIDS = {
+            'A', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'K', 'L',
+            'M', 'N', 'P', 'Q', 'R', 'S', 'T', 'V', 'W', 'Y'
+    };
+
+    private final Random random;
+    private final double substitutionRate;
+    private final double indelRate;
+
+    /**
+     * @param seed seed of the random generator, the same seed always produces the same families
+     * @param substitutionRate expected number of substitutions per site on a branch of length 1
+     * @param indelRate expected number of insertion or deletion events per site on a branch of length 1
+     */
+    public SequenceFamilyGenerator(long seed, double substitutionRate, double indelRate) {
+        if (substitutionRate < 0 || indelRate < 0) throw new IllegalArgumentException("rates must not be negative!");
+        this.random = new Random(seed);
+        this.substitutionRate = substitutionRate;
+        this.indelRate = indelRate;
+    }
+
+    /**
+     * evolves a family of sequences along a random tree (Yule process: a random leaf splits until enough leaves
+     * exist). Each of the two children of a split gets an exponentially distributed branch length with mean 1.
+     * @param numberOfSequences number of sequences (leaves) of the family, at least 2
+     * @param rootLength length of the random root sequence
+     * @return list of {@link Fasta} entries with headers "seq_0" ... "seq_n-1"
+     */
+    public LinkedList<Fasta> generateFamily(int numberOfSequences, int rootLength) {
+        if (numberOfSequences < 2) throw new IllegalArgumentException("a family needs at least 2 sequences!");
+        if (rootLength < 1) throw new IllegalArgumentException("the root sequence needs at least one residue!");
+
+        ArrayList<String> leaves = new ArrayList<>();
+        leaves.add(randomSequence(rootLength));
+
+        while (leaves.size() < numberOfSequences) {
+            String parent = leaves.remove(random.nextInt(leaves.size()));
+            leaves.add(evolve(parent, randomBranchLength()));
+            leaves.add(evolve(parent, randomBranchLength()));
+        }
+
+        LinkedList<Fasta> family = new LinkedList<>();
+        for (int i = 0; i < leaves.size(); i++) {
+            family.add(new Fasta(">seq_" + i, leaves.get(i)));
+        }
+        return family;
+    }
+
+    /**
+     * @return a sequence of random amino acids
+     */
+    private String randomSequence(int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append(randomAminoAcid());
+        }
+        return sequence.toString();
+    }
+
+    /**
+     * applies substitutions, insertions and deletions to the parent sequence
+     * @param parent sequence at the start of the branch
+     * @param branchLength length of the branch, scales the substitution and indel rates
+     * @return sequence at the end of the branch (never empty)
+     */
+    private String evolve(String parent, double branchLength) {
+        double substitutionProbability = Math.min(1.0, substitutionRate * branchLength);
+        double indelProbability = Math.min(1.0, indelRate * branchLength);
+        StringBuilder child = new StringBuilder(parent.length() + 16);
+
+        int position = 0;
+        while (position < parent.length()) {
+            if (random.nextDouble() < indelProbability) {
+                int indelLength = randomIndelLength();
+                if (random.nextBoolean()) {
+                    // insertion in front of the current position
+                    for (int i = 0; i < indelLength; i++) child.append(randomAminoAcid());
+                } else {
+                    // deletion of the next residues
+                    position += indelLength;
+                    continue;
+                }
+            }
+
+            char aminoAcid = parent.charAt(position++);
+            child.append(random.nextDouble() < substitutionProbability ? randomAminoAcid() : aminoAcid);
+        }
+
+        if (child.isEmpty()) child.append(randomAminoAcid());
+        return child.toString();
+    }
+
+    /**
+     * @return geometrically distributed indel length with mean 2
+     */
+    private int randomIndelLength() {
+        int length = 1;
+        while (random.nextDouble() < 0.5) length++;
+        return length;
+    }
+
+    /**
+     * @return exponentially distributed branch length with mean 1
+     */
+    private double randomBranchLength() {
+        return -Math.log(1.0 - random.nextDouble());
+    }
+
+    private char randomAminoAcid() {
+        return AMINO_ACIDS[random.nextInt(AMINO_ACIDS.length)];
+    }
+}
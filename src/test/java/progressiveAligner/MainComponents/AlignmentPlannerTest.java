@@ -0,0 +1,114 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AlignmentPlannerTest {
+
+    private static final AlignmentContext EXACT = AlignmentContext.of(ScoringScheme.DEFAULT);
+    private static final AlignmentContext ANCHORED = EXACT.withAnchorSeedLength(8);
+
+    // 600 x 600 is large enough for the wavefront (two tiles in each direction)
+    private static final int LENGTH = 600;
+    private static final long CELLS = (long) LENGTH * LENGTH;
+
+    // the wavefront is only chosen if the fill can actually run on more than one core
+    private static final AlignmentPlanner.Engine PARALLEL_ENGINE =
+            Math.min(Runtime.getRuntime().availableProcessors(), ForkJoinPool.getCommonPoolParallelism() + 1) > 1
+                    ? AlignmentPlanner.Engine.WAVEFRONT
+                    : AlignmentPlanner.Engine.PACKED;
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int k = 0; k < length; k++) sequence.append(ColumnStatistics.RESIDUES.charAt(random.nextInt(20)));
+        return sequence.toString();
+    }
+
+    private static String mutate(Random random, String sequence) {
+        char[] mutated = sequence.toCharArray();
+        for (int k = 0; k < mutated.length; k += 25) mutated[k] = ColumnStatistics.RESIDUES.charAt(random.nextInt(20));
+        return new String(mutated);
+    }
+
+    @Test
+    public void wavefrontFromItsThresholdOn() {
+        Random random = new Random(43);
+        String sequence1 = randomSequence(random, LENGTH);
+        String sequence2 = randomSequence(random, LENGTH);
+
+        assertEquals(PARALLEL_ENGINE, new AlignmentPlanner(CELLS, Long.MAX_VALUE, 0.5).planAlignment(sequence1, sequence2, EXACT).engine());
+        assertEquals(AlignmentPlanner.Engine.PACKED,
+                     new AlignmentPlanner(CELLS + 1, Long.MAX_VALUE, 0.5).planAlignment(sequence1, sequence2, EXACT).engine());
+        // less than two tiles in one direction is never filled by the wavefront
+        assertEquals(AlignmentPlanner.Engine.PACKED,
+                     new AlignmentPlanner(0, Long.MAX_VALUE, 0.5).planAlignment(sequence1, sequence2.substring(0, 511), EXACT).engine());
+    }
+
+    @Test
+    public void similarPairsAreAnchoredFromTheirThresholdOn() {
+        Random random = new Random(44);
+        String sequence1 = randomSequence(random, LENGTH);
+        String sequence2 = mutate(random, sequence1);
+
+        AlignmentPlanner.Plan plan = new AlignmentPlanner(CELLS, CELLS, 0.5).planAlignment(sequence1, sequence2, ANCHORED);
+        assertEquals(AlignmentPlanner.Engine.ANCHORED, plan.engine());
+        assertEquals(8, plan.seedLength());
+        assertEquals(PARALLEL_ENGINE, new AlignmentPlanner(CELLS, CELLS + 1, 0.5).planAlignment(sequence1, sequence2, ANCHORED).engine());
+        // without anchoring in the context the thresholds do not matter
+        assertEquals(PARALLEL_ENGINE, new AlignmentPlanner(CELLS, CELLS, 0.5).planAlignment(sequence1, sequence2, EXACT).engine());
+
+        assertEquals(AlignmentPlanner.Engine.ANCHORED, new AlignmentPlanner(CELLS, CELLS, 0.5).planScore(sequence1, sequence2, ANCHORED).engine());
+        assertEquals(AlignmentPlanner.Engine.LINEAR, new AlignmentPlanner(CELLS, CELLS + 1, 0.5).planScore(sequence1, sequence2, ANCHORED).engine());
+        assertEquals(AlignmentPlanner.Engine.LINEAR, new AlignmentPlanner(CELLS, CELLS, 0.5).planScore(sequence1, sequence2, EXACT).engine());
+    }
+
+    @Test
+    public void divergentPairsAreAlignedExactly() {
+        Random random = new Random(45);
+        String sequence1 = randomSequence(random, LENGTH);
+        String sequence2 = randomSequence(random, LENGTH);
+
+        AlignmentPlanner planner = new AlignmentPlanner(Long.MAX_VALUE, CELLS, 0.5);
+        assertEquals(AlignmentPlanner.Engine.PACKED, planner.planAlignment(sequence1, sequence2, ANCHORED).engine());
+        assertEquals(PARALLEL_ENGINE, planner.withWavefrontMinCells(CELLS).planAlignment(sequence1, sequence2, ANCHORED).engine());
+        assertEquals(AlignmentPlanner.Engine.LINEAR, planner.planScore(sequence1, sequence2, ANCHORED).engine());
+        // the same pair is anchored once the required similarity is low enough
+        assertEquals(AlignmentPlanner.Engine.ANCHORED, planner.withAnchoredMinSimilarity(0).planAlignment(sequence1, sequence2, ANCHORED).engine());
+    }
+
+    @Test
+    public void matrixOverTheMemoryBudgetNeedsAnchoring() {
+        // a square matrix with 8 bytes per 32 cells that is just over the budget
+        int length = (int) Math.sqrt(AlignmentPlanner.memoryBudgetBytes() * 4.0) + 64;
+        String sequence = "A".repeat(length);
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                                                      () -> AlignmentPlanner.DEFAULT.planAlignment(sequence, sequence, EXACT));
+        assertTrue(error.getMessage().contains("--anchorSeedLength"), error.getMessage());
+
+        AlignmentPlanner.Plan plan = AlignmentPlanner.DEFAULT.planAlignment(sequence, sequence, ANCHORED);
+        assertEquals(AlignmentPlanner.Engine.ANCHORED, plan.engine());
+        assertEquals(8, plan.seedLength());
+    }
+
+    @Test
+    public void regionsOverTheMemoryBudgetAreBanded() {
+        int length = (int) Math.sqrt(AlignmentPlanner.memoryBudgetBytes() * 4.0) + 64;
+        assertEquals(AlignmentPlanner.Engine.BANDED, AlignmentPlanner.DEFAULT.planRegion(length, length));
+        assertEquals(PARALLEL_ENGINE, new AlignmentPlanner(CELLS, 0, 0).planRegion(LENGTH, LENGTH));
+        assertEquals(AlignmentPlanner.Engine.PACKED, new AlignmentPlanner(CELLS + 1, 0, 0).planRegion(LENGTH, LENGTH));
+    }
+
+    @Test
+    public void invalidThresholdsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new AlignmentPlanner(-1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new AlignmentPlanner(0, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new AlignmentPlanner(0, 0, 1.5));
+    }
+}
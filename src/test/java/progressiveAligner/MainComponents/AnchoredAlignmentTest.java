@@ -0,0 +1,99 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.SequenceFamilyGenerator;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AnchoredAlignmentTest {
+
+    /**
+     * checks that the gap lists are ascending, point to gap characters, and that removing the listed columns gives
+     * back the input sequences, and that the score is the score of the aligned columns (inserted gaps always cost the
+     * gap penalty, also opposite a gap of the input)
+     */
+    private static void assertConsistent(String sequence1, String sequence2, SequenceAlignment.AlignedSequences alignment,
+                                         ScoringScheme scoring) {
+        String aligned1 = alignment.alignedSequence1();
+        String aligned2 = alignment.alignedSequence2();
+        assertEquals(aligned1.length(), aligned2.length());
+        assertEquals(sequence1, removeColumns(aligned1, alignment.gapsAlignedSequence1()));
+        assertEquals(sequence2, removeColumns(aligned2, alignment.gapsAlignedSequence2()));
+
+        boolean[] inserted = new boolean[aligned1.length()];
+        for (int column : alignment.gapsAlignedSequence1()) inserted[column] = true;
+        for (int column : alignment.gapsAlignedSequence2()) inserted[column] = true;
+        int score = 0;
+        for (int column = 0; column < aligned1.length(); column++) {
+            score += inserted[column] ? -scoring.gapPenalty() : scoring.score(aligned1.charAt(column), aligned2.charAt(column));
+        }
+        assertEquals(score, alignment.alignmentScore());
+    }
+
+    private static String removeColumns(String aligned, int[] gaps) {
+        StringBuilder sequence = new StringBuilder(aligned);
+        for (int k = gaps.length - 1; k >= 0; k--) {
+            assertTrue(k == 0 || gaps[k - 1] < gaps[k], "gap columns have to be ascending");
+            assertEquals('-', aligned.charAt(gaps[k]));
+            sequence.deleteCharAt(gaps[k]);
+        }
+        return sequence.toString();
+    }
+
+    @Test
+    public void gapListsOfLongSimilarSequencesAreConsistent() {
+        ScoringScheme scoring = ScoringScheme.DEFAULT;
+        List<Fasta> family = new SequenceFamilyGenerator(38, 0.1, 0.02).generateFamily(4, 3000);
+        for (int k = 1; k < family.size(); k++) {
+            String sequence1 = family.get(0).sequence();
+            String sequence2 = family.get(k).sequence();
+            SequenceAlignment.AlignedSequences anchored = AnchoredAlignment.align(sequence1, sequence2, 8, scoring);
+            assertConsistent(sequence1, sequence2, anchored, scoring);
+
+            // a heuristic alignment can not beat the optimal one, but should be close to it for related sequences
+            int exactScore = PackedTraceback.align(sequence1, sequence2, scoring).alignmentScore();
+            assertTrue(anchored.alignmentScore() <= exactScore);
+            assertTrue(anchored.alignmentScore() >= 0.98 * exactScore, anchored.alignmentScore() + " vs " + exactScore);
+        }
+    }
+
+    @Test
+    public void gapListsOfGappedSequencesAreConsistent() {
+        ScoringScheme scoring = new ScoringScheme(3, -1, 2);
+        List<Fasta> family = new SequenceFamilyGenerator(39, 0.2, 0.05).generateFamily(2, 2500);
+        // gap characters of a consensus sequence are kept, only the listed columns are new
+        String sequence1 = family.get(0).sequence().replace("A", "-");
+        String sequence2 = family.get(1).sequence();
+        assertConsistent(sequence1, sequence2, AnchoredAlignment.align(sequence1, sequence2, 6, scoring), scoring);
+    }
+
+    @Test
+    public void identicalSequencesAreAlignedWithoutGaps() {
+        String sequence = new SequenceFamilyGenerator(40, 0, 0).generateFamily(2, 2500).getFirst().sequence();
+        SequenceAlignment.AlignedSequences anchored = AnchoredAlignment.align(sequence, sequence, 10, ScoringScheme.DEFAULT);
+        assertEquals(sequence, anchored.alignedSequence1());
+        assertEquals(0, anchored.gapsAlignedSequence1().length + anchored.gapsAlignedSequence2().length);
+        assertEquals(sequence.length() * ScoringScheme.DEFAULT.matchScore(), anchored.alignmentScore());
+    }
+
+    @Test
+    public void shortSequencesGiveTheExactAlignment() {
+        SequenceAlignment.AlignedSequences exact = PackedTraceback.align("ACDEFGHIKL", "ACDFGHIKLL", ScoringScheme.DEFAULT);
+        SequenceAlignment.AlignedSequences anchored = AnchoredAlignment.align("ACDEFGHIKL", "ACDFGHIKLL", 4, ScoringScheme.DEFAULT);
+        assertEquals(exact.alignedSequence1(), anchored.alignedSequence1());
+        assertEquals(exact.alignedSequence2(), anchored.alignedSequence2());
+        assertEquals(exact.alignmentScore(), anchored.alignmentScore());
+    }
+
+    @Test
+    public void invalidSeedLengthsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> AnchoredAlignment.align("ACGT", "ACGT", 0, ScoringScheme.DEFAULT));
+        assertThrows(IllegalArgumentException.class,
+                     () -> AnchoredAlignment.align("ACGT", "ACGT", AnchoredAlignment.MAX_SEED_LENGTH + 1, ScoringScheme.DEFAULT));
+    }
+}
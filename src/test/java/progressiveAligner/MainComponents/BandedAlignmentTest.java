@@ -0,0 +1,75 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BandedAlignmentTest {
+
+    private static String randomSequence(Random random, int length, String alphabet) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int k = 0; k < length; k++) sequence.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sequence.toString();
+    }
+
+    private static String removeColumns(String aligned, int[] gaps) {
+        StringBuilder sequence = new StringBuilder(aligned);
+        for (int k = gaps.length - 1; k >= 0; k--) {
+            assertEquals('-', aligned.charAt(gaps[k]));
+            sequence.deleteCharAt(gaps[k]);
+        }
+        return sequence.toString();
+    }
+
+    @Test
+    public void bandCoveringTheMatrixGivesThePackedAlignment() {
+        Random random = new Random(38);
+        for (int round = 0; round < 200; round++) {
+            ScoringScheme scoring = new ScoringScheme(random.nextInt(6), random.nextInt(9) - 4, random.nextInt(4));
+            String sequence1 = randomSequence(random, 1 + random.nextInt(80), "ACG-");
+            String sequence2 = randomSequence(random, 1 + random.nextInt(80), "ACGT");
+            SequenceAlignment.AlignedSequences packed = PackedTraceback.align(sequence1, sequence2, scoring, false);
+            SequenceAlignment.AlignedSequences banded = BandedAlignment.alignInBand(sequence1, sequence2, scoring,
+                                                                                    Math.max(sequence1.length(), sequence2.length()));
+            assertEquals(packed.alignedSequence1(), banded.alignedSequence1());
+            assertEquals(packed.alignedSequence2(), banded.alignedSequence2());
+            assertEquals(packed.alignmentScore(), banded.alignmentScore());
+            assertArrayEquals(packed.gapsAlignedSequence1(), banded.gapsAlignedSequence1());
+            assertArrayEquals(packed.gapsAlignedSequence2(), banded.gapsAlignedSequence2());
+        }
+    }
+
+    @Test
+    public void narrowBandGivesAValidAlignment() {
+        Random random = new Random(43);
+        ScoringScheme scoring = ScoringScheme.DEFAULT;
+        for (int[] size : new int[][]{{2000, 2000}, {3000, 700}, {500, 4000}}) {
+            String sequence1 = randomSequence(random, size[0], "ACDEFGHIKLMNPQRSTVWY");
+            String sequence2 = randomSequence(random, size[1], "ACDEFGHIKLMNPQRSTVWY");
+            // a budget of about 64 cells per row
+            long maxBytes = (long) size[0] * (64 + (size[1] + size[0] - 1) / size[0]) / 4;
+            SequenceAlignment.AlignedSequences banded = BandedAlignment.align(sequence1, sequence2, scoring, maxBytes);
+
+            assertEquals(banded.alignedSequence1().length(), banded.alignedSequence2().length());
+            assertEquals(sequence1, removeColumns(banded.alignedSequence1(), banded.gapsAlignedSequence1()));
+            assertEquals(sequence2, removeColumns(banded.alignedSequence2(), banded.gapsAlignedSequence2()));
+            int score = 0;
+            for (int column = 0; column < banded.alignedSequence1().length(); column++) {
+                score += scoring.score(banded.alignedSequence1().charAt(column), banded.alignedSequence2().charAt(column));
+            }
+            assertEquals(score, banded.alignmentScore());
+            assertTrue(banded.alignmentScore() <= PackedTraceback.align(sequence1, sequence2, scoring, false).alignmentScore());
+        }
+    }
+
+    @Test
+    public void budgetBelowTheNarrowestBandIsRejected() {
+        String sequence = "ACDEFGHIKL".repeat(1000);
+        assertThrows(IllegalArgumentException.class, () -> BandedAlignment.align(sequence, sequence, ScoringScheme.DEFAULT, 1024));
+    }
+}
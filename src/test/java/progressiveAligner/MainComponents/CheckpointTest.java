@@ -0,0 +1,146 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.SequenceFamilyGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CheckpointTest {
+
+    private static final List<Fasta> FAMILY = new SequenceFamilyGenerator(11, 0.3, 0.05).generateFamily(12, 60);
+    private static final AlignmentContext CONTEXT = AlignmentContext.DEFAULT;
+
+    private static LinkedList<Profile> profiles() {
+        LinkedList<Profile> profiles = new LinkedList<>();
+        for (Fasta fasta : FAMILY) profiles.add(ProgressiveAlignment.toProfile(fasta));
+        return profiles;
+    }
+
+    @Test
+    public void resumeAfterFinishedTreeGivesSameMSA() throws IOException {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("job.ckpt");
+        try {
+            NeighbourJoining.Node tree = new NeighbourJoining(profiles(), CONTEXT).runAlgorithm();
+            Profile expected = ProgressiveAlignment.alignAlongGuideTree(tree, CONTEXT);
+
+            // first run stops after the tree is finished
+            Checkpoint checkpoint = Checkpoint.open(path, 0, false, profiles(), CONTEXT);
+            new NeighbourJoining(profiles(), CONTEXT, checkpoint).runAlgorithm();
+
+            Checkpoint resumed = Checkpoint.open(path, 0, true, profiles(), CONTEXT);
+            NeighbourJoining.Node restoredTree = new NeighbourJoining(profiles(), CONTEXT, resumed).runAlgorithm();
+            assertEquals(Newick.toNewick(tree), Newick.toNewick(restoredTree));
+            assertEquals(expected, ProgressiveAlignment.alignAlongGuideTree(restoredTree, CONTEXT, resumed));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void resumeWithCompletedSubtreeGivesSameMSA() throws IOException {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("job.ckpt");
+        try {
+            NeighbourJoining.Node tree = new NeighbourJoining(profiles(), CONTEXT).runAlgorithm();
+            Profile expected = ProgressiveAlignment.alignAlongGuideTree(tree, CONTEXT);
+
+            // first run stops after one inner subtree below the root was aligned
+            Checkpoint checkpoint = Checkpoint.open(path, 0, false, profiles(), CONTEXT);
+            NeighbourJoining.Node root = new NeighbourJoining(profiles(), CONTEXT, checkpoint).runAlgorithm();
+            NeighbourJoining.Node subtree = root.getChildNode1().isLeaf() ? root.getChildNode2() : root.getChildNode1();
+            checkpoint.subtreeCompleted(subtree, ProgressiveAlignment.alignAlongGuideTree(subtree, CONTEXT));
+
+            Checkpoint resumed = Checkpoint.open(path, 0, true, profiles(), CONTEXT);
+            NeighbourJoining.Node restoredTree = new NeighbourJoining(profiles(), CONTEXT, resumed).runAlgorithm();
+            assertNotNull(resumed.getCompletedSubtree(subtree));
+            assertEquals(expected, ProgressiveAlignment.alignAlongGuideTree(restoredTree, CONTEXT, resumed));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void resumeAfterFinishedRunGivesSameMSA() throws IOException {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("job.ckpt");
+        try {
+            Profile expected = ProgressiveAlignment.neighbourJoiningGuidedMSA(profiles(), CONTEXT);
+
+            Checkpoint checkpoint = Checkpoint.open(path, 0, false, profiles(), CONTEXT);
+            assertEquals(expected, ProgressiveAlignment.neighbourJoiningGuidedMSA(profiles(), CONTEXT, checkpoint));
+
+            Checkpoint resumed = Checkpoint.open(path, 0, true, profiles(), CONTEXT);
+            Profile restored = ProgressiveAlignment.neighbourJoiningGuidedMSA(profiles(), CONTEXT, resumed);
+            assertEquals(expected, restored);
+            assertEquals(expected.getInitialName(), restored.getInitialName());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void differentSettingsAreRejected() throws IOException {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("job.ckpt");
+        try {
+            Checkpoint checkpoint = Checkpoint.open(path, 0, false, profiles(), CONTEXT);
+            new NeighbourJoining(profiles(), CONTEXT, checkpoint).runAlgorithm();
+
+            AlignmentContext otherScoring = CONTEXT.withScoring(new ScoringScheme(5, 2, 1));
+            assertThrows(IllegalArgumentException.class, () -> Checkpoint.open(path, 0, true, profiles(), otherScoring));
+            AlignmentContext otherSeedLength = CONTEXT.withAnchorSeedLength(8);
+            assertThrows(IllegalArgumentException.class, () -> Checkpoint.open(path, 0, true, profiles(), otherSeedLength));
+            assertThrows(IllegalArgumentException.class, () -> Checkpoint.open(path, 0, true, profiles(), CONTEXT, "Newick"));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void differentGuidingTreeIsRejected() throws IOException {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("job.ckpt");
+        try {
+            LinkedList<Profile> profiles = profiles();
+            NeighbourJoining.Node tree = Newick.parse(caterpillar(profiles, false), profiles);
+            Checkpoint checkpoint = Checkpoint.open(path, 0, false, profiles, CONTEXT, "Newick");
+            ProgressiveAlignment.alignAlongGuideTree(tree, CONTEXT, checkpoint);
+
+            LinkedList<Profile> otherProfiles = profiles();
+            NeighbourJoining.Node otherTree = Newick.parse(caterpillar(otherProfiles, true), otherProfiles);
+            Checkpoint resumed = Checkpoint.open(path, 0, true, otherProfiles, CONTEXT, "Newick");
+            assertThrows(IllegalArgumentException.class, () -> ProgressiveAlignment.alignAlongGuideTree(otherTree, CONTEXT, resumed));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * @return a Newick tree that joins the profiles one after the other, in input order or reversed
+     */
+    private static String caterpillar(List<Profile> profiles, boolean reversed) {
+        String tree = null;
+        for (int i = 0; i < profiles.size(); i++) {
+            String name = profiles.get(reversed ? profiles.size() - 1 - i : i).getInitialName();
+            tree = tree == null ? name : "(" + tree + "," + name + ")";
+        }
+        return tree + ";";
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,91 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.SequenceFamilyGenerator;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ConsensusMSATest {
+
+    /**
+     * consensusMSA choosing every merge by scoring all pairs: the first (i, j) with the highest score > 0, or the
+     * first two profiles if no score is positive
+     */
+    private static Profile exhaustiveConsensusMSA(LinkedList<Profile> profiles, AlignmentContext context) {
+        while (profiles.size() != 1) {
+            int highScore = 0;
+            int indexProfileI = 0;
+            int indexProfileJ = 0;
+            for (int i = 0; i < profiles.size(); i++) {
+                for (int j = i + 1; j < profiles.size(); j++) {
+                    int score = SequenceAlignment.computeAlignmentScore(profiles.get(i).getConsensusSequence(),
+                                                                        profiles.get(j).getConsensusSequence(), context);
+                    if (score > highScore) {
+                        highScore = score;
+                        indexProfileI = i;
+                        indexProfileJ = j;
+                    }
+                }
+            }
+
+            Profile profile1;
+            Profile profile2;
+            if (indexProfileJ > indexProfileI) {
+                profile2 = profiles.remove(indexProfileJ);
+                profile1 = profiles.remove(indexProfileI);
+            } else {
+                profile1 = profiles.remove(indexProfileI);
+                profile2 = profiles.remove(indexProfileJ);
+            }
+            profiles.add(SequenceAlignment.pairGuidedAlignment(profile1, profile2, context));
+        }
+        return profiles.getFirst();
+    }
+
+    private static LinkedList<Profile> profiles(long seed, int numberOfSequences, double substitutionRate) {
+        LinkedList<Profile> profiles = new LinkedList<>();
+        for (Fasta fasta : new SequenceFamilyGenerator(seed, substitutionRate, 0.1).generateFamily(numberOfSequences, 40)) {
+            profiles.add(ProgressiveAlignment.toProfile(fasta));
+        }
+        return profiles;
+    }
+
+    @Test
+    public void prunedSelectionGivesSameMSAAsExhaustiveSelection() {
+        ScoringScheme[] scorings = {ScoringScheme.DEFAULT, new ScoringScheme(3, -1, 2), new ScoringScheme(1, -3, 4)};
+        for (ScoringScheme scoring : scorings) {
+            AlignmentContext context = AlignmentContext.of(scoring);
+            for (long seed = 0; seed < 4; seed++) {
+                // without substitutions many pairs tie, with many substitutions some scores are not positive
+                double substitutionRate = seed % 2 == 0 ? 0.05 : 1.5;
+                assertEquals(exhaustiveConsensusMSA(profiles(seed, 14, substitutionRate), context),
+                             ProgressiveAlignment.consensusMSA(profiles(seed, 14, substitutionRate), context));
+            }
+        }
+    }
+
+    @Test
+    public void scoreWithMinimumIsExactOrBelowMinimum() {
+        Random random = new Random(37);
+        AlignmentContext context = AlignmentContext.of(new ScoringScheme(3, -1, 2));
+        for (int round = 0; round < 300; round++) {
+            String sequence1 = randomSequence(random, random.nextInt(50));
+            String sequence2 = randomSequence(random, random.nextInt(50));
+            int exactScore = SequenceAlignment.computeAlignmentScore(sequence1, sequence2, context);
+            int minimumScore = exactScore + random.nextInt(21) - 10;
+
+            int score = SequenceAlignment.computeAlignmentScore(sequence1, sequence2, context, minimumScore);
+            assertEquals(exactScore >= minimumScore ? exactScore : SequenceAlignment.BELOW_MINIMUM_SCORE, score);
+        }
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int k = 0; k < length; k++) sequence.append("ACGT".charAt(random.nextInt(4)));
+        return sequence.toString();
+    }
+}
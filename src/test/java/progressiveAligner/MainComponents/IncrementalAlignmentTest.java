@@ -0,0 +1,95 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+import progressiveAligner.ToolClasses.Fasta;
+import progressiveAligner.ToolClasses.FastaIO;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IncrementalAlignmentTest {
+
+    private static final AlignmentContext CONTEXT = AlignmentContext.of(new ScoringScheme(3, -1, 2));
+
+    private static List<Fasta> fasta(String... headersAndSequences) {
+        List<Fasta> entries = new LinkedList<>();
+        for (int k = 0; k < headersAndSequences.length; k += 2) {
+            entries.add(new Fasta(headersAndSequences[k], headersAndSequences[k + 1]));
+        }
+        return entries;
+    }
+
+    @Test
+    public void insertionFillsGapColumnsOfTheNearestRow() {
+        List<Fasta> alignment = fasta(">s1", "ACDEF--GHIKL", ">s2", "ACDE---GHIKL");
+        List<Fasta> added = IncrementalAlignment.addSequences(alignment, fasta(">n1", "ACDEFWWGHIKL"), CONTEXT);
+
+        // the two inserted residues fit into the gap columns of s1, the alignment keeps its width
+        assertEquals(fasta(">s1", "ACDEF--GHIKL", ">s2", "ACDE---GHIKL", ">n1", "ACDEFWWGHIKL"), added);
+    }
+
+    @Test
+    public void insertionBeyondGapColumnsAddsNewColumns() {
+        List<Fasta> alignment = fasta(">s1", "ACDEF-GHIKL", ">s2", "ACDEFWGHIKL");
+        List<Fasta> newSequences = fasta(">n1", "ACDEFWWWGHIKL", ">n2", "ACDEFWGHIKLMN");
+        List<Fasta> added = IncrementalAlignment.addSequences(alignment, newSequences, CONTEXT);
+
+        // n1 needs two columns more than the W column between F and G, n2 needs two new columns at the end; new
+        // columns are inserted in front of the existing column and are shared by all new sequences
+        assertEquals(fasta(">s1", "ACDEF---GHIKL--",
+                           ">s2", "ACDEF--WGHIKL--",
+                           ">n1", "ACDEFWWWGHIKL--",
+                           ">n2", "ACDEF--WGHIKLMN"), added);
+    }
+
+    @Test
+    public void rowsKeepTheirOrderAndHeaders() {
+        // the last row has the most gaps and the first new sequence is most similar to it, neither changes the order
+        List<Fasta> alignment = fasta(">first row", "ACDEFGHIKL", ">second", "ACDEFGHIKL", ">third", "AC--FG--KL");
+        List<Fasta> added = IncrementalAlignment.addSequences(alignment, fasta(">new 1", "ACFGKL", ">new 2", "ACDEFGHIKL"), CONTEXT);
+
+        assertEquals(List.of(">first row", ">second", ">third", ">new 1", ">new 2"), added.stream().map(Fasta::header).toList());
+        assertEquals(alignment, added.subList(0, 3));
+        assertEquals("AC--FG--KL", added.get(3).sequence());
+        assertEquals("ACDEFGHIKL", added.get(4).sequence());
+    }
+
+    @Test
+    public void writtenResultIsReadBackAsAlignment() throws IOException {
+        Path directory = Files.createTempDirectory("incremental");
+        Path path = directory.resolve("alignment.fasta");
+        try {
+            List<Fasta> added = IncrementalAlignment.addSequences(fasta(">s1", "ACDEFGHIKL", ">s2", "ACDEFGHIKL"),
+                                                                  fasta(">n1", "ACDEFWGHIKL"), CONTEXT);
+            FastaIO.writeFasta(added, path.toString());
+            assertEquals(added, IncrementalAlignment.readAlignment(path.toString()));
+
+            List<Fasta> addedAgain = IncrementalAlignment.addSequences(IncrementalAlignment.readAlignment(path.toString()),
+                                                                       fasta(">n2", "ACDEFGHIKLM"), CONTEXT);
+            assertEquals(fasta(">s1", "ACDEF-GHIKL-", ">s2", "ACDEF-GHIKL-", ">n1", "ACDEFWGHIKL-", ">n2", "ACDEF-GHIKLM"),
+                         addedAgain);
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void rowsOfDifferentLengthAreRejected() throws IOException {
+        Path directory = Files.createTempDirectory("incremental");
+        Path path = directory.resolve("alignment.fasta");
+        try {
+            FastaIO.writeFasta(fasta(">s1", "ACDEF-GHIKL", ">s2", "ACDEFGHIKL"), path.toString());
+            assertThrows(IllegalArgumentException.class, () -> IncrementalAlignment.readAlignment(path.toString()));
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+}
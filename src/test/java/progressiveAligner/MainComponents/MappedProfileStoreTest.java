@@ -0,0 +1,121 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedProfileStoreTest {
+
+    private static String randomRow(Random random, int width) {
+        StringBuilder row = new StringBuilder(width);
+        for (int k = 0; k < width; k++) row.append("ACGT-".charAt(random.nextInt(5)));
+        return row.toString();
+    }
+
+    @Test
+    public void rowsAcrossChunkBoundariesAreReadBack() throws IOException {
+        Path directory = Files.createTempDirectory("spill");
+        Random random = new Random(41);
+        int width = 7;
+        // sized for 3 rows, so the 10 rows take 4 chunks and rows 3, 6 and 9 start a new one
+        try (MappedProfileStore store = new MappedProfileStore(width, 3, directory)) {
+            List<String> rows = new ArrayList<>();
+            for (int r = 0; r < 10; r++) {
+                String row = randomRow(random, width);
+                rows.add(row);
+                if (r % 2 == 0) store.append(row);
+                else store.append(row.getBytes(StandardCharsets.ISO_8859_1), width);
+            }
+
+            assertEquals(rows.size(), store.size());
+            byte[] buffer = new byte[width];
+            for (int r = 0; r < rows.size(); r++) {
+                assertEquals(rows.get(r), store.row(r));
+                assertEquals(width, store.rowLength(r));
+                for (int column = 0; column < width; column++) assertEquals(rows.get(r).charAt(column), store.charAt(r, column));
+
+                store.readRow(r, buffer);
+                assertArrayEquals(rows.get(r).getBytes(StandardCharsets.ISO_8859_1), buffer);
+                byte[] part = new byte[width];
+                store.readRow(r, 2, 6, part);
+                assertEquals(rows.get(r).substring(2, 6), new String(part, 0, 4, StandardCharsets.ISO_8859_1));
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> store.row(10));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.charAt(0, width));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.readRow(0, 3, width + 1, buffer));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void rowsOfOtherWidthAreRejected() throws IOException {
+        Path directory = Files.createTempDirectory("spill");
+        try (MappedProfileStore store = new MappedProfileStore(5, 4, directory)) {
+            store.append("ACGT-");
+            assertThrows(IllegalArgumentException.class, () -> store.append("ACGT"));
+            assertThrows(IllegalArgumentException.class, () -> store.append("ACGT--"));
+            assertEquals(1, store.size());
+            assertThrows(IllegalArgumentException.class, () -> new MappedProfileStore(0, 4, directory));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void closedStoreLeavesNoFileAndRejectsAccess() throws IOException {
+        Path directory = Files.createTempDirectory("spill");
+        try {
+            MappedProfileStore store = new MappedProfileStore(4, 2, directory);
+            for (int r = 0; r < 5; r++) store.append("ACGT");
+            store.close();
+            // closing twice is allowed
+            store.close();
+
+            try (var files = Files.list(directory)) {
+                assertEquals(0, (int) files.count());
+            }
+            assertThrows(IllegalStateException.class, () -> store.row(0));
+            assertThrows(IllegalStateException.class, () -> store.charAt(0, 0));
+            assertThrows(IllegalStateException.class, () -> store.append("ACGT"));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void releasedProfileClosesItsStore() throws IOException {
+        Path directory = Files.createTempDirectory("spill");
+        try {
+            ProfileStore store = ProfileStorage.spillingAbove(1, directory).create(1000, 2000);
+            assertTrue(store instanceof MappedProfileStore);
+            assertTrue(ProfileStorage.spillingAbove(1, directory).create(10, 10) instanceof HeapProfileStore);
+
+            Profile profile = new Profile(store);
+            profile.addSequenceToProfile("A".repeat(2000));
+            assertEquals("A".repeat(2000), profile.getSequenceList().getFirst());
+            profile.release();
+            assertThrows(IllegalStateException.class, () -> profile.getSequenceList().getFirst());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
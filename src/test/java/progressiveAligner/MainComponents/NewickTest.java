@@ -0,0 +1,90 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NewickTest {
+
+    private static LinkedList<Profile> profiles(String... names) {
+        LinkedList<Profile> profiles = new LinkedList<>();
+        for (String name : names) profiles.add(new Profile("ACGT", name));
+        return profiles;
+    }
+
+    @Test
+    public void roundTripKeepsTopologyAndBranchLengths() {
+        LinkedList<Profile> profiles = profiles("a", "b", "c", "d");
+        NeighbourJoining.Node a = new NeighbourJoining.Node(profiles.get(0), 0);
+        NeighbourJoining.Node b = new NeighbourJoining.Node(profiles.get(1), 1);
+        NeighbourJoining.Node c = new NeighbourJoining.Node(profiles.get(2), 2);
+        NeighbourJoining.Node d = new NeighbourJoining.Node(profiles.get(3), 3);
+        NeighbourJoining.Node ab = new NeighbourJoining.Node(a, b, 4);
+        NeighbourJoining.Node cd = new NeighbourJoining.Node(c, d, 5);
+        NeighbourJoining.Node root = new NeighbourJoining.Node(ab, cd, 6);
+        a.setBranchLength(0.5);
+        b.setBranchLength(1.25);
+        c.setBranchLength(0.125);
+        d.setBranchLength(2);
+        ab.setBranchLength(0.75);
+        cd.setBranchLength(0);
+
+        String newick = Newick.toNewick(root);
+        assertEquals("((a:0.5,b:1.25):0.75,(c:0.125,d:2):0);", newick);
+
+        NeighbourJoining.Node parsed = Newick.parse(newick, profiles);
+        assertEquals(newick, Newick.toNewick(parsed));
+        assertEquals(1.25, parsed.getChildNode1().getChildNode2().getBranchLength(), 0);
+        assertEquals(1, parsed.getChildNode1().getChildNode2().getId());
+        assertTrue(parsed.getId() >= profiles.size());
+    }
+
+    @Test
+    public void labelsWithSpecialCharactersAreQuoted() {
+        LinkedList<Profile> profiles = profiles("x y", "it's", "z");
+        NeighbourJoining.Node root = new NeighbourJoining.Node(new NeighbourJoining.Node(new NeighbourJoining.Node(profiles.get(0), 0),
+                                                                                         new NeighbourJoining.Node(profiles.get(1), 1), 3),
+                                                               new NeighbourJoining.Node(profiles.get(2), 2), 4);
+
+        String newick = Newick.toNewick(root);
+        assertEquals("(('x y':0,'it''s':0):0,z:0);", newick);
+        assertEquals(newick, Newick.toNewick(Newick.parse(newick, profiles)));
+    }
+
+    @Test
+    public void multifurcationsCommentsAndInternalLabelsAreAccepted() {
+        LinkedList<Profile> profiles = profiles("a", "b", "c", "d");
+        NeighbourJoining.Node root = Newick.parse("(a:1,b:2,[comment] (c,d)95:0.5)root;\n", profiles);
+
+        // (a,b,x) is resolved into ((a,b),x)
+        assertEquals("((a:1,b:2):0,(c:0,d:0):0.5);", Newick.toNewick(root));
+        assertEquals(List.of(4, 5, 6), List.of(root.getChildNode2().getId(), root.getChildNode1().getId(), root.getId()));
+    }
+
+    @Test
+    public void malformedTreesAreRejected() {
+        for (String newick : List.of("((a,b),c", "(a,b),c);", "(a,,b,c);", "((a,b),());", "((a,b):x,c);",
+                                     "((a,b),c[comment);", "((a,'b),c);", ":1(a,b,c);", "a;",
+                                     // siblings without ','
+                                     "(a b,c);", "((a,b)(c));", "((a,b)c);", "(a(b,c));", "((a,b):1 c);")) {
+            assertThrows(IllegalArgumentException.class, () -> Newick.parse(newick, profiles("a", "b", "c")), newick);
+        }
+    }
+
+    @Test
+    public void labelsHaveToMatchTheSequencesOneToOne() {
+        // missing, unknown and duplicated labels
+        assertThrows(IllegalArgumentException.class, () -> Newick.parse("(a,b);", profiles("a", "b", "c")));
+        assertThrows(IllegalArgumentException.class, () -> Newick.parse("((a,b),x);", profiles("a", "b", "c")));
+        assertThrows(IllegalArgumentException.class, () -> Newick.parse("((a,b),(c,a));", profiles("a", "b", "c")));
+        // names of the sequences have to be unique
+        assertThrows(IllegalArgumentException.class, () -> Newick.parse("((a,b),c);", profiles("a", "b", "b")));
+        assertFalse(Newick.parse("((a,b),c);", profiles("a", "b", "c")).isLeaf());
+    }
+}
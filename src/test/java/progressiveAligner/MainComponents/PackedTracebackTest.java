@@ -0,0 +1,121 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PackedTracebackTest {
+
+    private static final char DIAGONAL = 'D';
+    private static final char LEFT = 'L';
+    private static final char UP = 'U';
+
+    /**
+     * Needleman-Wunsch with the full score matrix and a traceback that recomputes the moves from the scores, ties are
+     * resolved in the order diagonal, left, up
+     */
+    private static SequenceAlignment.AlignedSequences fullMatrixAlignment(String sequence1, String sequence2, ScoringScheme scoring) {
+        int gapPenalty = scoring.gapPenalty();
+        int[][] dpMatrix = new int[sequence1.length() + 1][sequence2.length() + 1];
+        for (int i = 0; i <= sequence1.length(); i++) dpMatrix[i][0] = i * -gapPenalty;
+        for (int j = 0; j <= sequence2.length(); j++) dpMatrix[0][j] = j * -gapPenalty;
+        for (int i = 1; i <= sequence1.length(); i++) {
+            for (int j = 1; j <= sequence2.length(); j++) {
+                dpMatrix[i][j] = Math.max(dpMatrix[i - 1][j] - gapPenalty,
+                                          Math.max(dpMatrix[i][j - 1] - gapPenalty,
+                                                   dpMatrix[i - 1][j - 1] + scoring.score(sequence1.charAt(i - 1), sequence2.charAt(j - 1))));
+            }
+        }
+
+        List<Character> moves = new ArrayList<>();
+        int i = sequence1.length();
+        int j = sequence2.length();
+        while (i > 0 || j > 0) {
+            if (i > 0 && j > 0 && dpMatrix[i][j] == dpMatrix[i - 1][j - 1] + scoring.score(sequence1.charAt(i - 1), sequence2.charAt(j - 1))) {
+                moves.add(DIAGONAL);
+                i--;
+                j--;
+            } else if (j > 0 && dpMatrix[i][j] == dpMatrix[i][j - 1] - gapPenalty) {
+                moves.add(LEFT);
+                j--;
+            } else {
+                moves.add(UP);
+                i--;
+            }
+        }
+        Collections.reverse(moves);
+
+        StringBuilder aligned1 = new StringBuilder();
+        StringBuilder aligned2 = new StringBuilder();
+        List<Integer> gaps1 = new ArrayList<>();
+        List<Integer> gaps2 = new ArrayList<>();
+        for (char move : moves) {
+            if (move == LEFT) gaps1.add(aligned1.length());
+            if (move == UP) gaps2.add(aligned2.length());
+            aligned1.append(move == LEFT ? '-' : sequence1.charAt(i++));
+            aligned2.append(move == UP ? '-' : sequence2.charAt(j++));
+        }
+        return new SequenceAlignment.AlignedSequences(aligned1.toString(), aligned2.toString(),
+                                                      dpMatrix[sequence1.length()][sequence2.length()],
+                                                      gaps1.stream().mapToInt(Integer::intValue).toArray(),
+                                                      gaps2.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static String randomSequence(Random random, int length, String alphabet) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int k = 0; k < length; k++) sequence.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return sequence.toString();
+    }
+
+    private static void assertSameAlignment(SequenceAlignment.AlignedSequences expected, SequenceAlignment.AlignedSequences actual) {
+        assertEquals(expected.alignedSequence1(), actual.alignedSequence1());
+        assertEquals(expected.alignedSequence2(), actual.alignedSequence2());
+        assertEquals(expected.alignmentScore(), actual.alignmentScore());
+        assertArrayEquals(expected.gapsAlignedSequence1(), actual.gapsAlignedSequence1());
+        assertArrayEquals(expected.gapsAlignedSequence2(), actual.gapsAlignedSequence2());
+    }
+
+    @Test
+    public void matchesFullMatrixTracebackOnRandomPairs() {
+        Random random = new Random(36);
+        for (int round = 0; round < 500; round++) {
+            ScoringScheme scoring = new ScoringScheme(random.nextInt(6), random.nextInt(9) - 4, random.nextInt(4));
+            // small alphabets with gap characters give many ties and gapped (profile) sequences
+            String sequence1 = randomSequence(random, random.nextInt(70), "ACG-");
+            String sequence2 = randomSequence(random, random.nextInt(70), "ACGT");
+            assertSameAlignment(fullMatrixAlignment(sequence1, sequence2, scoring),
+                                PackedTraceback.align(sequence1, sequence2, scoring, false));
+        }
+    }
+
+    @Test
+    public void rowsCrossingWordBoundaries() {
+        Random random = new Random(32);
+        for (int length2 : new int[]{31, 32, 33, 64, 65, 100}) {
+            String sequence1 = randomSequence(random, 45, "ACDEFGHIK");
+            String sequence2 = randomSequence(random, length2, "ACDEFGHIK");
+            assertSameAlignment(fullMatrixAlignment(sequence1, sequence2, ScoringScheme.DEFAULT),
+                                PackedTraceback.align(sequence1, sequence2, ScoringScheme.DEFAULT, false));
+        }
+    }
+
+    @Test
+    public void emptySequencesAreAlignedAgainstGaps() {
+        SequenceAlignment.AlignedSequences alignment = PackedTraceback.align("", "ACG", ScoringScheme.DEFAULT, false);
+        assertEquals("---", alignment.alignedSequence1());
+        assertEquals("ACG", alignment.alignedSequence2());
+        assertEquals(-3, alignment.alignmentScore());
+        assertArrayEquals(new int[]{0, 1, 2}, alignment.gapsAlignedSequence1());
+        assertArrayEquals(new int[0], alignment.gapsAlignedSequence2());
+
+        assertSameAlignment(fullMatrixAlignment("AC", "", ScoringScheme.DEFAULT),
+                            PackedTraceback.align("AC", "", ScoringScheme.DEFAULT, false));
+        assertEquals(0, PackedTraceback.align("", "", ScoringScheme.DEFAULT, false).alignmentScore());
+    }
+}
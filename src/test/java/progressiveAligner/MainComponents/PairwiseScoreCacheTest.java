@@ -0,0 +1,129 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PairwiseScoreCacheTest {
+
+    private static final AlignmentContext CONTEXT = AlignmentContext.of(ScoringScheme.DEFAULT);
+
+    // header and a single set of 8 slots, so all pairs compete for the same slots
+    private static final long ONE_SET_BYTES = 64 + 8 * 24;
+
+    private static PairwiseScoreCache.SequenceKey key(int sequence) {
+        return PairwiseScoreCache.key("ACGT" + sequence, CONTEXT);
+    }
+
+    @Test
+    public void storedScoresAreFoundInBothOrders() throws IOException {
+        Path directory = Files.createTempDirectory("distanceCache");
+        try (PairwiseScoreCache cache = PairwiseScoreCache.open(directory.resolve("scores.cache"), 1)) {
+            cache.put(key(1), key(2), -17);
+            cache.put(key(1), key(3), 42);
+
+            assertEquals(OptionalInt.of(-17), cache.get(key(1), key(2)));
+            assertEquals(OptionalInt.of(-17), cache.get(key(2), key(1)));
+            assertEquals(OptionalInt.of(42), cache.get(key(3), key(1)));
+            assertFalse(cache.get(key(2), key(3)).isPresent());
+
+            // storing a pair again replaces its score instead of taking a second slot
+            cache.put(key(2), key(1), 5);
+            assertEquals(OptionalInt.of(5), cache.get(key(1), key(2)));
+            assertEquals(4, (int) cache.getHits());
+            assertEquals(1, (int) cache.getMisses());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void fullSetEvictsLeastRecentlyUsedEntry() throws IOException {
+        Path directory = Files.createTempDirectory("distanceCache");
+        try (PairwiseScoreCache cache = new PairwiseScoreCache(directory.resolve("scores.cache"), ONE_SET_BYTES)) {
+            for (int pair = 0; pair < 8; pair++) cache.put(key(0), key(pair + 1), pair);
+            // reading the oldest entry makes the second oldest the least recently used one
+            assertEquals(OptionalInt.of(0), cache.get(key(0), key(1)));
+
+            cache.put(key(0), key(9), 8);
+            assertFalse(cache.get(key(0), key(2)).isPresent());
+            assertEquals(OptionalInt.of(0), cache.get(key(0), key(1)));
+            for (int pair = 2; pair < 9; pair++) assertEquals(OptionalInt.of(pair), cache.get(key(0), key(pair + 1)));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void reopenedFileKeepsEntriesAndOrder() throws IOException {
+        Path directory = Files.createTempDirectory("distanceCache");
+        Path path = directory.resolve("scores.cache");
+        try {
+            try (PairwiseScoreCache cache = new PairwiseScoreCache(path, ONE_SET_BYTES)) {
+                for (int pair = 0; pair < 8; pair++) cache.put(key(0), key(pair + 1), pair);
+                cache.get(key(0), key(1));
+            }
+
+            // the access clock is persisted as well, so the eviction order survives the reopening
+            try (PairwiseScoreCache cache = new PairwiseScoreCache(path, ONE_SET_BYTES)) {
+                for (int pair = 0; pair < 8; pair++) assertEquals(OptionalInt.of(pair), cache.get(key(0), key(pair + 1)));
+                cache.get(key(0), key(1));
+                cache.put(key(0), key(9), 8);
+                assertFalse(cache.get(key(0), key(2)).isPresent());
+                assertEquals(OptionalInt.of(0), cache.get(key(0), key(1)));
+            }
+
+            // a file of a different size is discarded
+            try (PairwiseScoreCache cache = PairwiseScoreCache.open(path, 1)) {
+                assertFalse(cache.get(key(0), key(1)).isPresent());
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void keysDependOnScoringAndAnchoring() {
+        String sequence = "ACDEFGHIKLMNPQRSTVWY";
+        AlignmentContext anchored = CONTEXT.withAnchorSeedLength(8);
+
+        assertEquals(PairwiseScoreCache.key(sequence, CONTEXT), PairwiseScoreCache.key(sequence, AlignmentContext.of(ScoringScheme.DEFAULT)));
+        assertNotEquals(PairwiseScoreCache.key(sequence, CONTEXT), PairwiseScoreCache.key(sequence + "A", CONTEXT));
+        assertNotEquals(PairwiseScoreCache.key(sequence, CONTEXT),
+                        PairwiseScoreCache.key(sequence, CONTEXT.withScoring(new ScoringScheme(3, -1, 2))));
+
+        assertNotEquals(PairwiseScoreCache.key(sequence, CONTEXT), PairwiseScoreCache.key(sequence, anchored));
+        assertNotEquals(PairwiseScoreCache.key(sequence, anchored), PairwiseScoreCache.key(sequence, CONTEXT.withAnchorSeedLength(10)));
+        assertNotEquals(PairwiseScoreCache.key(sequence, anchored),
+                        PairwiseScoreCache.key(sequence, anchored.withPlanner(anchored.planner().withAnchoredMinCells(1000))));
+        assertNotEquals(PairwiseScoreCache.key(sequence, anchored),
+                        PairwiseScoreCache.key(sequence, anchored.withPlanner(anchored.planner().withAnchoredMinSimilarity(0.5))));
+        // the planner does not change exact scores, so it is not part of their key
+        assertEquals(PairwiseScoreCache.key(sequence, CONTEXT),
+                     PairwiseScoreCache.key(sequence, CONTEXT.withPlanner(CONTEXT.planner().withAnchoredMinCells(1000))));
+    }
+
+    @Test
+    public void disabledCacheHoldsNothing() {
+        PairwiseScoreCache cache = PairwiseScoreCache.disabled();
+        cache.put(key(1), key(2), 3);
+        assertFalse(cache.isEnabled());
+        assertTrue(cache.get(key(1), key(2)).isEmpty());
+        cache.close();
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,62 @@
+package progressiveAligner.MainComponents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class WavefrontFillTest {
+
+    // sizes below, at and above the tile size, most of them no multiple of it or of a direction word
+    private static final int[][] SIZES = {{1, 600}, {600, 1}, {255, 256}, {256, 256}, {257, 513}, {300, 517}, {700, 290}};
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder sequence = new StringBuilder(length);
+        for (int k = 0; k < length; k++) sequence.append("ACDEG-".charAt(random.nextInt(6)));
+        return sequence.toString();
+    }
+
+    @Test
+    public void directionsAndScoreMatchTheSequentialFill() {
+        Random random = new Random(39);
+        ScoringScheme scoring = new ScoringScheme(3, -1, 2);
+        for (int[] size : SIZES) {
+            String sequence1 = randomSequence(random, size[0]);
+            String sequence2 = randomSequence(random, size[1]);
+            int stride = (size[1] + PackedTraceback.CELLS_PER_WORD - 1) / PackedTraceback.CELLS_PER_WORD * PackedTraceback.CELLS_PER_WORD;
+            int words = size[0] * stride / PackedTraceback.CELLS_PER_WORD;
+
+            // the whole matrix as a single tile
+            long[] sequentialDirections = new long[words];
+            int[] topRow = new int[size[1] + 1];
+            int[] leftColumn = new int[size[0] + 1];
+            for (int j = 0; j <= size[1]; j++) topRow[j] = j * -scoring.gapPenalty();
+            for (int i = 0; i <= size[0]; i++) leftColumn[i] = i * -scoring.gapPenalty();
+            PackedTraceback.fillTile(sequence1, sequence2, scoring, 0, size[0], 0, size[1], 0, topRow, leftColumn,
+                                     sequentialDirections, stride, new int[size[1] + 1], new int[size[1] + 1]);
+
+            long[] wavefrontDirections = new long[words];
+            int score = WavefrontFill.fill(sequence1, sequence2, scoring, wavefrontDirections, stride);
+            assertEquals(topRow[size[1]], score);
+            assertArrayEquals(sequentialDirections, wavefrontDirections);
+        }
+    }
+
+    @Test
+    public void parallelAlignmentMatchesSequentialAlignment() {
+        Random random = new Random(256);
+        for (int[] size : SIZES) {
+            String sequence1 = randomSequence(random, size[0]);
+            String sequence2 = randomSequence(random, size[1]);
+            SequenceAlignment.AlignedSequences sequential = PackedTraceback.align(sequence1, sequence2, ScoringScheme.DEFAULT, false);
+            SequenceAlignment.AlignedSequences parallel = PackedTraceback.align(sequence1, sequence2, ScoringScheme.DEFAULT, true);
+            assertEquals(sequential.alignedSequence1(), parallel.alignedSequence1());
+            assertEquals(sequential.alignedSequence2(), parallel.alignedSequence2());
+            assertEquals(sequential.alignmentScore(), parallel.alignmentScore());
+            assertArrayEquals(sequential.gapsAlignedSequence1(), parallel.gapsAlignedSequence1());
+            assertArrayEquals(sequential.gapsAlignedSequence2(), parallel.gapsAlignedSequence2());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package progressiveAligner.ToolClasses;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SequenceFamilyGeneratorTest {
+
+    @Test
+    public void sameSeedGivesSameFamily() {
+        LinkedList<Fasta> family1 = new SequenceFamilyGenerator(7, 0.2, 0.05).generateFamily(20, 100);
+        LinkedList<Fasta> family2 = new SequenceFamilyGenerator(7, 0.2, 0.05).generateFamily(20, 100);
+        assertEquals(family1, family2);
+    }
+
+    @Test
+    public void differentSeedsGiveDifferentFamilies() {
+        LinkedList<Fasta> family1 = new SequenceFamilyGenerator(7, 0.2, 0.05).generateFamily(20, 100);
+        LinkedList<Fasta> family2 = new SequenceFamilyGenerator(8, 0.2, 0.05).generateFamily(20, 100);
+        assertNotEquals(family1, family2);
+    }
+
+    @Test
+    public void familyHasRequestedSizeAndOnlyAminoAcids() {
+        LinkedList<Fasta> family = new SequenceFamilyGenerator(1, 0.5, 0.2).generateFamily(50, 80);
+        assertEquals(50, family.size());
+        for (int i = 0; i < family.size(); i++) {
+            Fasta fasta = family.get(i);
+            assertEquals(">seq_" + i, fasta.header());
+            assertFalse(fasta.sequence().isEmpty());
+            assertTrue(fasta.sequence().matches("[ACDEFGHIKLMNPQRSTVWY]+"), fasta.sequence());
+        }
+    }
+
+    @Test
+    public void withoutMutationsAllSequencesAreTheRoot() {
+        LinkedList<Fasta> family = new SequenceFamilyGenerator(3, 0, 0).generateFamily(10, 60);
+        for (Fasta fasta : family) {
+            assertEquals(family.getFirst().sequence(), fasta.sequence());
+            assertEquals(60, fasta.sequence().length());
+        }
+    }
+
+    @Test
+    public void invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new SequenceFamilyGenerator(1, -0.1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new SequenceFamilyGenerator(1, 0.1, 0).generateFamily(1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new SequenceFamilyGenerator(1, 0.1, 0).generateFamily(5, 0));
+    }
+}